@@ -0,0 +1,99 @@
+package org.renjin.release;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares JMH results with a stored baseline, and fails if any benchmark has become slower.
+ *
+ * <p>Usage: {@code CompareBenchmarks <results.json> <baseline.json> [threshold]}</p>
+ *
+ * <p>A benchmark has regressed if its score is worse than the baseline by more than the threshold
+ * (10% by default), and by more than the error margins of both measurements together, so that noisy
+ * benchmarks are not flagged.</p>
+ */
+public class CompareBenchmarks {
+
+  public static void main(String[] args) throws IOException {
+
+    File resultsFile = new File(args[0]);
+    File baselineFile = new File(args[1]);
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+
+    if(!baselineFile.exists()) {
+      System.out.println("No baseline at " + baselineFile.getAbsolutePath() + ", run jmhBaseline to record one.");
+      return;
+    }
+
+    Map<String, JsonNode> results = read(resultsFile);
+    Map<String, JsonNode> baseline = read(baselineFile);
+
+    int regressions = 0;
+    System.out.println(String.format("%-70s %12s %12s %8s", "Benchmark", "Baseline", "Current", "Change"));
+    for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+      JsonNode current = entry.getValue();
+      JsonNode previous = baseline.get(entry.getKey());
+      double score = current.path("primaryMetric").path("score").asDouble();
+      String unit = current.path("primaryMetric").path("scoreUnit").asText();
+      if(previous == null) {
+        System.out.println(String.format("%-70s %12s %12.3f %8s  %s", entry.getKey(), "-", score, "", unit));
+        continue;
+      }
+      double previousScore = previous.path("primaryMetric").path("score").asDouble();
+      double error = errorOf(current) + errorOf(previous);
+
+      // Throughput is better when higher, all other modes measure time
+      boolean higherIsBetter = current.path("mode").asText().equals("thrpt");
+      double change = (score - previousScore) / previousScore;
+      double worse = higherIsBetter ? -change : change;
+
+      String flag = "";
+      if(worse > threshold && Math.abs(score - previousScore) > error) {
+        flag = "REGRESSION";
+        regressions++;
+      } else if(-worse > threshold && Math.abs(score - previousScore) > error) {
+        flag = "improved";
+      }
+      System.out.println(String.format("%-70s %12.3f %12.3f %+7.1f%%  %s %s",
+          entry.getKey(), previousScore, score, change * 100, unit, flag));
+    }
+
+    if(regressions > 0) {
+      System.out.println(regressions + " benchmark(s) regressed by more than " + Math.round(threshold * 100) + "%");
+      System.exit(1);
+    }
+  }
+
+  private static double errorOf(JsonNode result) {
+    double error = result.path("primaryMetric").path("scoreError").asDouble();
+    // JMH reports NaN when there are too few iterations to estimate the error
+    return Double.isNaN(error) ? 0 : error;
+  }
+
+  /**
+   * Reads a JMH JSON results file, keyed by benchmark name and parameters.
+   */
+  private static Map<String, JsonNode> read(File file) throws IOException {
+    Map<String, JsonNode> results = new LinkedHashMap<>();
+    for (JsonNode result : new ObjectMapper().readTree(file)) {
+      StringBuilder key = new StringBuilder(result.path("benchmark").asText()
+          .replace("org.renjin.release.", ""));
+      Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+      while(params.hasNext()) {
+        Map.Entry<String, JsonNode> param = params.next();
+        key.append(key.indexOf("(") == -1 ? "(" : ",").append(param.getKey()).append('=').append(param.getValue().asText());
+      }
+      if(key.indexOf("(") != -1) {
+        key.append(')');
+      }
+      results.put(key.toString(), result);
+    }
+    return results;
+  }
+}
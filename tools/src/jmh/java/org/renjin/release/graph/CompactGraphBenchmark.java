@@ -0,0 +1,103 @@
+package org.renjin.release.graph;
+
+import org.openjdk.jmh.annotations.*;
+import org.renjin.release.Blocklist;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Traversal of the object graph of {@link PackageNode}s compared with its {@link CompactPackageGraph} form,
+ * on a synthetic universe the size of CRAN and BioConductor together.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompactGraphBenchmark {
+
+  private static final int PACKAGE_COUNT = 20_000;
+  private static final int CLOSURE_COUNT = 2_000;
+
+  private CompactPackageGraph compact;
+  private PackageNode[] sampleNodes;
+  private int[] sampleIndices;
+
+  @Setup
+  public void setup() throws IOException {
+    Logger.getLogger(PackageGraphBuilder.class.getName()).setLevel(Level.WARNING);
+
+    Map<PackageVersionId, ResolvedDependencySet> universe = SyntheticUniverse.generate(PACKAGE_COUNT, new Random(42));
+
+    File emptyDir = Files.createTempDirectory("compact-benchmark").toFile();
+    Files.write(new File(emptyDir, "packages.blocklist").toPath(), new byte[0]);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    PackageGraphBuilder builder = new PackageGraphBuilder(executor, new ReplacedPackageProvider(emptyDir),
+        new Blocklist(emptyDir), pvid -> CompletableFuture.completedFuture(universe.get(pvid)));
+    for (PackageVersionId pvid : universe.keySet()) {
+      builder.add(pvid);
+    }
+    PackageGraph graph = builder.build();
+    executor.shutdown();
+
+    compact = graph.getCompactGraph();
+
+    List<PackageNode> nodes = new ArrayList<>(graph.getNodes());
+    Random random = new Random(7);
+    sampleNodes = new PackageNode[CLOSURE_COUNT];
+    sampleIndices = new int[CLOSURE_COUNT];
+    for (int i = 0; i < CLOSURE_COUNT; i++) {
+      sampleNodes[i] = nodes.get(random.nextInt(nodes.size()));
+      sampleIndices[i] = compact.indexOf(sampleNodes[i].getId().getPackageId());
+    }
+
+    if(objectGraphClosures() != compactGraphClosures()) {
+      throw new IllegalStateException("Closures of the object graph and the compact graph differ");
+    }
+  }
+
+  /**
+   * Finds the reverse-dependency closures of {@value #CLOSURE_COUNT} packages by following {@link PackageNode}s.
+   */
+  @Benchmark
+  public long objectGraphClosures() {
+    long total = 0;
+    for (PackageNode root : sampleNodes) {
+      Set<PackageNode> visited = new HashSet<>();
+      ArrayDeque<PackageNode> queue = new ArrayDeque<>();
+      visited.add(root);
+      queue.add(root);
+      while(!queue.isEmpty()) {
+        for (PackageNode dependent : queue.poll().getReverseDependencies()) {
+          if(visited.add(dependent)) {
+            queue.add(dependent);
+          }
+        }
+      }
+      total += visited.size();
+    }
+    return total;
+  }
+
+  /**
+   * Finds the same closures in the compact graph.
+   */
+  @Benchmark
+  public long compactGraphClosures() {
+    long total = 0;
+    for (int root : sampleIndices) {
+      total += compact.dependentClosure(root, false).cardinality();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,73 @@
+package org.renjin.release.graph;
+
+import org.openjdk.jmh.annotations.*;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Reading and writing of the JSON files kept by {@link DependencyCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DependencyCacheBenchmark {
+
+  private static final int PACKAGE_COUNT = 1_000;
+
+  private File rootDir;
+  private DependencyCache cache;
+  private List<PackageVersionId> ids;
+  private List<ResolvedDependencySet> dependencySets;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    rootDir = Files.createTempDirectory("dependency-cache-benchmark").toFile();
+    cache = new DependencyCache(rootDir, "cran");
+    ids = new ArrayList<>();
+    dependencySets = new ArrayList<>();
+    Map<PackageVersionId, ResolvedDependencySet> universe =
+        SyntheticUniverse.generate(PACKAGE_COUNT, new Random(42));
+    for (Map.Entry<PackageVersionId, ResolvedDependencySet> entry : universe.entrySet()) {
+      ids.add(entry.getKey());
+      dependencySets.add(entry.getValue());
+      cache.cache(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    try(Stream<Path> paths = Files.walk(rootDir.toPath())) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Benchmark
+  public ResolvedDependencySet read() {
+    next = (next + 1) % ids.size();
+    return cache.get(ids.get(next));
+  }
+
+  @Benchmark
+  public void write() {
+    next = (next + 1) % ids.size();
+    cache.cache(ids.get(next), dependencySets.get(next));
+  }
+
+  @Benchmark
+  public List<PackageVersionId> list() {
+    return cache.list();
+  }
+}
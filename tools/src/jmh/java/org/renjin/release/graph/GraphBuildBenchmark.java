@@ -0,0 +1,122 @@
+package org.renjin.release.graph;
+
+import org.openjdk.jmh.annotations.*;
+import org.renjin.release.Blocklist;
+import org.renjin.release.DependencyStoreTool;
+import org.renjin.release.PackageIndex;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the package graph from dependency sets which are already in memory, so that only the graph
+ * construction is measured.
+ *
+ * <p>The {@code recorded} graph is that of the universe given by the {@code renjin.benchmark.universe} system
+ * property, using the dependency sets saved by {@code updatePackageList}. The {@code synthetic} graph has
+ * 20,000 packages, the size of CRAN and BioConductor together.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GraphBuildBenchmark {
+
+  private static final int SYNTHETIC_PACKAGE_COUNT = 20_000;
+
+  @Param({"synthetic", "recorded"})
+  public String universe;
+
+  private Map<PackageVersionId, ResolvedDependencySet> dependencySets;
+  private List<PackageVersionId> roots;
+  private File replacementsDir;
+  private Blocklist blocklist;
+  private ExecutorService executor;
+
+  @Setup
+  public void setup() throws IOException {
+    Logger.getLogger(PackageGraphBuilder.class.getName()).setLevel(Level.WARNING);
+
+    if(universe.equals("synthetic")) {
+      File emptyDir = Files.createTempDirectory("graph-benchmark").toFile();
+      Files.write(new File(emptyDir, "packages.blocklist").toPath(), new byte[0]);
+      replacementsDir = emptyDir;
+      blocklist = new Blocklist(emptyDir);
+      dependencySets = SyntheticUniverse.generate(SYNTHETIC_PACKAGE_COUNT, new Random(42));
+      roots = new ArrayList<>(dependencySets.keySet());
+    } else {
+      File universeRoot = new File(System.getProperty("renjin.benchmark.universe", ".."));
+      replacementsDir = new File(universeRoot, "replacements");
+      blocklist = new Blocklist(new File(universeRoot, "packages"));
+      roots = new PackageIndex(new File(universeRoot, "packages")).getToBuild();
+      dependencySets = readRecordedUniverse(universeRoot, roots);
+    }
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  /**
+   * Reads the saved dependency sets of the packages to build, and of the packages they depend on.
+   */
+  private static Map<PackageVersionId, ResolvedDependencySet> readRecordedUniverse(File universeRoot,
+                                                                                List<PackageVersionId> roots) throws IOException {
+    File packageRootDir = new File(universeRoot, "packages");
+    DependencyStore store = DependencyStoreTool.open(packageRootDir);
+
+    Map<PackageVersionId, ResolvedDependencySet> dependencySets = new HashMap<>();
+    try {
+      ArrayDeque<PackageVersionId> queue = new ArrayDeque<>(roots);
+      while(!queue.isEmpty()) {
+        PackageVersionId pvid = queue.poll();
+        if(!dependencySets.containsKey(pvid)) {
+          ResolvedDependencySet dependencySet = store.get(pvid);
+          if(dependencySet == null) {
+            dependencySet = new ResolvedDependencySet(Collections.emptyList());
+          }
+          dependencySets.put(pvid, dependencySet);
+          dependencySet.getDependencies().stream()
+              .filter(dependency -> dependency.isVersionResolved())
+              .forEach(dependency -> queue.add(dependency.getPackageVersionId()));
+        }
+      }
+    } finally {
+      if(store instanceof Closeable) {
+        ((Closeable) store).close();
+      }
+    }
+    if(dependencySets.isEmpty()) {
+      throw new IllegalStateException("No packages in " + packageRootDir.getAbsolutePath() + "/packages.list");
+    }
+    return dependencySets;
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public PackageGraph build() {
+    PackageGraphBuilder builder = new PackageGraphBuilder(executor, new ReplacedPackageProvider(replacementsDir),
+        blocklist, pvid -> {
+          ResolvedDependencySet dependencySet = dependencySets.get(pvid);
+          if(dependencySet == null) {
+            dependencySet = new ResolvedDependencySet(Collections.emptyList());
+          }
+          return CompletableFuture.completedFuture(dependencySet);
+        });
+    for (PackageVersionId pvid : roots) {
+      builder.add(pvid);
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,127 @@
+package org.renjin.release.graph;
+
+import org.openjdk.jmh.annotations.*;
+import org.renjin.release.Blocklist;
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Contention on the node registry at different numbers of threads. The graph is expanded from dependency sets
+ * resolved in memory, so that the results reflect contention on the registry rather than network latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NodeRegistryBenchmark {
+
+  private static final int PACKAGE_COUNT = 20_000;
+  private static final int ROOT_COUNT = 500;
+
+  private static final int OPERATIONS = 1_000_000;
+  private static final int KEYS = 10_000;
+
+  @Param({"4", "12", "32", "128"})
+  public int threads;
+
+  private Map<PackageVersionId, ResolvedDependencySet> universe;
+  private List<PackageVersionId> roots;
+  private ReplacedPackageProvider replacedPackages;
+  private Blocklist blocklist;
+  private PackageId[] ids;
+  private ExecutorService executor;
+
+  @Setup
+  public void setup() throws IOException {
+    // Keep per-package logging out of the measurements
+    Logger.getLogger(PackageGraphBuilder.class.getName()).setLevel(Level.WARNING);
+
+    universe = SyntheticUniverse.generate(PACKAGE_COUNT, new Random(42));
+    roots = new ArrayList<>(universe.keySet()).subList(PACKAGE_COUNT - ROOT_COUNT, PACKAGE_COUNT);
+
+    File emptyDir = Files.createTempDirectory("registry-benchmark").toFile();
+    Files.write(new File(emptyDir, "packages.blocklist").toPath(), new byte[0]);
+    replacedPackages = new ReplacedPackageProvider(emptyDir);
+    blocklist = new Blocklist(emptyDir);
+
+    ids = new PackageId[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      ids[i] = PackageId.of(PackageId.CRAN_GROUP, "p" + i);
+    }
+
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Expands the graph of {@value #ROOT_COUNT} roots in a universe of {@value #PACKAGE_COUNT} packages.
+   */
+  @Benchmark
+  public PackageGraph expandGraph() {
+    PackageGraphBuilder builder = new PackageGraphBuilder(executor, replacedPackages, blocklist,
+        pvid -> CompletableFuture.completedFuture(universe.get(pvid)));
+    for (PackageVersionId root : roots) {
+      builder.add(root);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Makes {@value #OPERATIONS} calls to {@link PackageNodeRegistry#getOrCreate}, spread over the threads.
+   */
+  @Benchmark
+  public Object registryGetOrCreate() throws Exception {
+    PackageNodeRegistry registry = new PackageNodeRegistry();
+    CompletableFuture<Set<DependencyEdge>> none = CompletableFuture.completedFuture(Collections.emptySet());
+    run(id -> registry.getOrCreate(id, () -> new PackageNode(new PackageVersionId(id, "1.0"), none), node -> { }));
+    return registry;
+  }
+
+  /**
+   * Makes as many calls to a map guarded by a single lock, the baseline for {@link #registryGetOrCreate()}.
+   */
+  @Benchmark
+  public Object synchronizedMapGetOrCreate() throws Exception {
+    Map<PackageId, PackageNode> map = new HashMap<>();
+    CompletableFuture<Set<DependencyEdge>> none = CompletableFuture.completedFuture(Collections.emptySet());
+    run(id -> {
+      synchronized (map) {
+        map.computeIfAbsent(id, key -> new PackageNode(new PackageVersionId(key, "1.0"), none));
+      }
+    });
+    return map;
+  }
+
+  private interface Operation {
+    void apply(PackageId id);
+  }
+
+  private void run(Operation operation) throws Exception {
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int seed = t;
+      tasks.add(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < OPERATIONS / threads; i++) {
+          operation.apply(ids[random.nextInt(KEYS)]);
+        }
+        return null;
+      });
+    }
+    for (Future<Void> future : executor.invokeAll(tasks)) {
+      future.get();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package org.renjin.release.graph;
+
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependency;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.util.*;
+
+/**
+ * Generates the dependency sets of a universe of packages for the benchmarks, without the package database.
+ */
+final class SyntheticUniverse {
+
+  private SyntheticUniverse() {
+  }
+
+  /**
+   * Generates a universe of packages, each depending on a handful of packages
+   * with lower indices, so that the graph is acyclic.
+   */
+  static Map<PackageVersionId, ResolvedDependencySet> generate(int packageCount, Random random) {
+    Map<PackageVersionId, ResolvedDependencySet> universe = new LinkedHashMap<>();
+    List<PackageVersionId> ids = new ArrayList<>();
+    for (int i = 0; i < packageCount; i++) {
+      PackageVersionId id = new PackageVersionId(PackageId.CRAN_GROUP, "pkg" + i, "1.0-" + (i % 7));
+      List<ResolvedDependency> dependencies = new ArrayList<>();
+      if(i > 0) {
+        int dependencyCount = random.nextInt(7);
+        for (int j = 0; j < dependencyCount; j++) {
+          ResolvedDependency dependency = new ResolvedDependency(ids.get(random.nextInt(i)));
+          dependency.setOptional(random.nextInt(4) == 0);
+          dependencies.add(dependency);
+        }
+      }
+      ids.add(id);
+      universe.put(id, new ResolvedDependencySet(dependencies));
+    }
+    return universe;
+  }
+}
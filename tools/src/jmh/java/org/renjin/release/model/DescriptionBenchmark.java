@@ -0,0 +1,201 @@
+package org.renjin.release.model;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.io.CharStreams;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of {@code DESCRIPTION} files and of their dependency fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DescriptionBenchmark {
+
+  private static final int FILE_COUNT = 500;
+
+  private static final String[] DEPENDENCY_FIELDS = { "Depends", "Imports", "LinkingTo", "Suggests" };
+
+  private byte[][] files;
+  private String[] importLists;
+  private String packagesIndex;
+
+  @Setup
+  public void setup() {
+    List<byte[]> descriptions = syntheticDescriptions(FILE_COUNT, new Random(42));
+    files = descriptions.toArray(new byte[0][]);
+    importLists = new String[files.length];
+    StringBuilder index = new StringBuilder();
+    for (int i = 0; i < files.length; i++) {
+      importLists[i] = DcfParser.parse(files[i]).getFirstProperty("Imports");
+      index.append(new String(files[i], Charsets.UTF_8)).append("\n");
+    }
+    packagesIndex = index.toString();
+  }
+
+  /**
+   * Parses {@value #FILE_COUNT} files.
+   */
+  @Benchmark
+  public void parseDescription(Blackhole blackhole) {
+    for (byte[] file : files) {
+      blackhole.consume(DcfParser.parse(file));
+    }
+  }
+
+  /**
+   * Parses {@value #FILE_COUNT} files and reads each dependency field twice, as {@code PackageSetupTask} does.
+   */
+  @Benchmark
+  public void parseDescriptionAndDependencies(Blackhole blackhole) {
+    for (byte[] file : files) {
+      PackageDescription description = DcfParser.parse(file);
+      for (int pass = 0; pass < 2; pass++) {
+        blackhole.consume(description.getDepends());
+        blackhole.consume(description.getImports());
+        blackhole.consume(description.getLinkingTo());
+        blackhole.consume(description.getSuggests());
+      }
+    }
+  }
+
+  /**
+   * Parses {@value #FILE_COUNT} {@code Imports} fields.
+   */
+  @Benchmark
+  public void parseDependencyList(Blackhole blackhole) {
+    for (String list : importLists) {
+      blackhole.consume(PackageDependency.parseList("Imports", list));
+    }
+  }
+
+  /**
+   * Parses the same files as one {@code PACKAGES} index, as the package list is updated from.
+   */
+  @Benchmark
+  public long parsePackagesIndex() throws IOException {
+    long[] total = new long[1];
+    DcfParser.forEachRecord(new StringReader(packagesIndex), description -> total[0] += countDependencies(description));
+    return total[0];
+  }
+
+  /**
+   * Parses {@value #FILE_COUNT} files and reads each dependency field twice with the line-based parser which
+   * {@link DcfParser} replaced, kept here as the baseline for {@link #parseDescriptionAndDependencies}.
+   */
+  @Benchmark
+  public long lineParserBaseline() throws IOException {
+    long total = 0;
+    for (byte[] file : files) {
+      ArrayListMultimap<String, String> properties = ArrayListMultimap.create();
+      List<String> lines = CharStreams.readLines(new StringReader(new String(file, Charsets.UTF_8)));
+      String key = null;
+      StringBuilder value = new StringBuilder();
+      for (String line : lines) {
+        if(line.length() > 0) {
+          if(Character.isWhitespace(line.codePointAt(0))) {
+            if(line.trim().length() > 0) {
+              value.append(" ").append(line.trim());
+            }
+          } else {
+            if(key != null) {
+              properties.put(key, value.toString());
+              value.setLength(0);
+            }
+            int colon = line.indexOf(':');
+            key = line.substring(0, colon);
+            value.append(line.substring(colon + 1).trim());
+          }
+        }
+      }
+      if(key != null) {
+        properties.put(key, value.toString());
+      }
+
+      for (int pass = 0; pass < 2; pass++) {
+        for (String field : DEPENDENCY_FIELDS) {
+          if(properties.containsKey(field)) {
+            String list = properties.get(field).get(0).trim();
+            if(!list.isEmpty()) {
+              for (String spec : list.split("\\s*,\\s*")) {
+                total += new PackageDependency(spec, "Suggests".equals(field)).getName().length();
+              }
+            }
+          }
+        }
+      }
+    }
+    return total;
+  }
+
+  private static long countDependencies(PackageDescription description) {
+    long total = 0;
+    for (int pass = 0; pass < 2; pass++) {
+      for (String field : DEPENDENCY_FIELDS) {
+        for (PackageDependency dependency : description.getPackageDependencyList(field)) {
+          total += dependency.getName().length();
+        }
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Generates {@code DESCRIPTION} files shaped like those on CRAN, with continuation lines and versioned
+   * dependencies.
+   */
+  private static List<byte[]> syntheticDescriptions(int count, Random random) {
+    List<byte[]> files = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      StringBuilder file = new StringBuilder();
+      file.append("Package: pkg").append(i).append("\n");
+      file.append("Type: Package\n");
+      file.append("Title: Tools for Synthetic Package ").append(i).append("\n");
+      file.append("Version: ").append(random.nextInt(5)).append(".").append(random.nextInt(20))
+          .append("-").append(random.nextInt(10)).append("\n");
+      file.append("Authors@R: c(person(\"Ada\", \"Lovelace\", role = c(\"aut\", \"cre\"),\n")
+          .append("    email = \"ada@example.org\"))\n");
+      file.append("Description: Provides functions for the analysis of synthetic data, with methods\n")
+          .append("    for estimation, testing and visualisation. See the vignette for details\n")
+          .append("    and worked examples.\n");
+      file.append("License: GPL (>= 2)\n");
+      file.append("Depends: R (>= 3.").append(random.nextInt(6)).append(".0)");
+      dependencyList(file, i, random.nextInt(3), random);
+      file.append("\n");
+      file.append("Imports: methods");
+      dependencyList(file, i, random.nextInt(8), random);
+      file.append("\n");
+      if(random.nextInt(4) == 0) {
+        file.append("LinkingTo: Rcpp\n");
+      }
+      file.append("Suggests: testthat");
+      dependencyList(file, i, random.nextInt(10), random);
+      file.append("\n");
+      file.append("NeedsCompilation: ").append(random.nextBoolean() ? "yes" : "no").append("\n");
+      file.append("Packaged: 2019-05-01 10:12:13 UTC; ada\n");
+      file.append("Repository: CRAN\n");
+      file.append("Date/Publication: 2019-05-02 12:00:00 UTC\n");
+      files.add(file.toString().getBytes(Charsets.UTF_8));
+    }
+    return files;
+  }
+
+  private static void dependencyList(StringBuilder file, int i, int count, Random random) {
+    for (int j = 0; j < count; j++) {
+      file.append(j % 3 == 2 ? ",\n    " : ", ");
+      file.append("pkg").append(random.nextInt(i + 1));
+      if(random.nextInt(3) == 0) {
+        file.append(" (>= ").append(random.nextInt(3)).append(".").append(random.nextInt(10)).append(")");
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org.renjin.release.model;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison and sorting of package versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VersionBenchmark {
+
+  private static final int VERSION_COUNT = 1_000;
+  private static final int PACKAGE_COUNT = 200;
+
+  private String[] versions;
+  private List<PackageVersionId> ids;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    versions = new String[VERSION_COUNT];
+    for (int i = 0; i < versions.length; i++) {
+      versions[i] = randomVersion(random);
+    }
+    ids = new ArrayList<>();
+    for (int i = 0; i < VERSION_COUNT; i++) {
+      ids.add(new PackageVersionId(PackageId.CRAN_GROUP, "pkg" + random.nextInt(PACKAGE_COUNT), randomVersion(random)));
+    }
+  }
+
+  private static String randomVersion(Random random) {
+    StringBuilder version = new StringBuilder();
+    version.append(random.nextInt(4)).append('.').append(random.nextInt(30));
+    if(random.nextBoolean()) {
+      version.append(random.nextBoolean() ? '-' : '.').append(random.nextInt(12));
+    }
+    return version.toString();
+  }
+
+  /**
+   * Compares {@value #VERSION_COUNT} pairs of version strings.
+   */
+  @Benchmark
+  public void compareVersions(Blackhole blackhole) {
+    for (int i = 1; i < versions.length; i++) {
+      blackhole.consume(PackageVersionId.compareVersions(versions[i - 1], versions[i]));
+    }
+  }
+
+  /**
+   * Sorts {@value #VERSION_COUNT} package version ids.
+   */
+  @Benchmark
+  public List<PackageVersionId> sortIds() {
+    List<PackageVersionId> sorted = new ArrayList<>(ids);
+    Collections.sort(sorted);
+    return sorted;
+  }
+}
@@ -0,0 +1,170 @@
+package org.renjin.release;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import org.renjin.release.graph.CompactPackageGraph;
+import org.renjin.release.graph.PackageGraph;
+import org.renjin.release.model.PackageId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.*;
+
+/**
+ * Selects the packages which need to be rebuilt and retested after a change to some packages.
+ *
+ * <p>A package must be rebuilt if it depends on a changed package through non-optional dependencies,
+ * directly or transitively. It must be retested if it is rebuilt, or if it suggests a rebuilt package.</p>
+ *
+ * <p>Usage: {@code AffectedPackages <universe root> [options] [changed...]}</p>
+ *
+ * <p>Each changed package is given either by name or by a path below {@code packages/cran/} or
+ * {@code replacements/}, such as the output of {@code git diff --name-only}. If none are given on the
+ * command line, they are read from standard input, one per line. A change to the build shared by all packages,
+ * such as {@code packages/build.gradle}, {@code packages/settings.gradle.in} or anything in
+ * {@code packages/gradle/}, affects every package. Options:</p>
+ *
+ * <ul>
+ *   <li>{@code --testsuite=<name>} writes {@code packages/<name>.testsuite} instead of printing
+ *   the Gradle tasks to run.</li>
+ *   <li>{@code --within=<name>} only selects packages listed in {@code packages/<name>.testsuite},
+ *   and keeps their waivers.</li>
+ * </ul>
+ */
+public class AffectedPackages {
+
+  public static void main(String[] args) throws IOException {
+
+    File universeRoot = new File(args[0]);
+    File packageRootDir = new File(universeRoot, "packages");
+
+    String testSuiteName = null;
+    String withinName = null;
+    List<String> changed = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      if(args[i].startsWith("--testsuite=")) {
+        testSuiteName = args[i].substring("--testsuite=".length());
+      } else if(args[i].startsWith("--within=")) {
+        withinName = args[i].substring("--within=".length());
+      } else {
+        changed.add(args[i]);
+      }
+    }
+    if(changed.isEmpty()) {
+      changed.addAll(CharStreams.readLines(new InputStreamReader(System.in, Charsets.UTF_8)));
+    }
+
+    PackageGraph graph = UniverseGraph.load(universeRoot);
+    CompactPackageGraph compactGraph = graph.getCompactGraph();
+
+    BitSet changedNodes = new BitSet(compactGraph.size());
+    for (String change : changed) {
+      if(isSharedBuildFile(change)) {
+        System.err.println(change.trim() + " is part of the build shared by all packages, selecting every package");
+        changedNodes.set(0, compactGraph.size());
+        continue;
+      }
+      String packageName = packageName(change);
+      if(packageName == null) {
+        if(!change.trim().isEmpty()) {
+          System.err.println("Ignoring " + change.trim() + ": not within a package");
+        }
+        continue;
+      }
+      int node = compactGraph.indexOf(PackageId.of(PackageId.CRAN_GROUP, packageName));
+      if(node == -1) {
+        System.err.println("Ignoring " + change + ": " + packageName + " is not in the package graph");
+      } else {
+        changedNodes.set(node);
+      }
+    }
+
+    BitSet rebuild = compactGraph.dependentClosure(changedNodes, false);
+    BitSet retest = retestSet(compactGraph, rebuild);
+
+    TestSuite within = withinName == null ? null :
+        TestSuite.read(new File(packageRootDir, withinName + TestSuite.EXTENSION));
+
+    List<String> selected = new ArrayList<>();
+    for (int i = retest.nextSetBit(0); i >= 0; i = retest.nextSetBit(i + 1)) {
+      String packageName = compactGraph.getId(i).getPackageName();
+      // Replaced packages are built elsewhere
+      if(!compactGraph.isReplaced(i) && (within == null || within.contains(packageName))) {
+        selected.add(packageName);
+      }
+    }
+
+    System.err.println(String.format("%d changed, %d to rebuild, %d to retest, %d selected of %d packages",
+        changedNodes.cardinality(), rebuild.cardinality(), retest.cardinality(), selected.size(), compactGraph.size()));
+
+    if(testSuiteName != null) {
+      TestSuite suite = new TestSuite();
+      for (String packageName : selected) {
+        suite.add(packageName, within == null ? Collections.emptyList() : within.getWaivers(packageName));
+      }
+      File suiteFile = new File(packageRootDir, testSuiteName + TestSuite.EXTENSION);
+      suite.write(suiteFile, "Generated by AffectedPackages for changes to: " + String.join(" ", changed));
+      System.err.println("Wrote " + suiteFile.getAbsolutePath() + ", run with ./gradlew -Ptestsuite=" +
+          testSuiteName + " checkTests");
+    } else {
+      StringBuilder tasks = new StringBuilder();
+      for (String packageName : selected) {
+        if(tasks.length() > 0) {
+          tasks.append(' ');
+        }
+        tasks.append("cran:").append(packageName).append(":testNamespace");
+      }
+      System.out.println(tasks);
+    }
+  }
+
+  /**
+   * @return the rebuilt packages together with the packages which suggest any of them.
+   */
+  static BitSet retestSet(CompactPackageGraph graph, BitSet rebuild) {
+    BitSet retest = (BitSet) rebuild.clone();
+    for (int node = rebuild.nextSetBit(0); node >= 0; node = rebuild.nextSetBit(node + 1)) {
+      graph.forEachDependent(node, true, retest::set);
+    }
+    return retest;
+  }
+
+  /**
+   * @return true if the path is part of the Gradle build shared by all packages, given either from the root of the
+   * repository, such as {@code packages/gradle/package.gradle}, or from the {@code packages} directory.
+   */
+  static boolean isSharedBuildFile(String change) {
+    String path = change.trim().replace('\\', '/');
+    if(path.startsWith("packages/")) {
+      path = path.substring("packages/".length());
+    }
+    return path.equals("build.gradle") ||
+        path.equals("settings.gradle.in") ||
+        path.equals("gradle.properties") ||
+        path.startsWith("gradle/");
+  }
+
+  /**
+   * Extracts the package name from a package name or a path such as {@code packages/cran/MASS/R/lda.R}
+   * or {@code replacements/Rcpp/build.gradle}.
+   *
+   * @return the package name, or {@code null} if the path is not within a package.
+   */
+  static String packageName(String change) {
+    String path = change.trim().replace('\\', '/');
+    if(path.isEmpty()) {
+      return null;
+    }
+    if(!path.contains("/")) {
+      return path;
+    }
+    String[] segments = path.split("/");
+    for (int i = 0; i < segments.length - 1; i++) {
+      if(segments[i].equals("cran") || segments[i].equals("replacements")) {
+        return segments[i + 1];
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,206 @@
+package org.renjin.release;
+
+import org.renjin.release.graph.DependencyResolver;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import javax.ws.rs.NotFoundException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces requests to resolve the dependencies of individual package versions into
+ * bulk requests to the package database.
+ *
+ * <p>Requests that arrive within a short window of each other are grouped into a single call to
+ * {@link PackageDatabaseClient#resolveDependencySets(java.util.Collection)}, and each caller's future is completed
+ * from the shared response. If the server does not support bulk resolution, the resolver falls
+ * back to one request per package version.</p>
+ *
+ * <p>Bulk resolution is answered by the {@link MirrorServer}, but not by the package database itself, so
+ * {@code updatePackageList} only uses this resolver with {@code -Drenjin.release.batchResolution=true}, which
+ * is set when running against a snapshot or a mirror.</p>
+ */
+public class BatchingDependencyResolver implements DependencyResolver, AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(BatchingDependencyResolver.class.getName());
+
+  private final ExecutorService executorService;
+  private final long windowMillis;
+  private final int maxBatchSize;
+
+  private final ScheduledExecutorService timer;
+
+  private final Object lock = new Object();
+
+  /**
+   * Requests which have not yet been sent, in order of arrival.
+   */
+  private Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> pending = new LinkedHashMap<>();
+
+  private ScheduledFuture<?> scheduledFlush;
+
+  private volatile boolean bulkSupported = true;
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+  private final AtomicInteger roundTripCount = new AtomicInteger();
+
+  /**
+   * @param executorService the executor on which requests to the server are made.
+   * @param windowMillis the time, in milliseconds, to wait for further requests after the first request
+   *                     of a batch arrives.
+   * @param maxBatchSize the maximum number of package versions to resolve in one request.
+   */
+  public BatchingDependencyResolver(ExecutorService executorService, long windowMillis, int maxBatchSize) {
+    this.executorService = executorService;
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = Math.min(maxBatchSize, PackageDatabaseClient.MAX_BULK_RESOLUTION);
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "resolution-batcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public BatchingDependencyResolver(ExecutorService executorService) {
+    this(executorService, 25, PackageDatabaseClient.MAX_BULK_RESOLUTION);
+  }
+
+  /**
+   * Queues a package version for resolution.
+   *
+   * @return a future that completes once the batch containing this package version has been resolved.
+   */
+  @Override
+  public CompletableFuture<ResolvedDependencySet> resolve(PackageVersionId pvid) {
+    requestCount.incrementAndGet();
+
+    Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> batch = null;
+    CompletableFuture<ResolvedDependencySet> future;
+
+    synchronized (lock) {
+      future = pending.get(pvid);
+      if(future != null) {
+        return future;
+      }
+      future = new CompletableFuture<>();
+      pending.put(pvid, future);
+
+      if(pending.size() >= maxBatchSize) {
+        batch = takePending();
+      } else if(scheduledFlush == null) {
+        scheduledFlush = timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    if(batch != null) {
+      submit(batch);
+    }
+    return future;
+  }
+
+  /**
+   * Immediately sends all pending requests.
+   */
+  public void flush() {
+    Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> batch;
+    synchronized (lock) {
+      batch = takePending();
+    }
+    if(!batch.isEmpty()) {
+      submit(batch);
+    }
+  }
+
+  private Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> takePending() {
+    Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> batch = pending;
+    pending = new LinkedHashMap<>();
+    if(scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    return batch;
+  }
+
+  private void submit(Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> batch) {
+    try {
+      executorService.execute(() -> send(batch));
+    } catch (RejectedExecutionException e) {
+      for (CompletableFuture<ResolvedDependencySet> future : batch.values()) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+  private void send(Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> batch) {
+
+    List<PackageVersionId> remaining = new ArrayList<>(batch.keySet());
+
+    if(bulkSupported && batch.size() > 1) {
+      try {
+        roundTripCount.incrementAndGet();
+        Map<PackageVersionId, ResolvedDependencySet> response = PackageDatabaseClient.resolveDependencySets(batch.keySet());
+        remaining.clear();
+        for (Map.Entry<PackageVersionId, CompletableFuture<ResolvedDependencySet>> entry : batch.entrySet()) {
+          ResolvedDependencySet resolution = response.get(entry.getKey());
+          if(resolution == null) {
+            remaining.add(entry.getKey());
+          } else {
+            entry.getValue().complete(resolution);
+          }
+        }
+      } catch (NotFoundException e) {
+        LOGGER.warning("Package database does not support bulk resolution, falling back to individual requests.");
+        bulkSupported = false;
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING, "Bulk resolution of " + batch.size() + " packages failed, retrying individually", e);
+      }
+    }
+
+    // Resolve anything that the bulk request could not individually, each request as a task of its own,
+    // so that they are sent in parallel rather than one after the other on this thread.
+    for (PackageVersionId pvid : remaining) {
+      CompletableFuture<ResolvedDependencySet> future = batch.get(pvid);
+      try {
+        executorService.execute(() -> resolveIndividually(pvid, future));
+      } catch (RejectedExecutionException e) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+  private void resolveIndividually(PackageVersionId pvid, CompletableFuture<ResolvedDependencySet> future) {
+    try {
+      roundTripCount.incrementAndGet();
+      future.complete(PackageDatabaseClient.resolveDependencies(pvid));
+    } catch (Exception e) {
+      future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * @return the number of resolution requests received from callers.
+   */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * @return the number of requests actually made to the package database.
+   */
+  public int getRoundTripCount() {
+    return roundTripCount.get();
+  }
+
+  @Override
+  public void close() {
+    flush();
+    timer.shutdown();
+  }
+}
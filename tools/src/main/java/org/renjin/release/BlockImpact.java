@@ -0,0 +1,46 @@
+package org.renjin.release;
+
+import org.renjin.release.graph.BlockedStatusPropagation;
+import org.renjin.release.graph.CompactPackageGraph;
+import org.renjin.release.graph.PackageGraph;
+import org.renjin.release.model.PackageId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Lists the packages which would no longer be built if the given packages were added to the blocklist.
+ *
+ * <p>Usage: {@code BlockImpact <universe root> <package name>...}</p>
+ */
+public class BlockImpact {
+
+  public static void main(String[] args) throws IOException {
+
+    File universeRoot = new File(args[0]);
+    PackageGraph graph = UniverseGraph.load(universeRoot);
+    CompactPackageGraph compactGraph = graph.getCompactGraph();
+
+    for (int a = 1; a < args.length; a++) {
+      String packageName = args[a];
+      int node = compactGraph.indexOf(PackageId.of(PackageId.CRAN_GROUP, packageName));
+      if(node == -1) {
+        System.out.println(packageName + ": not in the package graph");
+        continue;
+      }
+
+      long startTime = System.nanoTime();
+      BitSet takenDown = BlockedStatusPropagation.takenDownBy(compactGraph, node);
+      long elapsed = System.nanoTime() - startTime;
+
+      System.out.println(String.format("Blocking %s takes down %d other packages (computed in %d us):",
+          packageName, takenDown.cardinality() - 1, elapsed / 1000));
+      for (int i = takenDown.nextSetBit(0); i >= 0; i = takenDown.nextSetBit(i + 1)) {
+        if(i != node) {
+          System.out.println("  " + compactGraph.getId(i));
+        }
+      }
+    }
+  }
+}
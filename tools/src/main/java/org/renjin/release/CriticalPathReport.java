@@ -0,0 +1,83 @@
+package org.renjin.release;
+
+import org.renjin.release.graph.BuildTimeAnalysis;
+import org.renjin.release.graph.PackageGraph;
+import org.renjin.release.graph.PackageNode;
+import org.renjin.release.graph.TaskTimings;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Combines the task timings recorded by previous package builds with the package graph to find the critical
+ * path, the expected wall time at different numbers of workers, and the packages whose build time
+ * holds up the most other packages.
+ *
+ * <p>Usage: {@code CriticalPathReport <universe root> [workers,...]}</p>
+ */
+public class CriticalPathReport {
+
+  public static void main(String[] args) throws IOException {
+
+    File universeRoot = new File(args[0]);
+    String workerCounts = args.length > 1 ? args[1] : "1,2,4,8,16,32,64";
+
+    File packageRootDir = new File(universeRoot, "packages");
+    TaskTimings timings = TaskTimings.read(packageRootDir);
+    PackageGraph graph = UniverseGraph.load(universeRoot);
+
+    int untimed = 0;
+    for (PackageNode node : graph.getNodes()) {
+      if(!node.isReplaced() && !timings.hasTiming(node)) {
+        untimed++;
+      }
+    }
+
+    System.out.println("Packages: " + graph.size());
+    System.out.println(String.format("Timed packages: %d (%d untimed, assumed to take the median of %s)",
+        timings.size(), untimed, formatDuration(timings.getDefaultDuration())));
+
+    BuildTimeAnalysis analysis = new BuildTimeAnalysis(graph, timings::getDuration);
+
+    System.out.println("Total work: " + formatDuration(analysis.getTotalWork()));
+    System.out.println("Critical path: " + formatDuration(analysis.getCriticalPathLength()));
+
+    System.out.println();
+    System.out.println("Critical path:");
+    for (PackageNode node : analysis.getCriticalPath()) {
+      System.out.println(String.format("  %-40s %10s", node.getId().getPackageName(), formatDuration(analysis.getDuration(node))));
+    }
+
+    System.out.println();
+    System.out.println("Estimated wall time:");
+    for (String workers : workerCounts.split(",")) {
+      int count = Integer.parseInt(workers.trim());
+      long wallTime = analysis.estimateWallTime(count);
+      System.out.println(String.format("  %3d workers: %10s (%.0f%% utilization)",
+          count,
+          formatDuration(wallTime),
+          wallTime == 0 ? 0 : 100d * analysis.getTotalWork() / wallTime / count));
+    }
+
+    System.out.println();
+    System.out.println("Packages gating the most downstream work:");
+    System.out.println(String.format("  %-40s %10s %12s %10s", "Package", "Own", "Downstream", "Slack"));
+    List<PackageNode> gating = analysis.getGatingPackages(25);
+    for (PackageNode node : gating) {
+      System.out.println(String.format("  %-40s %10s %12s %10s",
+          node.getId().getPackageName(),
+          formatDuration(analysis.getDuration(node)),
+          formatDuration(analysis.getDownstreamWork(node)),
+          formatDuration(analysis.getSlack(node))));
+    }
+  }
+
+  private static String formatDuration(long millis) {
+    long seconds = millis / 1000;
+    if(seconds < 60) {
+      return String.format("%.1fs", millis / 1000d);
+    }
+    return String.format("%dh%02dm%02ds", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+  }
+}
@@ -0,0 +1,63 @@
+package org.renjin.release;
+
+import org.renjin.release.graph.DependencyCache;
+import org.renjin.release.graph.DependencyStore;
+import org.renjin.release.graph.MappedDependencyStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Maintains the single-file dependency store used in place of the per-package JSON files
+ * when {@code -Drenjin.release.dependencyStore=mapped} is set.
+ *
+ * <p>Usage: {@code DependencyStoreTool <universe root> import|export|compact}</p>
+ */
+public class DependencyStoreTool {
+
+  public static final String STORE_FILE_NAME = "dependencies.bin";
+
+  public static void main(String[] args) throws IOException {
+
+    File universeRoot = new File(args[0]);
+    String command = args[1];
+
+    File packageRootDir = new File(universeRoot, "packages");
+    DependencyCache jsonCache = new DependencyCache(packageRootDir, "cran");
+
+    try(MappedDependencyStore store = new MappedDependencyStore(new File(packageRootDir, STORE_FILE_NAME))) {
+      switch (command) {
+        case "import":
+          System.out.println("Imported " + store.importFrom(jsonCache) + " dependency sets.");
+          break;
+        case "export":
+          System.out.println("Exported " + store.exportTo(jsonCache) + " dependency sets.");
+          break;
+        case "compact":
+          long wasted = store.getWastedBytes();
+          store.compact();
+          System.out.println("Compacted " + store.size() + " dependency sets, reclaiming " + wasted + " bytes.");
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown command '" + command + "', expected import, export or compact");
+      }
+    }
+  }
+
+  /**
+   * Opens the dependency store selected by the {@code renjin.release.dependencyStore} system property:
+   * {@code json} (the default) for one JSON file per package version, or {@code mapped} for a single
+   * memory-mapped file.
+   */
+  public static DependencyStore open(File packageRootDir) throws IOException {
+    String type = System.getProperty("renjin.release.dependencyStore", "json");
+    switch (type) {
+      case "json":
+        return new DependencyCache(packageRootDir, "cran");
+      case "mapped":
+        return new MappedDependencyStore(new File(packageRootDir, STORE_FILE_NAME));
+      default:
+        throw new IllegalArgumentException("Unknown dependency store type '" + type + "', expected json or mapped");
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package org.renjin.release;
+
+import org.gradle.tooling.GradleConnectionException;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.events.OperationType;
+import org.gradle.tooling.events.ProgressListener;
+import org.gradle.tooling.events.task.TaskFailureResult;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.renjin.release.metrics.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Builds packages handed over by several threads at once, in shared Gradle builds which run one at a time through a
+ * single Tooling API connection. However many packages are ready at once, only one build, and so one Gradle daemon,
+ * runs, and the included {@code ../renjin} build and the {@code .gradle} directory are only used by that build.
+ *
+ * <p>Each build includes every package handed over while the previous build was running, and runs with
+ * {@code --continue}. The outcome of each package is read from the results of its own tasks, reported by the
+ * Tooling API's progress events, so a package failing does not fail the other packages of its build.</p>
+ */
+public class GradleBatchBuilder implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(GradleBatchBuilder.class.getName());
+
+  private final ProjectConnection connection;
+  private final List<String> taskNames;
+  private final List<String> arguments;
+  private final OutputStream log;
+
+  private final Object lock = new Object();
+  private Map<String, CompletableFuture<Void>> queued = new LinkedHashMap<>();
+  private boolean closing;
+
+  private final Thread builder;
+
+  /**
+   * @param packageRootDir the {@code packages} directory
+   * @param taskNames the tasks to run in each package's project, such as {@code build}
+   * @param arguments extra command line arguments for Gradle, in addition to {@code --continue}
+   * @param logFile file to which Gradle's output is written
+   */
+  public GradleBatchBuilder(File packageRootDir, List<String> taskNames, List<String> arguments, File logFile)
+      throws IOException {
+    this.taskNames = taskNames;
+    this.arguments = new ArrayList<>(arguments);
+    this.arguments.add("--continue");
+
+    File logDir = logFile.getParentFile();
+    if(!logDir.isDirectory() && !logDir.mkdirs()) {
+      throw new IOException("Could not create " + logDir.getAbsolutePath());
+    }
+    this.log = new FileOutputStream(logFile);
+    this.connection = GradleConnector.newConnector()
+        .forProjectDirectory(packageRootDir)
+        .connect();
+
+    this.builder = new Thread(this::runBuilds, "gradle-batch-builder");
+    this.builder.start();
+  }
+
+  /**
+   * Builds a package, in the next build to start, and waits for it to finish.
+   *
+   * @throws IOException if any of the package's tasks failed or did not run.
+   */
+  public void build(String packageName) throws IOException, InterruptedException {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    synchronized (lock) {
+      if(closing) {
+        throw new IllegalStateException("Builder is closed");
+      }
+      queued.put(packageName, result);
+      lock.notifyAll();
+    }
+    try {
+      result.get();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  private void runBuilds() {
+    while(true) {
+      Map<String, CompletableFuture<Void>> batch;
+      synchronized (lock) {
+        while(queued.isEmpty() && !closing) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if(queued.isEmpty()) {
+          return;
+        }
+        batch = queued;
+        queued = new LinkedHashMap<>();
+      }
+      build(batch);
+    }
+  }
+
+  private void build(Map<String, CompletableFuture<Void>> batch) {
+    List<String> tasks = new ArrayList<>();
+    for (String packageName : batch.keySet()) {
+      tasks.addAll(taskPaths(packageName));
+    }
+
+    // Tasks which finished, and the first failed task of each package
+    Set<String> succeeded = ConcurrentHashMap.newKeySet();
+    Map<String, String> failedTasks = new ConcurrentHashMap<>();
+    ProgressListener listener = event -> {
+      if(event instanceof TaskFinishEvent) {
+        String taskPath = ((TaskFinishEvent) event).getDescriptor().getTaskPath();
+        if(((TaskFinishEvent) event).getResult() instanceof TaskFailureResult) {
+          String packageName = packageName(taskPath);
+          if(packageName != null) {
+            failedTasks.putIfAbsent(packageName, taskPath);
+          }
+        } else {
+          succeeded.add(taskPath);
+        }
+      }
+    };
+
+    LOGGER.info("Building " + batch.size() + " packages: " + batch.keySet());
+    long start = System.nanoTime();
+    String buildFailure = null;
+    try {
+      connection.newBuild()
+          .forTasks(tasks.toArray(new String[0]))
+          .withArguments(arguments)
+          .addProgressListener(listener, EnumSet.of(OperationType.TASK))
+          .setStandardOutput(log)
+          .setStandardError(log)
+          .run();
+    } catch (GradleConnectionException e) {
+      buildFailure = e.getMessage();
+    } catch (RuntimeException e) {
+      buildFailure = e.toString();
+    }
+    Metrics.timer("renjin_scheduled_build_seconds", "Time taken by each shared build of packages").recordSince(start);
+
+    for (Map.Entry<String, CompletableFuture<Void>> entry : batch.entrySet()) {
+      String packageName = entry.getKey();
+      if(failedTasks.containsKey(packageName)) {
+        entry.getValue().completeExceptionally(new IOException("Task " + failedTasks.get(packageName) + " failed"));
+      } else if(!succeeded.containsAll(taskPaths(packageName))) {
+        entry.getValue().completeExceptionally(new IOException("Tasks of " + packageName + " did not run" +
+            (buildFailure == null ? "" : ": " + buildFailure)));
+      } else {
+        entry.getValue().complete(null);
+      }
+    }
+  }
+
+  private List<String> taskPaths(String packageName) {
+    List<String> paths = new ArrayList<>();
+    for (String taskName : taskNames) {
+      paths.add(":cran:" + packageName + ":" + taskName);
+    }
+    return paths;
+  }
+
+  /**
+   * @return the package to which a task path such as {@code :cran:MASS:compileJava} belongs, or {@code null}
+   * for a task outside of the package projects.
+   */
+  static String packageName(String taskPath) {
+    if(!taskPath.startsWith(":cran:")) {
+      return null;
+    }
+    int end = taskPath.indexOf(':', ":cran:".length());
+    return end == -1 ? null : taskPath.substring(":cran:".length(), end);
+  }
+
+  /**
+   * Waits for the packages already handed over to be built, then closes the connection.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      closing = true;
+      lock.notifyAll();
+    }
+    try {
+      builder.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      connection.close();
+      log.close();
+    }
+  }
+}
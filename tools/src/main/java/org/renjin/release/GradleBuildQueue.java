@@ -0,0 +1,180 @@
+package org.renjin.release;
+
+import org.gradle.tooling.GradleConnectionException;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Builds packages with Gradle as they are handed over, through a single Tooling API connection which is kept open
+ * for the whole run, so that the Gradle daemon stays warm between builds.
+ *
+ * <p>Builds run one at a time, on a dedicated thread. Each build includes every package which was handed over
+ * while the previous build was running, so that Gradle can schedule them together, and so that packages are
+ * never built twice in parallel by separate builds.</p>
+ */
+public class GradleBuildQueue implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(GradleBuildQueue.class.getName());
+
+  /**
+   * Called before each build with every package handed over so far, to bring {@code settings.gradle} and
+   * {@code packages.json} up to date.
+   */
+  public interface SettingsWriter {
+    void write(Set<String> packageNames) throws IOException;
+  }
+
+  private final ProjectConnection connection;
+  private final SettingsWriter settingsWriter;
+  private final List<String> taskNames;
+  private final List<String> arguments;
+  private final OutputStream log;
+
+  private final Object lock = new Object();
+  private final Set<String> submitted = new LinkedHashSet<>();
+  private final List<String> queued = new ArrayList<>();
+  private boolean finishing;
+
+  private final Thread builder;
+
+  /**
+   * Start and end times of each build, from {@link System#nanoTime()}.
+   */
+  private final List<long[]> buildIntervals = new ArrayList<>();
+  private int failedBuildCount;
+
+  /**
+   * @param packageRootDir the {@code packages} directory
+   * @param taskNames the tasks to run in each package's project, such as {@code build}
+   * @param arguments extra command line arguments for Gradle
+   * @param logFile file to which Gradle's output is written
+   */
+  public GradleBuildQueue(File packageRootDir, SettingsWriter settingsWriter, List<String> taskNames,
+                          List<String> arguments, File logFile) throws IOException {
+    this.settingsWriter = settingsWriter;
+    this.taskNames = taskNames;
+    this.arguments = arguments;
+
+    File logDir = logFile.getParentFile();
+    if(!logDir.isDirectory() && !logDir.mkdirs()) {
+      throw new IOException("Could not create " + logDir.getAbsolutePath());
+    }
+    this.log = new FileOutputStream(logFile);
+    this.connection = GradleConnector.newConnector()
+        .forProjectDirectory(packageRootDir)
+        .connect();
+
+    this.builder = new Thread(this::runBuilds, "gradle-build-queue");
+    this.builder.start();
+  }
+
+  /**
+   * Queues a package to be built. Its dependencies must already have been submitted.
+   */
+  public void submit(String packageName) {
+    synchronized (lock) {
+      if(finishing) {
+        throw new IllegalStateException("Queue is finishing");
+      }
+      if(submitted.add(packageName)) {
+        queued.add(packageName);
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits until all submitted packages have been built.
+   */
+  public void finish() throws InterruptedException {
+    synchronized (lock) {
+      finishing = true;
+      lock.notifyAll();
+    }
+    builder.join();
+  }
+
+  private void runBuilds() {
+    while(true) {
+      List<String> batch;
+      Set<String> included;
+      synchronized (lock) {
+        while(queued.isEmpty() && !finishing) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if(queued.isEmpty()) {
+          return;
+        }
+        batch = new ArrayList<>(queued);
+        queued.clear();
+        included = new LinkedHashSet<>(submitted);
+      }
+      build(batch, included);
+    }
+  }
+
+  private void build(List<String> batch, Set<String> included) {
+    List<String> tasks = new ArrayList<>();
+    for (String packageName : batch) {
+      for (String taskName : taskNames) {
+        tasks.add(":cran:" + packageName + ":" + taskName);
+      }
+    }
+
+    LOGGER.info("Building " + batch.size() + " packages: " + batch);
+    long start = System.nanoTime();
+    try {
+      settingsWriter.write(included);
+      connection.newBuild()
+          .forTasks(tasks.toArray(new String[0]))
+          .withArguments(arguments)
+          .setStandardOutput(log)
+          .setStandardError(log)
+          .run();
+    } catch (GradleConnectionException | IOException e) {
+      LOGGER.warning("Build of " + batch.size() + " packages failed: " + e.getMessage());
+      synchronized (lock) {
+        failedBuildCount++;
+      }
+    }
+    long end = System.nanoTime();
+    synchronized (lock) {
+      buildIntervals.add(new long[] { start, end });
+    }
+  }
+
+  /**
+   * @return the start and end of each build so far, from {@link System#nanoTime()}.
+   */
+  public List<long[]> getBuildIntervals() {
+    synchronized (lock) {
+      return new ArrayList<>(buildIntervals);
+    }
+  }
+
+  public int getFailedBuildCount() {
+    synchronized (lock) {
+      return failedBuildCount;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    connection.close();
+    log.close();
+  }
+}
@@ -0,0 +1,157 @@
+package org.renjin.release;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.renjin.release.metrics.Metrics;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Single, long-lived JAX-RS client shared by all threads in the process.
+ *
+ * <p>Connections are pooled and kept alive between requests, so that TLS handshakes
+ * and provider registration are paid once rather than once per request. The pool
+ * can be tuned with the following system properties:</p>
+ *
+ * <ul>
+ *   <li>{@code renjin.http.maxConnectionsPerHost} (default 16)</li>
+ *   <li>{@code renjin.http.maxConnections} (default 64)</li>
+ *   <li>{@code renjin.http.connectTimeout} in milliseconds (default 10000)</li>
+ *   <li>{@code renjin.http.readTimeout} in milliseconds (default 60000)</li>
+ * </ul>
+ *
+ * <p>JSON responses are cached on disk and revalidated with conditional requests,
+ * see {@link HttpResponseCache}. The latency of each request is recorded by {@link HttpMetricsFilter}.</p>
+ */
+public class HttpClientPool {
+
+  private static final Logger LOGGER = Logger.getLogger(HttpClientPool.class.getName());
+
+  private static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger("renjin.http.maxConnectionsPerHost", 16);
+  private static final int MAX_CONNECTIONS = Integer.getInteger("renjin.http.maxConnections", 64);
+  private static final int CONNECT_TIMEOUT = Integer.getInteger("renjin.http.connectTimeout", 10_000);
+  private static final int READ_TIMEOUT = Integer.getInteger("renjin.http.readTimeout", 60_000);
+
+  private static final PoolingHttpClientConnectionManager CONNECTION_MANAGER;
+  private static final HttpResponseCache RESPONSE_CACHE;
+  private static final Client CLIENT;
+
+  private static final AtomicInteger PEAK_LEASED = new AtomicInteger();
+  private static final AtomicInteger PEAK_WAITING = new AtomicInteger();
+
+  private static ScheduledExecutorService reporter;
+
+  static {
+    CONNECTION_MANAGER = new PoolingHttpClientConnectionManager();
+    CONNECTION_MANAGER.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+    CONNECTION_MANAGER.setMaxTotal(Math.max(MAX_CONNECTIONS, MAX_CONNECTIONS_PER_HOST));
+
+    ClientConfig config = new ClientConfig();
+    config.connectorProvider(new ApacheConnectorProvider());
+    config.property(ApacheClientProperties.CONNECTION_MANAGER, CONNECTION_MANAGER);
+    config.property(ClientProperties.CONNECT_TIMEOUT, CONNECT_TIMEOUT);
+    config.property(ClientProperties.READ_TIMEOUT, READ_TIMEOUT);
+    config.register(JacksonJsonProvider.class);
+    config.register(new HttpMetricsFilter());
+
+    RESPONSE_CACHE = HttpResponseCache.fromSystemProperties();
+    if(RESPONSE_CACHE != null) {
+      config.register(RESPONSE_CACHE);
+    }
+
+    CLIENT = ClientBuilder.newClient(config);
+
+    Metrics.gauge("renjin_http_pool_leased_connections", "Connections in use", () -> getStats().getLeased());
+    Metrics.gauge("renjin_http_pool_pending_requests", "Requests waiting for a connection", () -> getStats().getPending());
+    if(RESPONSE_CACHE != null) {
+      Metrics.gauge("renjin_http_cache_requests", "Requests seen by the response cache", RESPONSE_CACHE::getRequestCount);
+      Metrics.gauge("renjin_http_cache_hits", "Requests answered from the response cache", RESPONSE_CACHE::getHitCount);
+      Metrics.gauge("renjin_http_downloaded_bytes", "Bytes of JSON downloaded", RESPONSE_CACHE::getBytesDownloaded);
+      Metrics.gauge("renjin_http_cache_bytes", "Bytes of JSON served from the response cache", RESPONSE_CACHE::getBytesFromCache);
+    }
+
+    LOGGER.fine(String.format("HTTP connection pool: %d per host, %d total, connect timeout %d ms, read timeout %d ms",
+        MAX_CONNECTIONS_PER_HOST, MAX_CONNECTIONS, CONNECT_TIMEOUT, READ_TIMEOUT));
+  }
+
+  private HttpClientPool() {
+  }
+
+  /**
+   * @return the shared client. Callers must not close it.
+   */
+  public static Client client() {
+    return CLIENT;
+  }
+
+  /**
+   * @return the response cache, or {@code null} if it is disabled.
+   */
+  public static HttpResponseCache getResponseCache() {
+    return RESPONSE_CACHE;
+  }
+
+  public static int getMaxConnectionsPerHost() {
+    return MAX_CONNECTIONS_PER_HOST;
+  }
+
+  /**
+   * @return a snapshot of the connection pool, summed over all hosts.
+   */
+  public static PoolStats getStats() {
+    return CONNECTION_MANAGER.getTotalStats();
+  }
+
+  /**
+   * Starts logging the pool statistics at a fixed interval, so that the number of
+   * worker threads can be sized against the number of connections actually in use.
+   */
+  public static synchronized void startReporting(long period, TimeUnit unit) {
+    if(reporter == null) {
+      reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-pool-reporter");
+        thread.setDaemon(true);
+        return thread;
+      });
+      reporter.scheduleAtFixedRate(() -> LOGGER.info(describeStats()), period, period, unit);
+    }
+  }
+
+  public static synchronized void stopReporting() {
+    if(reporter != null) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+  }
+
+  /**
+   * @return a one-line summary of the connection pool, including the peak number of leased
+   * connections and waiting requests seen so far, suitable for logging.
+   */
+  public static String describeStats() {
+    PoolStats stats = getStats();
+    PEAK_LEASED.accumulateAndGet(stats.getLeased(), Math::max);
+    PEAK_WAITING.accumulateAndGet(stats.getPending(), Math::max);
+
+    return String.format("HTTP connection pool: %d leased, %d idle, %d waiting " +
+            "(peak %d leased, %d waiting; max %d per host, %d total)",
+        stats.getLeased(),
+        stats.getAvailable(),
+        stats.getPending(),
+        PEAK_LEASED.get(),
+        PEAK_WAITING.get(),
+        MAX_CONNECTIONS_PER_HOST,
+        stats.getMax());
+  }
+}
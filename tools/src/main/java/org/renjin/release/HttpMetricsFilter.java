@@ -0,0 +1,63 @@
+package org.renjin.release;
+
+import org.renjin.release.metrics.Metrics;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.net.URI;
+
+/**
+ * Records the latency and status of each request made through {@link HttpClientPool}, by endpoint.
+ *
+ * <p>The latency is measured until the response headers have been received, so it does not include
+ * reading the body of large downloads.</p>
+ */
+public class HttpMetricsFilter implements ClientRequestFilter, ClientResponseFilter {
+
+  private static final String START_PROPERTY = HttpMetricsFilter.class.getName() + ".start";
+
+  @Override
+  public void filter(ClientRequestContext request) {
+    request.setProperty(START_PROPERTY, System.nanoTime());
+  }
+
+  @Override
+  public void filter(ClientRequestContext request, ClientResponseContext response) {
+    Long start = (Long) request.getProperty(START_PROPERTY);
+    String endpoint = endpoint(request.getUri());
+    if(start != null) {
+      Metrics.timer("renjin_http_request_seconds", "Time until the response headers are received",
+          "endpoint", endpoint, "method", request.getMethod())
+          .recordSince(start);
+    }
+    Metrics.counter("renjin_http_responses_total", "HTTP responses by status",
+        "endpoint", endpoint, "status", Integer.toString(response.getStatus()))
+        .increment();
+  }
+
+  /**
+   * Reduces a URI to its endpoint, by replacing the package ids in paths such as
+   * {@code /package/org.renjin.cran/MASS/7.3-51.4/resolveDependencies} with placeholders, and by
+   * dropping the query and the paths of other hosts, such as GitHub.
+   */
+  static String endpoint(URI uri) {
+    String host = uri.getHost();
+    String path = uri.getPath() == null ? "" : uri.getPath();
+    if(host != null && host.contains("github")) {
+      return host;
+    }
+    String[] segments = path.split("/");
+    StringBuilder endpoint = new StringBuilder(host == null ? "" : host);
+    for (int i = 1; i < segments.length; i++) {
+      endpoint.append('/');
+      if(segments[1].equals("package") && i >= 2 && i <= 4) {
+        endpoint.append(i == 2 ? "{group}" : i == 3 ? "{name}" : "{version}");
+      } else {
+        endpoint.append(segments[i]);
+      }
+    }
+    return endpoint.toString();
+  }
+}
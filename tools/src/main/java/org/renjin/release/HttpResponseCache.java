@@ -0,0 +1,282 @@
+package org.renjin.release;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client-side cache of JSON responses from the package database, stored on disk together with
+ * their {@code ETag} and {@code Last-Modified} validators.
+ *
+ * <p>Every GET for which a response is cached is sent as a conditional request. If the server answers
+ * {@code 304 Not Modified}, the response is rewritten into a {@code 200} carrying the cached body, so
+ * callers never see the difference. Only JSON responses are cached: source archives have their own
+ * cache, see {@link SourceArchiveCache}. This includes GitHub API lookups, whose {@code 304} responses do
+ * not count against the rate limit.</p>
+ *
+ * <p>A {@code 304} is only rewritten when this cache sent the validators itself, with the body already
+ * read from disk. Any other {@code 304}, for example for validators set by the caller, is passed through
+ * unchanged. Entries written in an older {@link #FORMAT format}, or for another URL, are ignored and
+ * replaced by the next response.</p>
+ */
+public class HttpResponseCache implements ClientRequestFilter, ClientResponseFilter {
+
+  private static final Logger LOGGER = Logger.getLogger(HttpResponseCache.class.getName());
+
+  private static final String ENTRY_PROPERTY = HttpResponseCache.class.getName() + ".entry";
+  private static final String KEY_PROPERTY = HttpResponseCache.class.getName() + ".key";
+
+  private static final String CONTENT_TYPE = "Content-Type";
+
+  /**
+   * Version of the metadata written with each entry, to be incremented whenever its fields change.
+   */
+  static final int FORMAT = 2;
+
+  private final File cacheDir;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+  private final AtomicLong bytesDownloaded = new AtomicLong();
+  private final AtomicLong bytesFromCache = new AtomicLong();
+
+  private static class Entry {
+    private final byte[] body;
+    private final ObjectNode metadata;
+
+    private Entry(byte[] body, ObjectNode metadata) {
+      this.body = body;
+      this.metadata = metadata;
+    }
+
+    private String get(String field) {
+      return metadata.has(field) ? metadata.get(field).asText() : null;
+    }
+  }
+
+  public HttpResponseCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+    if(!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      throw new IllegalStateException("Could not create HTTP cache at " + cacheDir.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Creates the cache configured by the {@code renjin.http.cacheDir} system property, which defaults to
+   * {@code ~/.renjin/http-cache}.
+   *
+   * @return the cache, or {@code null} if it has been disabled with {@code -Drenjin.http.cache=false}.
+   */
+  public static HttpResponseCache fromSystemProperties() {
+    if(!Boolean.parseBoolean(System.getProperty("renjin.http.cache", "true"))) {
+      return null;
+    }
+    String dir = System.getProperty("renjin.http.cacheDir");
+    if(dir == null) {
+      dir = new File(new File(System.getProperty("user.home"), ".renjin"), "http-cache").getAbsolutePath();
+    }
+    return new HttpResponseCache(new File(dir));
+  }
+
+  @Override
+  public void filter(ClientRequestContext request) throws IOException {
+    if(!"GET".equals(request.getMethod())) {
+      return;
+    }
+    requests.incrementAndGet();
+
+    String url = request.getUri().toString();
+    String key = key(url);
+    request.setProperty(KEY_PROPERTY, key);
+
+    Entry entry = read(key, url);
+    if(entry == null) {
+      return;
+    }
+
+    String etag = entry.get("etag");
+    String lastModified = entry.get("lastModified");
+    if(etag != null) {
+      request.getHeaders().putSingle(HttpHeaders.IF_NONE_MATCH, etag);
+    }
+    if(lastModified != null) {
+      request.getHeaders().putSingle(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+    }
+    request.setProperty(ENTRY_PROPERTY, entry);
+    revalidations.incrementAndGet();
+  }
+
+  @Override
+  public void filter(ClientRequestContext request, ClientResponseContext response) throws IOException {
+    String key = (String) request.getProperty(KEY_PROPERTY);
+    if(key == null) {
+      return;
+    }
+
+    Entry entry = (Entry) request.getProperty(ENTRY_PROPERTY);
+    if(response.getStatus() == 304 && entry != null) {
+      byte[] body = entry.body;
+      response.setStatus(200);
+      response.getHeaders().putSingle(CONTENT_TYPE, entry.get("contentType"));
+      response.getHeaders().putSingle(HttpHeaders.CONTENT_LENGTH, Integer.toString(body.length));
+      response.setEntityStream(new ByteArrayInputStream(body));
+      hits.incrementAndGet();
+      bytesFromCache.addAndGet(body.length);
+      return;
+    }
+
+    if(response.getStatus() != 200 || !response.hasEntity()) {
+      return;
+    }
+
+    String etag = response.getHeaderString(HttpHeaders.ETAG);
+    String lastModified = response.getHeaderString(HttpHeaders.LAST_MODIFIED);
+    String contentType = response.getHeaderString(CONTENT_TYPE);
+    if(etag == null && lastModified == null || contentType == null || !contentType.contains("json")) {
+      return;
+    }
+
+    byte[] body;
+    try(InputStream in = response.getEntityStream()) {
+      body = ByteStreams.toByteArray(in);
+    }
+    response.setEntityStream(new ByteArrayInputStream(body));
+    bytesDownloaded.addAndGet(body.length);
+
+    ObjectNode metadata = objectMapper.createObjectNode();
+    metadata.put("format", FORMAT);
+    metadata.put("url", request.getUri().toString());
+    metadata.put("contentType", contentType);
+    if(etag != null) {
+      metadata.put("etag", etag);
+    }
+    if(lastModified != null) {
+      metadata.put("lastModified", lastModified);
+    }
+    write(key, metadata, body);
+  }
+
+  static String key(String url) {
+    return Hashing.sha256().hashString(url, Charsets.UTF_8).toString();
+  }
+
+  /**
+   * Reads both the metadata and the body of an entry, so that validators are only sent for an entry
+   * which can answer a {@code 304}.
+   *
+   * @return the entry, or {@code null} if there is none, or it cannot be used for {@code url}.
+   */
+  private Entry read(String key, String url) {
+    File metadataFile = new File(cacheDir, key + ".json");
+    File bodyFile = new File(cacheDir, key + ".body");
+    if(!metadataFile.exists() || !bodyFile.exists()) {
+      return null;
+    }
+    try {
+      ObjectNode metadata = (ObjectNode) objectMapper.readTree(metadataFile);
+      if(!metadata.has("format") || metadata.get("format").asInt() != FORMAT ||
+          !metadata.has("contentType") || !metadata.has("url") || !url.equals(metadata.get("url").asText())) {
+        LOGGER.fine("Ignoring outdated HTTP cache entry " + metadataFile.getName());
+        return null;
+      }
+      return new Entry(Files.readAllBytes(bodyFile.toPath()), metadata);
+    } catch (IOException | ClassCastException e) {
+      LOGGER.log(Level.WARNING, "Ignoring unreadable HTTP cache entry " + metadataFile.getName(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the body before the metadata, each through a temporary file, so that a reader never
+   * finds validators for a body that has not been written.
+   */
+  private void write(String key, ObjectNode metadata, byte[] body) {
+    try {
+      File bodyTemp = File.createTempFile(key, ".tmp", cacheDir);
+      Files.write(bodyTemp.toPath(), body);
+      Files.move(bodyTemp.toPath(), new File(cacheDir, key + ".body").toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      File metadataTemp = File.createTempFile(key, ".tmp", cacheDir);
+      objectMapper.writeValue(metadataTemp, metadata);
+      Files.move(metadataTemp.toPath(), new File(cacheDir, key + ".json").toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      stores.incrementAndGet();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to cache response for " + metadata.get("url").asText(), e);
+    }
+  }
+
+  /**
+   * @return the number of GET requests seen.
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of requests sent with validators from a cached response.
+   */
+  public long getRevalidationCount() {
+    return revalidations.get();
+  }
+
+  /**
+   * @return the number of responses served from the cache after a {@code 304 Not Modified}.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of responses written to the cache.
+   */
+  public long getStoreCount() {
+    return stores.get();
+  }
+
+  /**
+   * @return the number of cacheable body bytes received from the server.
+   */
+  public long getBytesDownloaded() {
+    return bytesDownloaded.get();
+  }
+
+  /**
+   * @return the number of body bytes served from the cache instead of the server.
+   */
+  public long getBytesFromCache() {
+    return bytesFromCache.get();
+  }
+
+  public String describeStats() {
+    return String.format("HTTP cache: %d requests, %d revalidations, %d hits, %d stored, %d kB downloaded, %d kB from cache",
+        getRequestCount(),
+        getRevalidationCount(),
+        getHitCount(),
+        getStoreCount(),
+        getBytesDownloaded() / 1024,
+        getBytesFromCache() / 1024);
+  }
+}
@@ -0,0 +1,174 @@
+package org.renjin.release;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+
+/**
+ * Serves a {@link SnapshotBundle} over HTTP at the same paths as the package database and the
+ * source download server, so that {@code updatePackageList} and {@code setupPackages} can run without
+ * the network, and so that their performance can be measured without the noise of remote servers.
+ *
+ * <p>The following requests are answered:</p>
+ * <ul>
+ *   <li>{@code GET /package/<group>/<name>/<version>/resolveDependencies}</li>
+ *   <li>{@code GET /packages/resolveDependencySets?p=<id>&p=<id>...}</li>
+ *   <li>{@code GET /package/<group>/<name>/<version>/source.tar.gz}</li>
+ * </ul>
+ *
+ * <p>Anything else, including package versions missing from the bundle, is answered with 404 and logged,
+ * so that gaps in a snapshot are easy to spot.</p>
+ */
+public class MirrorServer implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(MirrorServer.class.getName());
+
+  private final SnapshotBundle bundle;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private MirrorServer(SnapshotBundle bundle, int port) throws IOException {
+    this.bundle = bundle;
+    this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    this.server.createContext("/", this::handle);
+    this.executor = Executors.newFixedThreadPool(Integer.getInteger("renjin.release.threads", 12), runnable -> {
+      Thread thread = new Thread(runnable, "mirror-server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server.setExecutor(executor);
+  }
+
+  /**
+   * Starts serving {@code bundle} on the given port, or on a free port if {@code port} is 0.
+   */
+  public static MirrorServer start(SnapshotBundle bundle, int port) throws IOException {
+    MirrorServer server = new MirrorServer(bundle, port);
+    server.server.start();
+    return server;
+  }
+
+  /**
+   * Starts a server for the bundle named by the {@code renjin.snapshot} system property, if any, and points
+   * the package database and source urls at it.
+   *
+   * @return the server, or {@code null} if no snapshot is configured.
+   */
+  public static MirrorServer startIfConfigured() throws IOException {
+    String snapshot = System.getProperty("renjin.snapshot");
+    if(snapshot == null || snapshot.isEmpty()) {
+      return null;
+    }
+    MirrorServer server = start(new SnapshotBundle(new File(snapshot)), Integer.getInteger("renjin.snapshot.port", 0));
+    System.setProperty("renjin.packages.url", server.getUrl());
+    System.setProperty("renjin.sources.url", server.getUrl());
+    System.out.println("Serving snapshot " + snapshot + " at " + server.getUrl());
+    return server;
+  }
+
+  public String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if(!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      String[] path = exchange.getRequestURI().getPath().split("/");
+      if(path.length == 6 && path[1].equals("package")) {
+        PackageVersionId id = PackageVersionId.of(path[2], path[3], path[4]);
+        switch (path[5]) {
+          case "resolveDependencies":
+            sendEntry(exchange, SnapshotBundle.dependenciesEntry(id), "application/json");
+            return;
+          case "source.tar.gz":
+            sendEntry(exchange, SnapshotBundle.sourcesEntry(id), "application/x-gzip");
+            return;
+        }
+      } else if(path.length == 3 && path[1].equals("packages") && path[2].equals("resolveDependencySets")) {
+        sendDependencySets(exchange);
+        return;
+      }
+      notFound(exchange);
+
+    } catch (RuntimeException e) {
+      LOGGER.warning("Exception serving " + exchange.getRequestURI() + ": " + e.getMessage());
+      exchange.sendResponseHeaders(500, -1);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void sendEntry(HttpExchange exchange, String name, String contentType) throws IOException {
+    ZipEntry entry = bundle.getEntry(name);
+    if(entry == null) {
+      notFound(exchange);
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, entry.getSize() >= 0 ? entry.getSize() : 0);
+    try(InputStream in = bundle.open(entry);
+        OutputStream out = exchange.getResponseBody()) {
+      ByteStreams.copy(in, out);
+    }
+  }
+
+  /**
+   * Answers a bulk resolution request with the dependency sets of those requested package versions
+   * which are in the bundle, as the package database does.
+   */
+  private void sendDependencySets(HttpExchange exchange) throws IOException {
+    ObjectNode response = objectMapper.createObjectNode();
+    String query = exchange.getRequestURI().getRawQuery();
+    if(query != null) {
+      for (String parameter : query.split("&")) {
+        if(parameter.startsWith("p=")) {
+          String triplet = URLDecoder.decode(parameter.substring("p=".length()), "UTF-8");
+          byte[] json = bundle.read(SnapshotBundle.dependenciesEntry(PackageVersionId.fromTriplet(triplet)));
+          if(json == null) {
+            LOGGER.warning("Snapshot has no dependency set for " + triplet);
+          } else {
+            response.set(triplet, objectMapper.readTree(json));
+          }
+        }
+      }
+    }
+    byte[] body = objectMapper.writeValueAsString(response).getBytes(Charsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, body.length);
+    try(OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private void notFound(HttpExchange exchange) throws IOException {
+    LOGGER.warning("Snapshot has no entry for " + exchange.getRequestURI());
+    exchange.sendResponseHeaders(404, -1);
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.stop(0);
+    executor.shutdown();
+    bundle.close();
+  }
+}
@@ -4,26 +4,26 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import org.renjin.release.model.PackageDependency;
 import org.renjin.release.model.PackageVersionId;
 import org.renjin.release.model.ResolvedDependencySet;
+import org.renjin.release.resilience.RequestGovernor;
 
-import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 
@@ -33,38 +33,121 @@ public class PackageDatabaseClient {
 
   public static final String ROOT_URL = "https://10-dot-packages-dot-renjinci.appspot.com";
 
+  public static final String SOURCES_URL = "http://packages.renjin.org";
+
+  /**
+   * Maximum number of package versions to include in a single bulk resolution request,
+   * in order to keep the query string to a reasonable length.
+   */
+  public static final int MAX_BULK_RESOLUTION = 50;
+
+  /**
+   * Shared by all requests to the package database, so that together they adapt to its capacity.
+   */
+  private static final RequestGovernor GOVERNOR = RequestGovernor.fromSystemProperties("packages");
+
+  /**
+   * @return the most requests the package database is ever sent at once. Pools whose threads only wait on
+   * requests to the database need no more threads than this.
+   */
+  public static int getMaxConcurrency() {
+    return GOVERNOR.getLimit().getMaxLimit();
+  }
+
+  /**
+   * @return the root url of the package database, which can be overridden with the
+   * {@code renjin.packages.url} system property, for example to point to a local stand-in server.
+   */
+  public static String getRootUrl() {
+    return System.getProperty("renjin.packages.url", ROOT_URL);
+  }
+
+  /**
+   * @return the root url from which package sources are downloaded, which can be overridden with the
+   * {@code renjin.sources.url} system property.
+   */
+  public static String getSourcesUrl() {
+    return System.getProperty("renjin.sources.url", SOURCES_URL);
+  }
+
+  public static URL getSourceUrl(PackageVersionId id) {
+    try {
+      return new URL(getSourcesUrl() + "/package/" + id.getGroupId() + "/" + id.getPackageName() + "/" +
+          id.getVersionString() + "/source.tar.gz");
+    } catch (MalformedURLException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
   private static WebTarget rootTarget() {
-    return client().target(ROOT_URL);
+    return client().target(getRootUrl());
   }
 
   private static Client client() {
-    return ClientBuilder.newClient().register(JacksonJsonProvider.class);
+    return HttpClientPool.client();
   }
 
 
   public static ResolvedDependencySet resolveDependencies(PackageVersionId packageVersionId) {
-    return packageVersion(packageVersionId)
-        .path("resolveDependencies")
-        .request()
-        .get(ResolvedDependencySet.class);
+    return GOVERNOR.call("resolveDependencies", () ->
+        packageVersion(packageVersionId)
+            .path("resolveDependencies")
+            .request()
+            .get(ResolvedDependencySet.class));
   }
   
+  /**
+   * Resolves the dependencies of several package versions in a single round trip. This is only answered by a
+   * {@link MirrorServer}: the package database itself responds with 404.
+   *
+   * @return a map from each requested package version to its resolved dependency set. Package versions
+   * which the server could not resolve are omitted from the map.
+   * @throws javax.ws.rs.NotFoundException if the server does not support bulk resolution.
+   */
+  public static Map<PackageVersionId, ResolvedDependencySet> resolveDependencySets(Collection<PackageVersionId> ids) {
+
+    Preconditions.checkArgument(ids.size() <= MAX_BULK_RESOLUTION, "Too many package versions in one request: %s", ids.size());
+
+    if(ids.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    Map<String, ResolvedDependencySet> response = GOVERNOR.call("resolveDependencySets", () -> {
+      WebTarget target = rootTarget()
+          .path("packages")
+          .path("resolveDependencySets");
+
+      for (PackageVersionId id : ids) {
+        target = target.queryParam("p", id.toString());
+      }
+
+      return target.request().get(new GenericType<Map<String, ResolvedDependencySet>>() { });
+    });
+
+    Map<PackageVersionId, ResolvedDependencySet> result = new HashMap<>();
+    for (Map.Entry<String, ResolvedDependencySet> entry : response.entrySet()) {
+      result.put(PackageVersionId.fromTriplet(entry.getKey()), entry.getValue());
+    }
+    return result;
+  }
+
   public static List<PackageVersionId> resolveDependencies(List<PackageDependency> dependencies) {
     
     if(dependencies.isEmpty()) {
       return Collections.emptyList();
     }
     
-    WebTarget path = rootTarget()
-        .path("packages")
-        .path("resolveDependencies");
+    ArrayNode versions = GOVERNOR.call("resolveDependencyList", () -> {
+      WebTarget path = rootTarget()
+          .path("packages")
+          .path("resolveDependencies");
 
-    for (PackageDependency dependency : dependencies) {
-      path = path.queryParam(dependency.getName(), dependency.getVersion());
-    }
-    
-    ArrayNode versions = path.request().get(ArrayNode.class);
+      for (PackageDependency dependency : dependencies) {
+        path = path.queryParam(dependency.getName(), dependency.getVersion());
+      }
+
+      return path.request().get(ArrayNode.class);
+    });
 
     List<PackageVersionId> versionIds = new ArrayList<>();
     for (JsonNode version : versions) {
@@ -75,22 +158,24 @@ public class PackageDatabaseClient {
 
   public static ResolvedDependencySet resolveSuggests(final List<PackageDependency> dependencies) {
 
-    return withRetries(new Callable<ResolvedDependencySet>() {
-      @Override
-      public ResolvedDependencySet call() throws Exception {
-        WebTarget target = client().target(ROOT_URL)
-            .path("packages")
-            .path("resolveSuggests");
-
-        for (PackageDependency dependency : dependencies) {
-          target = target.queryParam("p", dependency.getName());
-        }
+    return GOVERNOR.call("resolveSuggests", () -> {
+      WebTarget target = rootTarget()
+          .path("packages")
+          .path("resolveSuggests");
 
-        return target.request().get(ResolvedDependencySet.class);
+      for (PackageDependency dependency : dependencies) {
+        target = target.queryParam("p", dependency.getName());
       }
+
+      return target.request().get(ResolvedDependencySet.class);
     });
   }
   
+  public static CompletableFuture<ResolvedDependencySet> resolveDependenciesAsync(Executor executor,
+                                                                                 final PackageVersionId id) {
+    return CompletableFuture.supplyAsync(() -> resolveDependencies(id), executor);
+  }
+
   public static ListenableFuture<ResolvedDependencySet> resolveDependencies(ListeningExecutorService service, 
                                                                             final PackageVersionId id) {
     return service.submit(new Callable<ResolvedDependencySet>() {
@@ -113,8 +198,8 @@ public class PackageDatabaseClient {
 
   public static List<PackageVersionId> queryPackageList(String filter) {
     
-    String url = ROOT_URL + "/packages/" + filter;
-    String[] ids = client().target(url).request().get(String[].class);
+    String url = getRootUrl() + "/packages/" + filter;
+    String[] ids = GOVERNOR.call("queryPackageList", () -> client().target(url).request().get(String[].class));
 
     List<PackageVersionId> packageVersionIds = new ArrayList<PackageVersionId>();
     for (String id : ids) {
@@ -124,27 +209,10 @@ public class PackageDatabaseClient {
   }
 
 
-  private static <T> T withRetries(Callable<T> callable) {
-    int retries = 8;
-    while(true) {
-      try {
-        return callable.call();
-      } catch (InternalServerErrorException e) {
-        if (retries <= 0) {
-          throw e;
-        }
-        retries--;
-      } catch (RuntimeException e) {
-        throw e;
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
-    }
-  }
-
   public static String getPatchedVersionId(PackageVersionId pvid) throws IOException {
 
-    // Avoiding hitting the API to check whether the branch exists in order to avoid rate limits
+    // Avoiding hitting the API to check whether the branch exists in order to avoid rate limits.
+    // Responses are closed so that their pooled connections are released.
     Response head = client()
         .target(String.format("https://github.com/bedatadriven/%s.%s/tree/patched-%s",
             pvid.getGroupId(),
@@ -152,9 +220,12 @@ public class PackageDatabaseClient {
             pvid.getVersionString()))
         .request()
         .head();
-
-    if(head.getStatus() == 404) {
-      return null;
+    try {
+      if(head.getStatus() == 404) {
+        return null;
+      }
+    } finally {
+      head.close();
     }
 
     Response response = client()
@@ -164,15 +235,18 @@ public class PackageDatabaseClient {
             pvid.getVersionString()))
         .request(MediaType.APPLICATION_JSON_TYPE)
         .get();
+    try {
+      if(response.getStatus() == 404) {
+        return null;
+      }
 
-    if(response.getStatus() == 404) {
-      return null;
+      ObjectMapper objectMapper = new ObjectMapper();
+      ObjectNode root = (ObjectNode) objectMapper.readTree(response.readEntity(String.class));
+      ObjectNode commit = (ObjectNode) root.get("commit");
+      return commit.get("sha").asText();
+    } finally {
+      response.close();
     }
-
-    ObjectMapper objectMapper = new ObjectMapper();
-    ObjectNode root = (ObjectNode) objectMapper.readTree(response.readEntity(String.class));
-    ObjectNode commit = (ObjectNode) root.get("commit");
-    return commit.get("sha").asText();
   }
 
   public static URL getPatchedVersionUrl(PackageVersionId pvid) {
@@ -17,7 +17,7 @@ public class PackageIndex {
   private List<PackageVersionId> toBuild = new ArrayList<>();
 
   /**
-   * Maps the simple package name to the gradle dependency string.
+   * Maps the simple package name to its dependency notation in {@code packages.json}.
    */
   private Map<String, String> packageNameMap = new HashMap<>();
 
@@ -33,12 +33,12 @@ public class PackageIndex {
         if(line.endsWith("*")) {
           String triplet = line.substring(0, line.length() - 1);
           PackageVersionId id = PackageVersionId.fromTriplet(triplet);
-          packageNameMap.put(id.getPackageName(), "'" + triplet + "'");
+          packageNameMap.put(id.getPackageName(), triplet);
 
         } else {
           PackageVersionId id = PackageVersionId.fromTriplet(line);
           toBuild.add(id);
-          packageNameMap.put(id.getPackageName(), "project(':cran:" + id.getPackageName() + "')");
+          packageNameMap.put(id.getPackageName(), ":cran:" + id.getPackageName());
         }
       }
     }
@@ -49,9 +49,10 @@ public class PackageIndex {
   }
 
   /**
-   * Finds the Gradle dependency string for a given package name.
+   * Finds the dependency notation for a given package name: the project path of a package built here, such as
+   * {@code :cran:MASS}, or the Maven coordinates of a replaced package.
    */
-  public String getDependencyString(String packageName) {
+  public String getDependencyNotation(String packageName) {
     return packageNameMap.get(packageName);
   }
 
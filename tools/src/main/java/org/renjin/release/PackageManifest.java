@@ -0,0 +1,221 @@
+package org.renjin.release;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Describes how to build each package, in {@code packages/packages.json}.
+ *
+ * <p>The package projects have no build script of their own: {@code settings.gradle} applies
+ * {@code gradle/package.gradle} to each of them, which configures the project from the package's entry.
+ * Dependencies are listed either as project paths, such as {@code :cran:MASS}, or as Maven coordinates.
+ * Renjin's own packages are listed without a version, and take the version of Renjin being built against.</p>
+ *
+ * <p>Entries are added by the {@link PackageSetupTask}s, which may run concurrently.</p>
+ */
+@JsonAutoDetect(
+    isGetterVisibility = JsonAutoDetect.Visibility.NONE,
+    getterVisibility = JsonAutoDetect.Visibility.NONE)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PackageManifest {
+
+  public static final String FILE_NAME = "packages.json";
+
+  private static final Logger LOGGER = Logger.getLogger(PackageManifest.class.getName());
+
+  /**
+   * Appended to each package's version to form the version of its published artifact.
+   */
+  @JsonProperty
+  private String buildSuffix;
+
+  /**
+   * The repository to which the packages are published, if this is a release build.
+   */
+  @JsonProperty
+  private String publishRepository;
+
+  @JsonProperty
+  private Map<String, Entry> packages = new ConcurrentHashMap<>();
+
+  @JsonAutoDetect(
+      isGetterVisibility = JsonAutoDetect.Visibility.NONE,
+      getterVisibility = JsonAutoDetect.Visibility.NONE)
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Entry {
+
+    @JsonProperty
+    private String group;
+
+    @JsonProperty
+    private String version;
+
+    @JsonProperty
+    private String title;
+
+    @JsonProperty
+    private boolean needsCompilation;
+
+    /**
+     * The C++ standard to compile with, such as {@code C++11}, if not the compiler's default.
+     */
+    @JsonProperty
+    private String cxxStandard;
+
+    /**
+     * True if the package is in {@code packages.blocklist}: it is packaged without compiling or testing it.
+     */
+    @JsonProperty
+    private boolean blocked;
+
+    @JsonProperty
+    private List<String> compile = new ArrayList<>();
+
+    @JsonProperty
+    private List<String> link = new ArrayList<>();
+
+    @JsonProperty
+    private List<String> testRuntime = new ArrayList<>();
+
+    /**
+     * Digest of everything this entry was generated from, so that it is only regenerated when that changes.
+     */
+    @JsonProperty
+    private String fingerprint;
+
+    public Entry() {
+    }
+
+    public Entry(PackageVersionId id, String title, String fingerprint) {
+      this.group = id.getGroupId();
+      this.version = id.getVersionString();
+      this.title = title;
+      this.fingerprint = fingerprint;
+    }
+
+    public String getGroup() {
+      return group;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    public boolean isNeedsCompilation() {
+      return needsCompilation;
+    }
+
+    public void setNeedsCompilation(boolean needsCompilation) {
+      this.needsCompilation = needsCompilation;
+    }
+
+    public String getCxxStandard() {
+      return cxxStandard;
+    }
+
+    public void setCxxStandard(String cxxStandard) {
+      this.cxxStandard = cxxStandard;
+    }
+
+    public boolean isBlocked() {
+      return blocked;
+    }
+
+    public void setBlocked(boolean blocked) {
+      this.blocked = blocked;
+    }
+
+    public List<String> getCompile() {
+      return compile;
+    }
+
+    public List<String> getLink() {
+      return link;
+    }
+
+    public List<String> getTestRuntime() {
+      return testRuntime;
+    }
+
+    public String getFingerprint() {
+      return fingerprint;
+    }
+  }
+
+  /**
+   * Reads {@code packages.json} from the {@code packages} directory, or starts an empty manifest if there is none
+   * or it cannot be read, in which case all entries are regenerated.
+   */
+  public static PackageManifest read(File packageRootDir) {
+    File file = new File(packageRootDir, FILE_NAME);
+    if(file.exists()) {
+      try {
+        PackageManifest manifest = new ObjectMapper().readValue(file, PackageManifest.class);
+        manifest.packages = new ConcurrentHashMap<>(manifest.packages);
+        return manifest;
+      } catch (IOException e) {
+        LOGGER.warning("Could not read " + file.getAbsolutePath() + ", regenerating: " + e.getMessage());
+      }
+    }
+    return new PackageManifest();
+  }
+
+  /**
+   * @return the package's entry, or {@code null} if it has none.
+   */
+  public Entry get(String packageName) {
+    return packages.get(packageName);
+  }
+
+  public void put(String packageName, Entry entry) {
+    packages.put(packageName, entry);
+  }
+
+  /**
+   * Writes {@code packages.json} with the entries of the given packages, in their order, leaving the file
+   * untouched if its contents would not change.
+   *
+   * @return true if the file was written.
+   */
+  public synchronized boolean write(File packageRootDir, List<PackageVersionId> toBuild) throws IOException {
+    PackageManifest written = new PackageManifest();
+    written.buildSuffix = PackageSetupTask.buildSuffix();
+    written.publishRepository = PackageSetupTask.publishRepository();
+    written.packages = new LinkedHashMap<>();
+    for (PackageVersionId id : toBuild) {
+      Entry entry = packages.get(id.getPackageName());
+      if(entry != null) {
+        written.packages.put(id.getPackageName(), entry);
+      }
+    }
+
+    File file = new File(packageRootDir, FILE_NAME);
+    String updated = new ObjectMapper().writeValueAsString(written);
+    if(file.exists() && updated.equals(Files.asCharSource(file, Charsets.UTF_8).read())) {
+      return false;
+    }
+    Files.write(updated, file, Charsets.UTF_8);
+    return true;
+  }
+}
@@ -1,20 +1,25 @@
 package org.renjin.release;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.CharSource;
-import com.google.common.io.Files;
 import org.renjin.release.graph.ReplacedPackageProvider;
+import org.renjin.release.metrics.Metrics;
 import org.renjin.release.model.PackageVersionId;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 /**
  * Reads the list of packages to build, downloads their sources, and
- * writes gradle build files for each.
+ * describes how to build each in {@code packages.json}.
+ *
+ * <p>Manifest entries are only regenerated when their inputs have changed, and the manifest and settings file are
+ * only rewritten when their contents change, so that Gradle's up-to-date checks survive a repeated setup.
+ * Pass {@code --force} to regenerate all of the entries.</p>
  */
 public class PackageSetup {
 
@@ -22,55 +27,82 @@ public class PackageSetup {
   public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
 
     File universeRoot = new File(args[0]);
+    boolean force = Arrays.asList(args).contains("--force");
+    long startTime = System.nanoTime();
 
     System.out.println("Universe root: " + universeRoot.getAbsolutePath());
     ReplacedPackageProvider replacedPackages = new ReplacedPackageProvider(new File(universeRoot, "replacements"));
 
     File packageRootDir = new File(universeRoot, "packages");
 
-    ExecutorService executorService = Executors.newFixedThreadPool(12);
+    MirrorServer mirrorServer = MirrorServer.startIfConfigured();
+
+    ExecutorService executorService = Executors.newFixedThreadPool(Integer.getInteger("renjin.release.threads", 12));
+    Metrics.monitor("setup", executorService);
+    HttpClientPool.startReporting(10, TimeUnit.SECONDS);
+
+    SourceArchiveCache archiveCache = SourceArchiveCache.fromConfiguration(args);
+    if(archiveCache != null) {
+      System.out.println("Archive cache: " + archiveCache.getRootDir().getAbsolutePath());
+    }
 
     PackageIndex packageIndex = new PackageIndex(packageRootDir);
+    PackageManifest manifest = PackageManifest.read(packageRootDir);
 
     System.out.println("Packages to build: " + packageIndex.getToBuild().size());
 
     File subDir = new File(packageRootDir, "cran");
 
-    List<Future<?>> tasks = new ArrayList<>();
+    List<Future<PackageSetupTask.Outcome>> tasks = new ArrayList<>();
     for (PackageVersionId id : packageIndex.getToBuild()) {
       File packageDir = new File(subDir, id.getPackageName());
-      PackageSetupTask task = new PackageSetupTask(packageIndex, id, packageDir);
+      PackageSetupTask task = new PackageSetupTask(packageIndex, manifest, id, packageDir, archiveCache, force);
       tasks.add(executorService.submit(task));
     }
 
-    for (Future<?> task : tasks) {
-      task.get();
+    Map<PackageSetupTask.Outcome, Integer> outcomes = new EnumMap<>(PackageSetupTask.Outcome.class);
+    for (Future<PackageSetupTask.Outcome> task : tasks) {
+      outcomes.merge(task.get(), 1, Integer::sum);
     }
 
     executorService.shutdown();
     executorService.awaitTermination(1, TimeUnit.MINUTES);
 
-    updateSettingsFile(packageRootDir, packageIndex, replacedPackages);
-  }
+    HttpClientPool.stopReporting();
+    System.out.println(HttpClientPool.describeStats());
 
-  private static void updateSettingsFile(File rootDir, PackageIndex packageIndex, ReplacedPackageProvider replacedPackages) throws IOException {
-    File settingsInFile = new File(rootDir, "settings.gradle.in");
-    File settingsFile = new File(rootDir, "settings.gradle");
+    boolean manifestUpdated = manifest.write(packageRootDir, packageIndex.getToBuild());
+    boolean settingsUpdated = updateSettingsFile(packageRootDir, packageIndex, replacedPackages);
 
-    CharSource settinsgsIn = Files.asCharSource(settingsInFile, Charsets.UTF_8);
+    System.out.println(String.format("Setup complete in %d ms: %d downloaded, %d regenerated, %d unchanged, %d failed; %s %s, settings.gradle %s",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+        outcomes.getOrDefault(PackageSetupTask.Outcome.DOWNLOADED, 0),
+        outcomes.getOrDefault(PackageSetupTask.Outcome.REGENERATED, 0),
+        outcomes.getOrDefault(PackageSetupTask.Outcome.UNCHANGED, 0),
+        outcomes.getOrDefault(PackageSetupTask.Outcome.FAILED, 0),
+        PackageManifest.FILE_NAME,
+        manifestUpdated ? "updated" : "unchanged",
+        settingsUpdated ? "updated" : "unchanged"));
 
-    StringBuilder updated = new StringBuilder();
-    settinsgsIn.copyTo(updated);
-    updated.append("\n\n");
+    Metrics.writeReport(new File(packageRootDir, "build/metrics"), "setupPackages");
 
-    replacedPackages.appendIncludeBuilds(updated);
+    if(mirrorServer != null) {
+      mirrorServer.close();
+    }
+  }
 
-    updated.append("\n\n");
+  /**
+   * Writes settings.gradle, leaving the file untouched if its contents would not change.
+   *
+   * @return true if the file was written.
+   */
+  private static boolean updateSettingsFile(File rootDir, PackageIndex packageIndex, ReplacedPackageProvider replacedPackages) throws IOException {
+    SettingsFileWriter writer = new SettingsFileWriter(rootDir, replacedPackages);
+    StringBuilder updated = writer.header();
     for (PackageVersionId packageVersionId : packageIndex.getToBuild()) {
-      updated.append("include 'cran:" + packageVersionId.getPackageName()).append("'\n");
+      SettingsFileWriter.appendInclude(updated, packageVersionId.getPackageName());
     }
-
-    Files.write(updated.toString(), settingsFile, Charsets.UTF_8);
+    return writer.write("settings.gradle", updated);
   }
 
 
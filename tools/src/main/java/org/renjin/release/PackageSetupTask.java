@@ -2,52 +2,108 @@ package org.renjin.release;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.escape.Escaper;
-import com.google.common.escape.Escapers;
-import com.google.common.io.ByteStreams;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import org.renjin.release.metrics.Metrics;
 import org.renjin.release.model.CorePackages;
+import org.renjin.release.model.DcfParser;
 import org.renjin.release.model.PackageDependency;
 import org.renjin.release.model.PackageDescription;
 import org.renjin.release.model.PackageVersionId;
 
 import java.io.*;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 /**
- * Downloads source and writes build file for an individual package.
+ * Downloads source and writes the {@link PackageManifest} entry for an individual package.
  */
-public class PackageSetupTask implements Runnable {
-
-  private static final Escaper GROOVY_ESCAPER = Escapers.builder()
-          .addEscape('\'', "\\'")
-          .build();
+public class PackageSetupTask implements Callable<PackageSetupTask.Outcome> {
+
+  /**
+   * Incremented whenever the generated manifest entry changes, so that all packages are regenerated.
+   */
+  private static final int GENERATOR_VERSION = 2;
+
+  /**
+   * Marks a {@code build.gradle} generated by earlier versions of the setup, which is removed now that the
+   * project is configured from the manifest.
+   */
+  private static final String LEGACY_FINGERPRINT_FILE_NAME = ".build.gradle.sha256";
+
+  public enum Outcome {
+    /**
+     * The sources were downloaded and the manifest entry written.
+     */
+    DOWNLOADED,
+
+    /**
+     * The manifest entry was regenerated because its inputs changed.
+     */
+    REGENERATED,
+
+    /**
+     * Nothing has changed since the last setup.
+     */
+    UNCHANGED,
+
+    FAILED
+  }
 
   private static final Logger LOGGER = Logger.getLogger(PackageSetupTask.class.getName());
 
   private final PackageIndex packageIndex;
+  private final PackageManifest manifest;
   private final PackageVersionId id;
   private final File packageDir;
+  private final SourceArchiveCache archiveCache;
+  private final boolean force;
+
+  public PackageSetupTask(PackageIndex packageIndex, PackageManifest manifest, PackageVersionId id, File packageDir) {
+    this(packageIndex, manifest, id, packageDir, null, false);
+  }
 
-  public PackageSetupTask(PackageIndex packageIndex, PackageVersionId id, File packageDir) {
+  /**
+   * @param manifest the manifest to which the package's entry is written
+   * @param archiveCache local cache of source archives, consulted before downloading, or {@code null}
+   * @param force true to regenerate the manifest entry even if its inputs have not changed
+   */
+  public PackageSetupTask(PackageIndex packageIndex, PackageManifest manifest, PackageVersionId id, File packageDir,
+                          SourceArchiveCache archiveCache, boolean force) {
     this.packageIndex = packageIndex;
+    this.manifest = manifest;
     this.id = id;
     this.packageDir = packageDir;
+    this.archiveCache = archiveCache;
+    this.force = force;
   }
 
   @Override
-  public void run() {
+  public Outcome call() {
+    long start = System.nanoTime();
+    Outcome outcome = setup();
+    Metrics.timer("renjin_package_setup_seconds", "Time to set up a package, by outcome",
+        "outcome", outcome.name().toLowerCase())
+        .recordSince(start, id.toString());
+    return outcome;
+  }
+
+  private Outcome setup() {
 
     try {
+      Outcome outcome = Outcome.REGENERATED;
 
-      if (packageDir.exists() && !correctVersionDownloaded()) {
-        run("rm", "-rf", packageDir.getAbsolutePath());
+      byte[] descriptionBytes = readDescription();
+      PackageDescription description = tryParseDescription(descriptionBytes);
+
+      if (packageDir.exists() && !isRequestedVersion(description)) {
+        deleteRecursively(packageDir);
       }
 
       if (!packageDir.exists()) {
@@ -57,25 +113,90 @@ public class PackageSetupTask implements Runnable {
         }
       }
 
-      String archiveFileName = id.getPackageName() + "_" + id.getVersionString() + ".tgz";
-      File archiveFile = new File(packageDir.getParentFile(), archiveFileName);
-
-      if (correctVersionDownloaded()) {
-        LOGGER.info(id + " already downloaded, skipping.");
+      if (isRequestedVersion(description)) {
+        LOGGER.fine(id + " already downloaded, skipping.");
       } else {
         checkForPatchedRepo();
-        downloadAndUnpackSources(archiveFile);
+        downloadAndUnpackSources();
+        descriptionBytes = readDescription();
+        description = tryParseDescription(descriptionBytes);
+        if (description == null) {
+          throw new RuntimeException("Missing or invalid DESCRIPTION file in sources of " + id);
+        }
+        outcome = Outcome.DOWNLOADED;
       }
 
-      // Update build.gradle
-      File buildFile = new File(packageDir, "build.gradle");
-      try (PrintWriter printWriter = new PrintWriter(buildFile)) {
-        writeBuildFile(printWriter);
-      } catch (FileNotFoundException e) {
-        throw new RuntimeException("Exception writing build.gradle for " + id, e);
+      removeLegacyBuildFile();
+
+      // Update the manifest entry, but only if its inputs have changed since it was last written
+      String fingerprint = fingerprint(descriptionBytes, description);
+      PackageManifest.Entry previous = manifest.get(id.getPackageName());
+
+      if (!force && previous != null && fingerprint.equals(previous.getFingerprint())) {
+        return Outcome.UNCHANGED;
       }
+
+      long generateStart = System.nanoTime();
+      manifest.put(id.getPackageName(), manifestEntry(description, fingerprint));
+      Metrics.timer("renjin_build_file_generate_seconds", "Time to generate a package's manifest entry")
+          .recordSince(generateStart);
+
+      return outcome;
+
     } catch (Exception e) {
       e.printStackTrace();
+      return Outcome.FAILED;
+    }
+  }
+
+  /**
+   * Computes a digest of everything that goes into this package's manifest entry: the DESCRIPTION file,
+   * how each of its dependencies is resolved in {@code packages.list}, the blocklist entries of the package and its
+   * suggested packages, and the native sources. The release environment applies to all packages alike, and is
+   * written once in the manifest.
+   */
+  private String fingerprint(byte[] descriptionBytes, PackageDescription description) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(GENERATOR_VERSION);
+    hasher.putString(id.toString(), Charsets.UTF_8);
+    hasher.putBytes(descriptionBytes);
+
+    putDependencies(hasher, "Depends", description.getDepends());
+    putDependencies(hasher, "Imports", description.getImports());
+    putDependencies(hasher, "LinkingTo", description.getLinkingTo());
+    putDependencies(hasher, "Suggests", description.getSuggests());
+
+    hasher.putBoolean(packageIndex.getBlocklist().isBlocked(id.getPackageName()));
+    hasher.putBoolean(hasCplusplusSources(packageDir));
+
+    File makeVars = new File(packageDir, "src/Makevars");
+    if(makeVars.exists()) {
+      hasher.putBytes(Files.toByteArray(makeVars));
+    }
+
+    return hasher.hash().toString();
+  }
+
+  private void putDependencies(Hasher hasher, String field, Iterable<PackageDependency> dependencies) {
+    hasher.putString(field, Charsets.UTF_8);
+    for (PackageDependency dependency : dependencies) {
+      hasher.putString(dependency.getName(), Charsets.UTF_8);
+      hasher.putString(Strings.nullToEmpty(packageIndex.getDependencyNotation(dependency.getName())), Charsets.UTF_8);
+      hasher.putBoolean(packageIndex.getBlocklist().isBlocked(dependency.getName()));
+    }
+  }
+
+  /**
+   * Removes the {@code build.gradle} written by earlier versions of the setup, which would otherwise configure
+   * the project a second time.
+   */
+  private void removeLegacyBuildFile() throws IOException {
+    File fingerprintFile = new File(packageDir, LEGACY_FINGERPRINT_FILE_NAME);
+    if(fingerprintFile.exists()) {
+      File buildFile = new File(packageDir, "build.gradle");
+      if((buildFile.exists() && !buildFile.delete()) || !fingerprintFile.delete()) {
+        throw new IOException("Could not remove the generated build.gradle of " + id);
+      }
     }
   }
 
@@ -86,149 +207,164 @@ public class PackageSetupTask implements Runnable {
     }
   }
 
-  private void downloadAndUnpackSources(File archiveFile) {
+  private void downloadAndUnpackSources() {
+
+    if(archiveCache != null) {
+      unpackCachedSources();
+      return;
+    }
 
     LOGGER.info("Downloading " + id + "...");
 
-    // Download from the package database
-    try(InputStream in = getSourceUrl().openStream()) {
-      try(OutputStream out = new FileOutputStream(archiveFile)) {
-        ByteStreams.copy(in, out);
-      }
+    // Download from the package database, reusing pooled connections,
+    // and unpack straight into the package directory
+    try(InputStream in = HttpClientPool.client().target(PackageDatabaseClient.getSourceUrl(id).toString()).request().get(InputStream.class)) {
+      SourceArchiveExtractor.Result result = unpack(in);
+      LOGGER.info("Unpacked " + id + ": " + result);
+      recordExtraction(result, "network");
     } catch (Exception e) {
-      throw new RuntimeException(e);
+      throw new RuntimeException("Exception downloading sources of " + id, e);
     }
-
-    // Unpack into directory
-    run("tar", "-xzf", archiveFile.getAbsolutePath(), "--strip", "1");
-
-    // Clean up zip file
-    archiveFile.delete();
   }
 
-  private boolean correctVersionDownloaded() {
-
-    File descriptionFile = new File(packageDir, "DESCRIPTION");
-    if(!descriptionFile.exists()) {
-      return false;
-    }
-
-    PackageDescription description;
+  private void unpackCachedSources() {
     try {
-      description = PackageDescription.fromCharSource(Files.asCharSource(descriptionFile, Charsets.UTF_8));
-    } catch (IOException e) {
-      return false;
+      File archive = archiveCache.get(id);
+      Metrics.counter("renjin_archive_cache_lookups_total", "Source archive cache lookups, by result",
+          "result", archive == null ? "miss" : "hit")
+          .increment();
+      if(archive == null) {
+        LOGGER.info("Downloading " + id + " into archive cache...");
+        try(InputStream in = HttpClientPool.client().target(PackageDatabaseClient.getSourceUrl(id).toString()).request().get(InputStream.class)) {
+          archive = archiveCache.put(id, in);
+        }
+        Metrics.counter("renjin_source_download_bytes_total", "Bytes of source archives downloaded")
+            .add(archive.length());
+      } else {
+        LOGGER.info("Using cached sources of " + id);
+      }
+      try(InputStream in = new FileInputStream(archive)) {
+        SourceArchiveExtractor.Result result = unpack(in);
+        LOGGER.info("Unpacked " + id + ": " + result);
+        recordExtraction(result, "cache");
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Exception downloading sources of " + id, e);
     }
-
-    return id.getVersionString().equals(description.getVersion());
   }
 
-  private void run(String... commandLine)  {
-    int status;
-
+  /**
+   * Unpacks the sources into a temporary sibling of the package directory, which only replaces the package
+   * directory once the last entry has been read. An interrupted download would otherwise leave a DESCRIPTION
+   * behind, and the next setup would skip the incomplete package as already downloaded.
+   */
+  private SourceArchiveExtractor.Result unpack(InputStream in) throws IOException {
+    File partialDir = new File(packageDir.getParentFile(), "." + packageDir.getName() + ".partial");
+    deleteRecursively(partialDir);
     try {
-      status = new ProcessBuilder(commandLine)
-          .inheritIO()
-          .directory(packageDir)
-          .start()
-          .waitFor();
-    } catch (InterruptedException e) {
-      throw new RuntimeException("Interrupted while executing: " + Arrays.toString(commandLine));
-    } catch (IOException e) {
-      throw new RuntimeException("IOException while executing: " + Arrays.toString(commandLine), e);
+      SourceArchiveExtractor.Result result = SourceArchiveExtractor.extract(in, partialDir, 1);
+      deleteRecursively(packageDir);
+      java.nio.file.Files.move(partialDir.toPath(), packageDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      return result;
+    } finally {
+      deleteRecursively(partialDir);
     }
+  }
 
-    if(status != 0) {
-      throw new RuntimeException("Status code " + status + " from executing " + Arrays.toString(commandLine));
+  /**
+   * Deletes a directory and its contents, without following symbolic links.
+   */
+  private static void deleteRecursively(File dir) throws IOException {
+    if(!dir.exists() && !java.nio.file.Files.isSymbolicLink(dir.toPath())) {
+      return;
+    }
+    List<Path> paths;
+    try(java.util.stream.Stream<Path> walk = java.nio.file.Files.walk(dir.toPath())) {
+      paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+    }
+    for (Path path : paths) {
+      java.nio.file.Files.delete(path);
     }
   }
 
-  private URL getSourceUrl() {
-    try {
-      return new URL("http://packages.renjin.org/package/" + id.getGroupId() + "/" + id.getPackageName() + "/" +
-        id.getVersion() + "/source.tar.gz");
-    } catch (MalformedURLException e) {
-      throw new RuntimeException(e);
+  /**
+   * Records how long it took to unpack the sources. When unpacking straight from the network, this
+   * includes the download.
+   */
+  private static void recordExtraction(SourceArchiveExtractor.Result result, String source) {
+    Metrics.timer("renjin_source_unpack_seconds", "Time to unpack a source archive, by where it was read from",
+        "source", source)
+        .recordNanos(result.getElapsedNanos());
+    if(source.equals("network")) {
+      Metrics.counter("renjin_source_download_bytes_total", "Bytes of source archives downloaded")
+          .add(result.getCompressedBytes());
     }
   }
 
-
-  private void writeBuildFile(PrintWriter writer) {
-
-
+  /**
+   * @return the contents of the package's DESCRIPTION file, or {@code null} if it has not been downloaded.
+   */
+  private byte[] readDescription() {
     File descriptionFile = new File(packageDir, "DESCRIPTION");
-    PackageDescription description;
+    if(!descriptionFile.exists()) {
+      return null;
+    }
     try {
-      description = PackageDescription.fromCharSource(Files.asCharSource(descriptionFile, Charsets.UTF_8));
+      return Files.toByteArray(descriptionFile);
     } catch (IOException e) {
-      throw new RuntimeException(e);
+      return null;
     }
+  }
+
+  private PackageDescription tryParseDescription(byte[] descriptionBytes) {
+    if(descriptionBytes == null) {
+      return null;
+    }
+    return DcfParser.parse(descriptionBytes);
+  }
+
+  private boolean isRequestedVersion(PackageDescription description) {
+    return description != null && id.getVersionString().equals(description.getVersion());
+  }
+
+  private PackageManifest.Entry manifestEntry(PackageDescription description, String fingerprint) {
 
-    writer.println("group = '" + id.getGroupId() + "'");
-    writer.println();
-    writer.println("apply plugin: 'org.renjin.package'");
-    writer.println("apply plugin: 'maven-publish'");
+    PackageManifest.Entry entry = new PackageManifest.Entry(id, description.getTitle(), fingerprint);
 
     boolean blocked = packageIndex.getBlocklist().isBlocked(id.getPackageName());
     boolean needsCompilation = description.isNeedsCompilation() && !blocked;
 
+    entry.setBlocked(blocked);
+    entry.setNeedsCompilation(needsCompilation);
     if(needsCompilation) {
-      writer.println("apply plugin: 'org.renjin.native-sources'");
-      maybeApplyCxxStandard(writer, description);
+      entry.setCxxStandard(Strings.emptyToNull(detectCxxStandard(description)));
     }
 
-    writer.println();
-    writer.println("dependencies {");
-
-    addDependency(writer, description.getDepends(), "compile");
-    addDependency(writer, description.getImports(), "compile");
+    addDependencies(entry.getCompile(), description.getDepends(), false);
+    addDependencies(entry.getCompile(), description.getImports(), false);
     if(needsCompilation) {
-      addDependency(writer, description.getLinkingTo(), "link");
+      addDependencies(entry.getLink(), description.getLinkingTo(), false);
     }
-    addDependency(writer, nonBlockedSuggests(description), "testRuntime");
+    addDependencies(entry.getTestRuntime(), nonBlockedSuggests(description), true);
 
     if(needsCompilation && hasCplusplusSources(packageDir)) {
-      writer.println("  compile 'org.renjin:libstdcxx:4.7.4-b34'");
+      entry.getCompile().add("org.renjin:libstdcxx:4.7.4-b34");
     }
     if(id.getPackageName().equals("testthat")) {
-      writer.println("  compile 'org.renjin.cran:xml2:+'");
-    }
-
-    writer.println("}");
-
-    if(blocked) {
-      writer.println();
-      writer.println("configure.enabled = false");
-      writer.println("testNamespace.enabled = false");
+      entry.getCompile().add("org.renjin.cran:xml2:+");
     }
 
-    writer.println();
-    writer.println();
-    writer.println("publishing {");
-    writer.println("  publications {");
-    writer.println("    maven(MavenPublication) {");
-    writer.println("      groupId = " + quoteString(id.getGroupId()));
-    writer.println("      version = " + quoteString(id.getVersionString() + buildSuffix()));
-    writer.println("      description = " + quoteString(description.getTitle()));
-    writer.println();
-    writer.println("      from components.java");
-    writer.println("    }");
-    writer.println("  }");
-
-    if(!Strings.isNullOrEmpty(System.getenv("RENJIN_RELEASE")) &&
-       !Strings.isNullOrEmpty(System.getenv("BUILD_NUMBER"))) {
-
-      writer.println("  repositories {");
-      writer.println("    maven {");
-      writer.println("      url = " + quoteString("gcs://renjin-staging/" + System.getenv("BUILD_NUMBER") + "/m2/"));
-      writer.println("    }");
-      writer.println("  }");
-    }
+    return entry;
+  }
 
-    writer.println("}");
+  /**
+   * @return the version under which the package's artifact is published.
+   */
+  static String publishedVersion(PackageVersionId id) {
+    return id.getVersionString() + buildSuffix();
   }
 
-  private String buildSuffix() {
+  static String buildSuffix() {
     String renjinRelease = System.getenv("RENJIN_RELEASE");
     if(!Strings.isNullOrEmpty(renjinRelease)) {
       return "-b" + buildNumberFromVersionString(renjinRelease);
@@ -237,7 +373,18 @@ public class PackageSetupTask implements Runnable {
     }
   }
 
-  private long buildNumberFromVersionString(String renjinVersion) {
+  /**
+   * @return the repository to which packages are published by a release build, or {@code null}.
+   */
+  static String publishRepository() {
+    if(!Strings.isNullOrEmpty(System.getenv("RENJIN_RELEASE")) &&
+       !Strings.isNullOrEmpty(System.getenv("BUILD_NUMBER"))) {
+      return "gcs://renjin-staging/" + System.getenv("BUILD_NUMBER") + "/m2/";
+    }
+    return null;
+  }
+
+  private static long buildNumberFromVersionString(String renjinVersion) {
     String[] parts = renjinVersion.split("\\.");
     if(parts.length != 3) {
       throw new IllegalArgumentException("Expected Renin version with 3 parts: " + renjinVersion);
@@ -247,19 +394,6 @@ public class PackageSetupTask implements Runnable {
             Integer.parseInt(parts[2]);
   }
 
-  private String quoteString(String title) {
-    return "'" + GROOVY_ESCAPER.escape(title) + "'";
-  }
-
-  private void maybeApplyCxxStandard(PrintWriter writer, PackageDescription description) {
-
-    String cxxStandard = detectCxxStandard(description);
-    if(!cxxStandard.isEmpty()) {
-      writer.println();
-      writer.println("make.cxxStandard = \"" + cxxStandard + "\"");
-    }
-  }
-
   private String detectCxxStandard(PackageDescription description) {
     if(Strings.nullToEmpty(description.getSystemRequirements()).contains("C++11")) {
       return "C++11";
@@ -282,7 +416,7 @@ public class PackageSetupTask implements Runnable {
   }
 
   private Iterable<PackageDependency> nonBlockedSuggests(PackageDescription description) {
-    return Lists.newArrayList(description.getSuggests())
+    return description.getSuggests()
       .stream()
       .filter(d -> !packageIndex.getBlocklist().isBlocked(d.getName()))
       .collect(Collectors.toList());
@@ -303,7 +437,7 @@ public class PackageSetupTask implements Runnable {
     return false;
   }
 
-  private void addDependency(PrintWriter writer, Iterable<PackageDependency> depends, String configuration) {
+  private void addDependencies(List<String> notations, Iterable<PackageDependency> depends, boolean optional) {
     for (PackageDependency depend : depends) {
 
       if(depend.getName().equals("R")) {
@@ -311,15 +445,16 @@ public class PackageSetupTask implements Runnable {
       } else if(CorePackages.isCorePackage(depend.getName())) {
         if(!CorePackages.DEFAULT_PACKAGES.contains(depend.getName()) &&
           !CorePackages.IGNORED_PACKAGES.contains(depend.getName())) {
-          writer.println("  " + configuration + " \"org.renjin:" + depend.getName() + ":${renjinVersion}\"");
+          // Versioned by the build, with the renjinVersion property
+          notations.add("org.renjin:" + depend.getName());
         }
       } else {
-        String dependencyString = packageIndex.getDependencyString(depend.getName());
-        if (dependencyString == null && !configuration.equals("testRuntime")) {
+        String notation = packageIndex.getDependencyNotation(depend.getName());
+        if (notation == null && !optional) {
           throw new RuntimeException(id + " is missing dependency " + depend);
         }
-        if (dependencyString != null) {
-          writer.println("  " + configuration + " " + dependencyString);
+        if (notation != null) {
+          notations.add(notation);
         }
       }
     }
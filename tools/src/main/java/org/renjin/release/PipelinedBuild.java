@@ -0,0 +1,240 @@
+package org.renjin.release;
+
+import org.renjin.release.graph.CompactPackageGraph;
+import org.renjin.release.graph.PackageGraph;
+import org.renjin.release.graph.ReplacedPackageProvider;
+import org.renjin.release.metrics.Metrics;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets up and builds the packages in one pass, starting to build each package as soon as it and all of its
+ * dependencies have been set up, instead of waiting for every download to finish first.
+ *
+ * <p>Packages are set up in dependency order by the same tasks as {@link PackageSetup}. Once the whole dependency
+ * closure of a package, including its suggested packages, has been set up, the package is handed to a
+ * {@link GradleBuildQueue}. Packages on a dependency cycle are handed over together once setup has finished. Packages
+ * depending on a package which failed to set up are not built.</p>
+ *
+ * <p>Packages are released once they are set up, not once they are built: Gradle orders the builds of the packages
+ * handed over together. To build each package separately once its dependencies have been built, see
+ * {@link ScheduledBuild}.</p>
+ *
+ * <p>At the end, the run reports how much of the setup time was hidden behind building, that is, how long
+ * setup and builds were running at the same time.</p>
+ *
+ * <p>Usage: {@code PipelinedBuild <universe root> [--force] [--archive-cache=<dir>]}. The tasks run in each package
+ * default to {@code build}, and can be changed with {@code -Drenjin.pipeline.tasks=<task,...>}. Extra Gradle
+ * arguments can be given with {@code -Drenjin.pipeline.gradleArgs}.</p>
+ */
+public class PipelinedBuild {
+
+  private final CompactPackageGraph graph;
+  private final GradleBuildQueue buildQueue;
+
+  /**
+   * Whether each node is set up by this run, as opposed to replaced or outside the package list.
+   */
+  private final BitSet toSetUp;
+
+  /**
+   * Number of events each node is still waiting for before it is handed to Gradle: its own setup, and the hand-over
+   * of each of its direct dependencies, Suggests included, which this run sets up. As a dependency is only handed
+   * over once its own count reaches zero, a node reaches zero once its whole closure has been set up.
+   */
+  private final int[] pending;
+
+  private final BitSet setUp;
+  private final BitSet failed;
+  private final BitSet submitted;
+
+  private long lastSetupEnd;
+
+  private PipelinedBuild(CompactPackageGraph graph, BitSet toSetUp, GradleBuildQueue buildQueue) {
+    this.graph = graph;
+    this.toSetUp = toSetUp;
+    this.buildQueue = buildQueue;
+    this.pending = new int[graph.size()];
+    this.setUp = new BitSet(graph.size());
+    this.failed = new BitSet(graph.size());
+    this.submitted = new BitSet(graph.size());
+
+    for (int node = toSetUp.nextSetBit(0); node >= 0; node = toSetUp.nextSetBit(node + 1)) {
+      int[] count = { 1 };
+      graph.forEachDependency(node, true, dependency -> {
+        if(toSetUp.get(dependency)) {
+          count[0]++;
+        }
+      });
+      pending[node] = count[0];
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    File universeRoot = new File(args[0]);
+    boolean force = Arrays.asList(args).contains("--force");
+    long startTime = System.nanoTime();
+
+    MirrorServer mirrorServer = MirrorServer.startIfConfigured();
+
+    File packageRootDir = new File(universeRoot, "packages");
+    ReplacedPackageProvider replacedPackages = new ReplacedPackageProvider(new File(universeRoot, "replacements"));
+    PackageIndex packageIndex = new PackageIndex(packageRootDir);
+    PackageManifest manifest = PackageManifest.read(packageRootDir);
+    SourceArchiveCache archiveCache = SourceArchiveCache.fromConfiguration(args);
+
+    CompactPackageGraph graph = UniverseGraph.load(universeRoot).getCompactGraph();
+
+    Set<PackageVersionId> toBuild = new HashSet<>(packageIndex.getToBuild());
+    BitSet toSetUp = new BitSet(graph.size());
+    for (int node = 0; node < graph.size(); node++) {
+      if(!graph.isReplaced(node) && toBuild.contains(graph.getId(node))) {
+        toSetUp.set(node);
+      }
+    }
+    System.out.println("Packages to set up and build: " + toSetUp.cardinality());
+
+    SettingsFileWriter settingsFileWriter = new SettingsFileWriter(packageRootDir, replacedPackages);
+    GradleBuildQueue.SettingsWriter settingsWriter = included -> {
+      manifest.write(packageRootDir, packageIndex.getToBuild());
+
+      // Keep the order of packages.list, so that the final file matches the one written by setupPackages
+      StringBuilder settings = settingsFileWriter.header();
+      for (PackageVersionId id : packageIndex.getToBuild()) {
+        if(included.contains(id.getPackageName())) {
+          SettingsFileWriter.appendInclude(settings, id.getPackageName());
+        }
+      }
+      settingsFileWriter.write("settings.gradle", settings);
+    };
+
+    List<String> tasks = Arrays.asList(System.getProperty("renjin.pipeline.tasks", "build").split(","));
+    List<String> gradleArgs = new ArrayList<>(Arrays.asList("--continue"));
+    String extraArgs = System.getProperty("renjin.pipeline.gradleArgs", "").trim();
+    if(!extraArgs.isEmpty()) {
+      gradleArgs.addAll(Arrays.asList(extraArgs.split("\\s+")));
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(Integer.getInteger("renjin.release.threads", 12));
+    Metrics.monitor("setup", executorService);
+    HttpClientPool.startReporting(10, TimeUnit.SECONDS);
+
+    try(GradleBuildQueue buildQueue = new GradleBuildQueue(packageRootDir, settingsWriter, tasks, gradleArgs,
+        new File(packageRootDir, "build/pipeline/gradle.log"))) {
+
+      PipelinedBuild pipeline = new PipelinedBuild(graph, toSetUp, buildQueue);
+
+      // Submit the packages in dependency order, so that the first packages become buildable as early as possible
+      File subDir = new File(packageRootDir, "cran");
+      for (int node : graph.topologicalOrder()) {
+        if(toSetUp.get(node)) {
+          PackageVersionId id = graph.getId(node);
+          PackageSetupTask task = new PackageSetupTask(packageIndex, manifest, id, new File(subDir, id.getPackageName()),
+              archiveCache, force);
+          executorService.execute(() -> pipeline.setupComplete(node, task.call()));
+        }
+      }
+
+      executorService.shutdown();
+      executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      HttpClientPool.stopReporting();
+
+      pipeline.submitCycles();
+      buildQueue.finish();
+
+      pipeline.report(startTime, buildQueue);
+    }
+
+    // Also keep the entries of packages which were set up but not built
+    manifest.write(packageRootDir, packageIndex.getToBuild());
+
+    Metrics.writeReport(new File(packageRootDir, "build/metrics"), "pipelinedBuild");
+
+    if(mirrorServer != null) {
+      mirrorServer.close();
+    }
+  }
+
+  private synchronized void setupComplete(int node, PackageSetupTask.Outcome outcome) {
+    lastSetupEnd = System.nanoTime();
+    if(outcome == PackageSetupTask.Outcome.FAILED) {
+      failed.set(node);
+      return;
+    }
+    setUp.set(node);
+
+    // Release this package and any dependents whose closure is now complete
+    ArrayDeque<Integer> released = new ArrayDeque<>();
+    if(--pending[node] == 0) {
+      released.add(node);
+    }
+    while(!released.isEmpty()) {
+      int next = released.poll();
+      submit(next);
+      graph.forEachDependent(next, true, dependent -> {
+        if(toSetUp.get(dependent) && --pending[dependent] == 0) {
+          released.add(dependent);
+        }
+      });
+    }
+  }
+
+  /**
+   * Hands over the packages which were set up but are still waiting, which can only be because they are on a
+   * dependency cycle or depend on a package which failed to set up. Only the former can be built.
+   */
+  private synchronized void submitCycles() {
+    BitSet blocked = graph.dependentClosure(failed, true);
+    for (int node : graph.topologicalOrder()) {
+      if(setUp.get(node) && !submitted.get(node) && !blocked.get(node)) {
+        submit(node);
+      }
+    }
+  }
+
+  private void submit(int node) {
+    submitted.set(node);
+    buildQueue.submit(graph.getId(node).getPackageName());
+  }
+
+  private synchronized void report(long startTime, GradleBuildQueue buildQueue) {
+    long endTime = System.nanoTime();
+    long setupNanos = lastSetupEnd - startTime;
+
+    long buildNanos = 0;
+    long hiddenNanos = 0;
+    List<long[]> intervals = buildQueue.getBuildIntervals();
+    for (long[] interval : intervals) {
+      buildNanos += interval[1] - interval[0];
+      hiddenNanos += Math.max(0, Math.min(interval[1], lastSetupEnd) - interval[0]);
+    }
+
+    int notBuilt = setUp.cardinality() - submitted.cardinality();
+
+    System.out.println(String.format("Setup: %d s, %d packages set up, %d failed, %d not built because a dependency failed",
+        TimeUnit.NANOSECONDS.toSeconds(setupNanos), setUp.cardinality(), failed.cardinality(), notBuilt));
+    System.out.println(String.format("Builds: %d Gradle builds (%d failed), running for %d s",
+        intervals.size(), buildQueue.getFailedBuildCount(), TimeUnit.NANOSECONDS.toSeconds(buildNanos)));
+    System.out.println(String.format("Setup hidden behind building: %d s of %d s (%.0f%%)",
+        TimeUnit.NANOSECONDS.toSeconds(hiddenNanos),
+        TimeUnit.NANOSECONDS.toSeconds(setupNanos),
+        setupNanos == 0 ? 0 : 100d * hiddenNanos / setupNanos));
+    System.out.println(String.format("Wall time: %d s, against about %d s when setting up before building",
+        TimeUnit.NANOSECONDS.toSeconds(endTime - startTime),
+        TimeUnit.NANOSECONDS.toSeconds(setupNanos + buildNanos)));
+
+    double setupSeconds = setupNanos / 1e9;
+    double buildSeconds = buildNanos / 1e9;
+    double hiddenSeconds = hiddenNanos / 1e9;
+    Metrics.gauge("renjin_pipeline_setup_seconds", "Time until the last package was set up", () -> setupSeconds);
+    Metrics.gauge("renjin_pipeline_build_seconds", "Time spent running Gradle builds", () -> buildSeconds);
+    Metrics.gauge("renjin_pipeline_hidden_setup_seconds", "Setup time overlapping with Gradle builds", () -> hiddenSeconds);
+  }
+}
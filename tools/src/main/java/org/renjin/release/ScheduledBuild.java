@@ -0,0 +1,75 @@
+package org.renjin.release;
+
+import org.renjin.release.graph.PackageBuildScheduler;
+import org.renjin.release.graph.PackageGraph;
+import org.renjin.release.metrics.Metrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the packages set up by {@link PackageSetup}, each as soon as its non-optional dependencies have been built,
+ * using the {@link PackageBuildScheduler}. Packages depending on a package which failed to build are skipped rather
+ * than built against a missing dependency.
+ *
+ * <p>The packages which are ready at the same time are built together by a {@link GradleBatchBuilder}, in one
+ * Gradle build with {@code --parallel} and {@code --max-workers} set to the number of workers. Separate builds
+ * running at the same time would each need a daemon with the heap given by {@code org.gradle.jvmargs}, and would
+ * all check the included {@code ../renjin} build at once. Gradle's output is written to
+ * {@code packages/build/scheduled/gradle.log}.</p>
+ *
+ * <p>Usage: {@code ScheduledBuild <universe root> [workers]}. The tasks run in each package default to
+ * {@code build}, and can be changed with {@code -Drenjin.scheduled.tasks=<task,...>}. Extra Gradle arguments
+ * can be given with {@code -Drenjin.scheduled.gradleArgs}.</p>
+ */
+public class ScheduledBuild {
+
+  public static void main(String[] args) throws Exception {
+
+    File universeRoot = new File(args[0]);
+    int workers = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("renjin.release.threads", 4);
+    List<String> taskNames = Arrays.asList(System.getProperty("renjin.scheduled.tasks", "build").split(","));
+
+    List<String> gradleArgs = new ArrayList<>(Arrays.asList("--parallel", "--max-workers=" + workers));
+    String extraArgs = System.getProperty("renjin.scheduled.gradleArgs", "").trim();
+    if(!extraArgs.isEmpty()) {
+      gradleArgs.addAll(Arrays.asList(extraArgs.split("\\s+")));
+    }
+
+    File packageRootDir = new File(universeRoot, "packages");
+
+    PackageGraph graph = UniverseGraph.load(universeRoot);
+    PackageBuildScheduler scheduler = graph.newScheduler();
+
+    Map<String, String> failures = new TreeMap<>();
+    scheduler.onFailed((node, error) -> {
+      synchronized (failures) {
+        failures.put(node.getId().getPackageName(), String.valueOf(error.getMessage()));
+      }
+    });
+    scheduler.onSkipped((node, cause) ->
+        System.out.println("Skipping " + node.getId().getPackageName() + ": " + cause.getId().getPackageName() + " failed"));
+
+    long startTime = System.nanoTime();
+
+    // Each worker waits for its package to be built by the shared build, so the number of workers is also
+    // the largest number of packages built together.
+    try(GradleBatchBuilder builder = new GradleBatchBuilder(packageRootDir, taskNames, gradleArgs,
+        new File(packageRootDir, "build/scheduled/gradle.log"))) {
+      scheduler.run(workers, node -> builder.build(node.getId().getPackageName()));
+    }
+
+    System.out.println(String.format("Built in %d s with %d workers: %s",
+        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime), workers, scheduler.describeProgress()));
+    for (Map.Entry<String, String> failure : failures.entrySet()) {
+      System.out.println(String.format("  FAILED %-30s %s", failure.getKey(), failure.getValue()));
+    }
+
+    Metrics.writeReport(new File(packageRootDir, "build/metrics"), "scheduledBuild");
+  }
+}
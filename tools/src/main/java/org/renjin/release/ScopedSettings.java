@@ -0,0 +1,153 @@
+package org.renjin.release;
+
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+import org.renjin.release.graph.CompactPackageGraph;
+import org.renjin.release.graph.ReplacedPackageProvider;
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a Gradle settings file which includes only what is needed to build and test a subset of the packages,
+ * so that running a small test suite does not pay for configuring the whole universe.
+ *
+ * <p>The settings include the selected packages and their whole dependency closure, suggested packages included,
+ * because each package's build file refers to the projects of its suggested packages. Of the replacement builds,
+ * only those of replaced packages in the closure are included.</p>
+ *
+ * <p>Usage: {@code ScopedSettings <universe root> [options] [package...]}. Options:</p>
+ * <ul>
+ *   <li>{@code --testsuite=<name>} selects the packages listed in {@code packages/<name>.testsuite}, and
+ *   writes {@code packages/settings-<name>.gradle}. Use it with
+ *   {@code ./gradlew -c settings-<name>.gradle -Ptestsuite=<name> checkTests}.</li>
+ *   <li>{@code --name=<name>} names the settings file when packages are given on the command line.</li>
+ *   <li>{@code --measure} times Gradle's configuration phase with the full {@code settings.gradle} and with the
+ *   scoped settings, using dry runs of the selected packages' {@code testNamespace} tasks.</li>
+ * </ul>
+ */
+public class ScopedSettings {
+
+  private static final int MEASURED_RUNS = 3;
+
+  public static void main(String[] args) throws IOException {
+
+    File universeRoot = new File(args[0]);
+    File packageRootDir = new File(universeRoot, "packages");
+
+    String testSuiteName = null;
+    String name = null;
+    boolean measure = false;
+    Set<String> selected = new LinkedHashSet<>();
+    for (int i = 1; i < args.length; i++) {
+      if(args[i].startsWith("--testsuite=")) {
+        testSuiteName = args[i].substring("--testsuite=".length());
+      } else if(args[i].startsWith("--name=")) {
+        name = args[i].substring("--name=".length());
+      } else if(args[i].equals("--measure")) {
+        measure = true;
+      } else {
+        selected.addAll(Arrays.asList(args[i].split(",")));
+      }
+    }
+    if(testSuiteName != null) {
+      selected.addAll(TestSuite.read(new File(packageRootDir, testSuiteName + TestSuite.EXTENSION)).getPackageNames());
+      if(name == null) {
+        name = testSuiteName;
+      }
+    }
+    if(selected.isEmpty() || name == null) {
+      throw new IllegalArgumentException("Usage: ScopedSettings <universe root> --testsuite=<name> | --name=<name> package...");
+    }
+
+    ReplacedPackageProvider replacedPackages = new ReplacedPackageProvider(new File(universeRoot, "replacements"));
+    PackageIndex packageIndex = new PackageIndex(packageRootDir);
+    CompactPackageGraph graph = UniverseGraph.load(universeRoot).getCompactGraph();
+
+    BitSet roots = new BitSet(graph.size());
+    for (String packageName : selected) {
+      int node = graph.indexOf(PackageId.of(PackageId.CRAN_GROUP, packageName));
+      if(node == -1) {
+        System.err.println("Ignoring " + packageName + ": not in the package graph");
+      } else {
+        roots.set(node);
+      }
+    }
+    BitSet closure = graph.dependencyClosure(roots, true);
+
+    Set<String> included = new HashSet<>();
+    Set<String> replacements = new TreeSet<>();
+    for (int node = closure.nextSetBit(0); node >= 0; node = closure.nextSetBit(node + 1)) {
+      if(graph.isReplaced(node)) {
+        replacements.add(graph.getId(node).getPackageName());
+      } else {
+        included.add(graph.getId(node).getPackageName());
+      }
+    }
+
+    SettingsFileWriter writer = new SettingsFileWriter(packageRootDir, replacedPackages);
+    StringBuilder settings = writer.header(replacements);
+    settings.append("// Packages needed by ").append(testSuiteName != null ? testSuiteName + TestSuite.EXTENSION : name)
+        .append("\n");
+    int includeCount = 0;
+    for (PackageVersionId id : packageIndex.getToBuild()) {
+      if(included.contains(id.getPackageName())) {
+        SettingsFileWriter.appendInclude(settings, id.getPackageName());
+        includeCount++;
+      }
+    }
+
+    String fileName = "settings-" + name + ".gradle";
+    writer.write(fileName, settings);
+
+    System.out.println(String.format("Wrote %s: %d of %d packages, %d of %d replacement builds, for %d selected packages",
+        fileName,
+        includeCount, packageIndex.getToBuild().size(),
+        replacements.size(), replacedPackages.getReplacedPackageNames().size(),
+        roots.cardinality()));
+
+    if(measure) {
+      List<String> tasks = new ArrayList<>();
+      for (String packageName : selected) {
+        if(included.contains(packageName)) {
+          tasks.add(":cran:" + packageName + ":testNamespace");
+        }
+      }
+      measureConfiguration(packageRootDir, tasks, "settings.gradle", fileName);
+    }
+  }
+
+  /**
+   * Compares the time Gradle takes to configure a build of {@code tasks} with each of the settings files. The
+   * builds are dry runs, so no task is executed, and the first run of each is discarded to warm up the daemon.
+   */
+  private static void measureConfiguration(File packageRootDir, List<String> tasks, String... settingsFiles) {
+    try(ProjectConnection connection = GradleConnector.newConnector()
+        .forProjectDirectory(packageRootDir)
+        .connect()) {
+
+      for (String settingsFile : settingsFiles) {
+        long[] millis = new long[MEASURED_RUNS];
+        for (int run = -1; run < MEASURED_RUNS; run++) {
+          long start = System.nanoTime();
+          connection.newBuild()
+              .forTasks(tasks.toArray(new String[0]))
+              .withArguments("--dry-run", "--settings-file", settingsFile)
+              .setStandardOutput(new ByteArrayOutputStream())
+              .run();
+          if(run >= 0) {
+            millis[run] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+          }
+        }
+        Arrays.sort(millis);
+        System.out.println(String.format("Configuration with %-30s median %6d ms (min %d, max %d)",
+            settingsFile + ":", millis[MEASURED_RUNS / 2], millis[0], millis[MEASURED_RUNS - 1]));
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.renjin.release;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.renjin.release.graph.ReplacedPackageProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Writes Gradle settings files for the package build, starting from {@code settings.gradle.in}.
+ */
+public class SettingsFileWriter {
+
+  private final File rootDir;
+  private final ReplacedPackageProvider replacedPackages;
+
+  /**
+   * @param rootDir the {@code packages} directory, containing {@code settings.gradle.in}
+   */
+  public SettingsFileWriter(File rootDir, ReplacedPackageProvider replacedPackages) {
+    this.rootDir = rootDir;
+    this.replacedPackages = replacedPackages;
+  }
+
+  /**
+   * Starts a settings file with the contents of {@code settings.gradle.in} and the replacement builds.
+   */
+  public StringBuilder header() throws IOException {
+    return header(replacedPackages.getReplacedPackageNames());
+  }
+
+  /**
+   * Starts a settings file with the contents of {@code settings.gradle.in} and the replacement builds of only
+   * the given packages. Every included build is configured on each Gradle invocation, so settings files for a
+   * subset of the packages should only include the replacements that subset depends on.
+   */
+  public StringBuilder header(Collection<String> replacements) throws IOException {
+    StringBuilder settings = new StringBuilder();
+    Files.asCharSource(new File(rootDir, "settings.gradle.in"), Charsets.UTF_8).copyTo(settings);
+    settings.append("\n\n");
+
+    replacedPackages.appendIncludeBuilds(settings, replacements);
+
+    settings.append("\n\n");
+    return settings;
+  }
+
+  public static void appendInclude(StringBuilder settings, String packageName) {
+    settings.append("include 'cran:").append(packageName).append("'\n");
+  }
+
+  /**
+   * Writes the settings file, leaving it untouched if its contents would not change.
+   *
+   * @return true if the file was written.
+   */
+  public boolean write(String fileName, CharSequence contents) throws IOException {
+    File settingsFile = new File(rootDir, fileName);
+    String updated = contents.toString();
+    if(settingsFile.exists() && updated.equals(Files.asCharSource(settingsFile, Charsets.UTF_8).read())) {
+      return false;
+    }
+    Files.write(updated, settingsFile, Charsets.UTF_8);
+    return true;
+  }
+}
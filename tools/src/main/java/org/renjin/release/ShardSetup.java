@@ -0,0 +1,170 @@
+package org.renjin.release;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.renjin.release.graph.*;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Splits the package build into shards which can be built by separate Gradle processes, on one machine
+ * or several.
+ *
+ * <p>Usage: {@code ShardSetup <universe root> <shard count>}</p>
+ *
+ * <p>For each shard {@code k}, this writes:</p>
+ * <ul>
+ *   <li>{@code packages/settings-shard-k.gradle}, which includes the shard's packages. Packages from other
+ *   shards that they depend on are included as stand-in projects under {@code packages/build/shards/upstream},
+ *   which resolve to the artifacts published by the other shard.</li>
+ *   <li>{@code packages/build/shards/shard-k.json}, a manifest of the shard's packages and of the
+ *   upstream artifacts it must fetch, and the shards that publish them.</li>
+ * </ul>
+ *
+ * <p>Shard 0 builds the core packages that the others depend on; the other shards only need the core's
+ * published artifacts, and can start as soon as the core is built (tests may also need packages suggested
+ * from any shard). Each shard is built with
+ * {@code ./gradlew -c settings-shard-k.gradle cran:<package>:publishToMavenLocal ...}, or publishes to a shared
+ * repository given to the stand-in projects with {@code -PshardRepo=<url>}.</p>
+ */
+public class ShardSetup {
+
+  public static void main(String[] args) throws IOException {
+
+    File universeRoot = new File(args[0]);
+    int shardCount = Integer.parseInt(args[1]);
+
+    File packageRootDir = new File(universeRoot, "packages");
+    File shardDir = new File(packageRootDir, "build/shards");
+    File upstreamDir = new File(shardDir, "upstream");
+    if(!upstreamDir.isDirectory() && !upstreamDir.mkdirs()) {
+      throw new IOException("Could not create " + upstreamDir.getAbsolutePath());
+    }
+
+    PackageGraph graph = UniverseGraph.load(universeRoot);
+    CompactPackageGraph compactGraph = graph.getCompactGraph();
+    TaskTimings timings = TaskTimings.read(packageRootDir);
+
+    long[] cost = new long[compactGraph.size()];
+    for (PackageNode node : graph.getNodes()) {
+      // Without any timings, balance on the number of packages
+      cost[compactGraph.indexOf(node.getId().getPackageId())] = Math.max(1, timings.getDuration(node));
+    }
+
+    ShardPlan plan = ShardPlan.partition(compactGraph, cost, shardCount);
+
+    SettingsFileWriter settingsWriter = new SettingsFileWriter(packageRootDir,
+        new ReplacedPackageProvider(new File(universeRoot, "replacements")));
+    ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    for (int shard = 0; shard < shardCount; shard++) {
+      List<Integer> packages = plan.getPackages(shard);
+      BitSet upstream = plan.getUpstream(shard, false);
+      BitSet testUpstream = plan.getUpstream(shard, true);
+      testUpstream.andNot(upstream);
+
+      StringBuilder settings = settingsWriter.header();
+      settings.append("// Shard ").append(shard).append(" of ").append(shardCount).append("\n");
+      for (int node : packages) {
+        SettingsFileWriter.appendInclude(settings, compactGraph.getId(node).getPackageName());
+      }
+
+      settings.append("\n// Built by other shards\n");
+      BitSet allUpstream = (BitSet) upstream.clone();
+      allUpstream.or(testUpstream);
+      for (int node = allUpstream.nextSetBit(0); node >= 0; node = allUpstream.nextSetBit(node + 1)) {
+        String packageName = compactGraph.getId(node).getPackageName();
+        File stubDir = new File(upstreamDir, packageName);
+        writeUpstreamStub(stubDir, compactGraph.getId(node), plan.getShard(node));
+        SettingsFileWriter.appendInclude(settings, packageName);
+        settings.append("project(':cran:").append(packageName).append("').projectDir = file('")
+            .append(packageRootDir.toPath().relativize(stubDir.toPath()).toString().replace('\\', '/'))
+            .append("')\n");
+      }
+      settingsWriter.write("settings-shard-" + shard + ".gradle", settings);
+
+      ObjectNode manifest = objectMapper.createObjectNode();
+      manifest.put("shard", shard);
+      manifest.put("shardCount", shardCount);
+      manifest.put("settingsFile", "settings-shard-" + shard + ".gradle");
+      manifest.put("estimatedCostMillis", plan.getLoad(shard));
+
+      ArrayNode packageArray = manifest.putArray("packages");
+      for (int node : packages) {
+        packageArray.add(compactGraph.getId(node).toString());
+      }
+
+      TreeSet<Integer> upstreamShards = new TreeSet<>();
+      manifest.put("upstream", upstreamArray(objectMapper, plan, upstream, upstreamShards));
+      ArrayNode upstreamShardArray = manifest.putArray("upstreamShards");
+      for (Integer upstreamShard : upstreamShards) {
+        upstreamShardArray.add(upstreamShard);
+      }
+      manifest.put("testUpstream", upstreamArray(objectMapper, plan, testUpstream, new TreeSet<>()));
+
+      objectMapper.writeValue(new File(shardDir, "shard-" + shard + ".json"), manifest);
+
+      System.out.println(String.format("Shard %d: %4d packages, estimated %6d s, %3d upstream artifacts from shards %s",
+          shard, packages.size(), plan.getLoad(shard) / 1000, upstream.cardinality(), upstreamShards));
+    }
+
+    int[] crossShardEdges = plan.countCrossShardEdges();
+    System.out.println(String.format("Cross-shard dependencies: %d required, %d suggested, of %d",
+        crossShardEdges[0], crossShardEdges[1], compactGraph.getEdgeCount()));
+  }
+
+  private static ArrayNode upstreamArray(ObjectMapper objectMapper, ShardPlan plan, BitSet nodes, TreeSet<Integer> shards) {
+    ArrayNode array = objectMapper.createArrayNode();
+    CompactPackageGraph graph = plan.getGraph();
+    for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+      ObjectNode artifact = array.addObject();
+      artifact.put("package", graph.getId(node).getPackageName());
+      artifact.put("coordinates", coordinates(graph.getId(node)));
+      artifact.put("shard", plan.getShard(node));
+      shards.add(plan.getShard(node));
+    }
+    return array;
+  }
+
+  private static String coordinates(PackageVersionId id) {
+    return id.getGroupId() + ":" + id.getPackageName() + ":" + PackageSetupTask.publishedVersion(id);
+  }
+
+  /**
+   * Writes a stand-in project for a package built by another shard, whose default configuration
+   * resolves to the published artifact, so that {@code :cran:name} project dependencies in
+   * {@code packages.json} continue to work.
+   */
+  private static void writeUpstreamStub(File stubDir, PackageVersionId id, int shard) throws IOException {
+    if(!stubDir.isDirectory() && !stubDir.mkdirs()) {
+      throw new IOException("Could not create " + stubDir.getAbsolutePath());
+    }
+    String buildFile =
+        "// Stands in for " + id.getPackageName() + ", which is built by shard " + shard + "\n" +
+        "\n" +
+        "repositories {\n" +
+        "  if(project.hasProperty('shardRepo')) {\n" +
+        "    maven { url = project.property('shardRepo') }\n" +
+        "  }\n" +
+        "  mavenLocal()\n" +
+        "}\n" +
+        "\n" +
+        "configurations {\n" +
+        "  'default'\n" +
+        "}\n" +
+        "\n" +
+        "dependencies {\n" +
+        "  'default' '" + coordinates(id) + "'\n" +
+        "}\n";
+    Files.write(buildFile, new File(stubDir, "build.gradle"), Charsets.UTF_8);
+  }
+}
@@ -0,0 +1,87 @@
+package org.renjin.release;
+
+import com.google.common.io.ByteStreams;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A zip archive holding everything needed to update the package list and set up a universe
+ * without the network: the package list, the resolved dependency set of each package version, and
+ * the source archive of each package to build.
+ *
+ * <p>Entries are laid out as follows:</p>
+ * <ul>
+ *   <li>{@code packages.list}</li>
+ *   <li>{@code dependencies/<group>/<name>/<version>.json}</li>
+ *   <li>{@code sources/<group>/<name>/<version>.tar.gz}</li>
+ * </ul>
+ *
+ * <p>Bundles are written by {@link SnapshotTool} and served by {@link MirrorServer}.</p>
+ */
+public class SnapshotBundle implements Closeable {
+
+  public static final String PACKAGE_LIST_ENTRY = "packages.list";
+
+  private final File file;
+  private final ZipFile zipFile;
+
+  public SnapshotBundle(File file) throws IOException {
+    this.file = file;
+    this.zipFile = new ZipFile(file);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  static String dependenciesEntry(PackageVersionId id) {
+    return "dependencies/" + path(id) + ".json";
+  }
+
+  static String sourcesEntry(PackageVersionId id) {
+    return "sources/" + path(id) + ".tar.gz";
+  }
+
+  private static String path(PackageVersionId id) {
+    return id.getGroupId() + "/" + id.getPackageName() + "/" + id.getVersionString();
+  }
+
+  /**
+   * @return the entry with the given name, or {@code null} if there is no such entry.
+   */
+  public ZipEntry getEntry(String name) {
+    return zipFile.getEntry(name);
+  }
+
+  public InputStream open(ZipEntry entry) throws IOException {
+    return zipFile.getInputStream(entry);
+  }
+
+  /**
+   * @return the contents of the entry with the given name, or {@code null} if there is no such entry.
+   */
+  public byte[] read(String name) throws IOException {
+    ZipEntry entry = zipFile.getEntry(name);
+    if(entry == null) {
+      return null;
+    }
+    try(InputStream in = zipFile.getInputStream(entry)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  public int size() {
+    return zipFile.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    zipFile.close();
+  }
+}
@@ -0,0 +1,254 @@
+package org.renjin.release;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.renjin.release.graph.CachingDependencyResolver;
+import org.renjin.release.graph.DependencyResolver;
+import org.renjin.release.graph.DependencyStore;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependency;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.*;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports a universe to a {@link SnapshotBundle}, and serves or restores such a bundle, so that performance runs
+ * are repeatable and CI workers can set up packages without the network.
+ *
+ * <p>Usage:</p>
+ * <ul>
+ *   <li>{@code SnapshotTool <universe root> export <bundle>} writes the package list, the dependency sets of every
+ *   package version reachable from it, and the sources of every package to build. Dependency sets come from the
+ *   local dependency store where possible, and sources from the archive cache, if one is configured.</li>
+ *   <li>{@code SnapshotTool <universe root> restore <bundle>} replaces the universe's package list with the
+ *   bundle's.</li>
+ *   <li>{@code SnapshotTool <universe root> serve <bundle> [port]} serves the bundle with {@link MirrorServer}
+ *   until the process is killed.</li>
+ * </ul>
+ *
+ * <p>To run against a bundle without a separate server, pass {@code -Drenjin.snapshot=<bundle>} to
+ * {@code updatePackageList} or {@code setupPackages}.</p>
+ */
+public class SnapshotTool {
+
+  private final File packageRootDir;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private SnapshotTool(File packageRootDir) {
+    this.packageRootDir = packageRootDir;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    File universeRoot = new File(args[0]);
+    String command = args[1];
+    File bundleFile = new File(args[2]);
+
+    SnapshotTool tool = new SnapshotTool(new File(universeRoot, "packages"));
+
+    switch (command) {
+      case "export":
+        tool.export(bundleFile, SourceArchiveCache.fromConfiguration(args));
+        break;
+      case "restore":
+        tool.restore(bundleFile);
+        break;
+      case "serve":
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        MirrorServer server = MirrorServer.start(new SnapshotBundle(bundleFile), port);
+        System.out.println("Serving " + bundleFile.getAbsolutePath() + " at " + server.getUrl());
+        System.out.println("Run with -Drenjin.packages.url=" + server.getUrl() + " -Drenjin.sources.url=" + server.getUrl());
+        Thread.currentThread().join();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown command '" + command + "', expected export, restore or serve");
+    }
+  }
+
+  private void export(File bundleFile, SourceArchiveCache archiveCache) throws Exception {
+
+    long startTime = System.nanoTime();
+
+    File packageListFile = new File(packageRootDir, "packages.list");
+    PackageIndex packageIndex = new PackageIndex(packageRootDir);
+    DependencyStore dependencyStore = DependencyStoreTool.open(packageRootDir);
+
+    File tempFile = new File(bundleFile.getAbsolutePath() + ".tmp");
+
+    int threads = Integer.getInteger("renjin.release.threads", 12);
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    ExecutorService resolverExecutor = Executors.newFixedThreadPool(PackageDatabaseClient.getMaxConcurrency());
+    try {
+      // Dependency sets of everything reachable from the package list, including replaced packages,
+      // so that the graph can be rebuilt from the same roots. They are resolved through the same tiers as
+      // the graph builder's, so those missing from the store are requested in parallel.
+      DependencyResolver resolver = new CachingDependencyResolver(executorService, dependencyStore,
+          pvid -> PackageDatabaseClient.resolveDependenciesAsync(resolverExecutor, pvid));
+      Map<PackageVersionId, ResolvedDependencySet> dependencySets =
+          resolveReachable(resolver, readPackageList(packageListFile));
+
+      try(ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+        putEntry(zip, SnapshotBundle.PACKAGE_LIST_ENTRY, Files.toByteArray(packageListFile), true);
+
+        for (Map.Entry<PackageVersionId, ResolvedDependencySet> entry : dependencySets.entrySet()) {
+          putEntry(zip, SnapshotBundle.dependenciesEntry(entry.getKey()),
+              objectMapper.writeValueAsBytes(entry.getValue()), true);
+        }
+
+        // Source archives are downloaded in parallel but written in order, so that the bundle is reproducible.
+        // Only a few downloads are kept ahead of the writer, to bound the number of archives held in memory.
+        List<PackageVersionId> toBuild = new ArrayList<>(packageIndex.getToBuild());
+        Collections.sort(toBuild);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        long sourceBytes = 0;
+        for (PackageVersionId id : toBuild) {
+          while(submitted < toBuild.size() && pending.size() < threads * 2) {
+            PackageVersionId next = toBuild.get(submitted++);
+            pending.add(executorService.submit(() -> fetchSources(next, archiveCache)));
+          }
+          byte[] archive = pending.poll().get();
+          putEntry(zip, SnapshotBundle.sourcesEntry(id), archive, false);
+          sourceBytes += archive.length;
+        }
+
+        System.out.println(String.format("Exported %d dependency sets and %d source archives (%d MB)",
+            dependencySets.size(), toBuild.size(), sourceBytes / 1024 / 1024));
+      }
+
+      java.nio.file.Files.move(tempFile.toPath(), bundleFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    } finally {
+      // Once the bundle is written, nothing is left running. After an error, this stops the downloads
+      // still in flight, whose threads would otherwise keep the JVM alive.
+      executorService.shutdownNow();
+      resolverExecutor.shutdownNow();
+      java.nio.file.Files.deleteIfExists(tempFile.toPath());
+      if(dependencyStore instanceof Closeable) {
+        ((Closeable) dependencyStore).close();
+      }
+    }
+
+    System.out.println(String.format("Wrote %s (%d MB) in %d s",
+        bundleFile.getAbsolutePath(),
+        bundleFile.length() / 1024 / 1024,
+        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime)));
+  }
+
+  /**
+   * Resolves the dependency sets of the given package versions and of every package version they reach,
+   * a level of the graph at a time.
+   *
+   * @return the dependency sets, in order, so that the bundle is reproducible. Package versions which could not
+   * be resolved are left out.
+   */
+  private static Map<PackageVersionId, ResolvedDependencySet> resolveReachable(DependencyResolver resolver,
+      Collection<PackageVersionId> roots) throws InterruptedException {
+
+    Map<PackageVersionId, ResolvedDependencySet> resolved = new TreeMap<>();
+    Set<PackageVersionId> visited = new HashSet<>();
+    List<PackageVersionId> level = new ArrayList<>(roots);
+
+    while(!level.isEmpty()) {
+      Map<PackageVersionId, CompletableFuture<ResolvedDependencySet>> futures = new LinkedHashMap<>();
+      for (PackageVersionId id : level) {
+        if(visited.add(id)) {
+          futures.put(id, resolver.resolve(id));
+        }
+      }
+      level = new ArrayList<>();
+      for (Map.Entry<PackageVersionId, CompletableFuture<ResolvedDependencySet>> entry : futures.entrySet()) {
+        ResolvedDependencySet dependencySet;
+        try {
+          dependencySet = entry.getValue().get();
+        } catch (ExecutionException e) {
+          System.out.println("WARNING: could not resolve dependencies of " + entry.getKey() + ": " +
+              e.getCause().getMessage());
+          continue;
+        }
+        resolved.put(entry.getKey(), dependencySet);
+        for (ResolvedDependency dependency : dependencySet.getDependencies()) {
+          if(dependency.isVersionResolved()) {
+            level.add(dependency.getPackageVersionId());
+          }
+        }
+      }
+    }
+    return resolved;
+  }
+
+  private static List<PackageVersionId> readPackageList(File packageListFile) throws IOException {
+    List<PackageVersionId> ids = new ArrayList<>();
+    for (String line : Files.readLines(packageListFile, Charsets.UTF_8)) {
+      if(line.endsWith("*")) {
+        line = line.substring(0, line.length() - 1);
+      }
+      if(!line.isEmpty()) {
+        ids.add(PackageVersionId.fromTriplet(line));
+      }
+    }
+    return ids;
+  }
+
+  private static byte[] fetchSources(PackageVersionId id, SourceArchiveCache archiveCache) throws IOException {
+    if(archiveCache != null) {
+      File archive = archiveCache.get(id);
+      if(archive == null) {
+        try(InputStream in = download(id)) {
+          archive = archiveCache.put(id, in);
+        }
+      }
+      return Files.toByteArray(archive);
+    }
+    try(InputStream in = download(id)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private static InputStream download(PackageVersionId id) {
+    return HttpClientPool.client()
+        .target(PackageDatabaseClient.getSourceUrl(id).toString())
+        .request()
+        .get(InputStream.class);
+  }
+
+  /**
+   * Writes an entry to the bundle. Source archives are already compressed, so they are stored as they are.
+   */
+  private static void putEntry(ZipOutputStream zip, String name, byte[] content, boolean compress) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    if(!compress) {
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(content.length);
+      entry.setCompressedSize(content.length);
+      entry.setCrc(crc.getValue());
+    }
+    // Fixed timestamps, so that the same universe always gives the same bundle
+    entry.setTime(0);
+    zip.putNextEntry(entry);
+    zip.write(content);
+    zip.closeEntry();
+  }
+
+  private void restore(File bundleFile) throws IOException {
+    try(SnapshotBundle bundle = new SnapshotBundle(bundleFile)) {
+      byte[] packageList = bundle.read(SnapshotBundle.PACKAGE_LIST_ENTRY);
+      if(packageList == null) {
+        throw new IOException(bundleFile + " has no " + SnapshotBundle.PACKAGE_LIST_ENTRY);
+      }
+      Files.write(packageList, new File(packageRootDir, "packages.list"));
+      System.out.println("Restored packages.list from " + bundleFile.getAbsolutePath());
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package org.renjin.release;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.*;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed cache of package source archives, which can be shared between checkouts
+ * and between processes on the same machine.
+ *
+ * <p>Archives are stored by their SHA-256 digest under {@code objects/}, and {@code index/} maps
+ * each package version to the digest of its archive. Archives are verified against their digest
+ * before they are used, and the least recently used archives are evicted once the cache grows
+ * beyond its maximum size.</p>
+ *
+ * <p>All files are written to a temporary location and then moved into place, so concurrent setups
+ * sharing the same cache never see partially written entries. Archives used within the last few minutes are
+ * never evicted, so that an archive which another process has just verified is still there when it reads it.
+ * Index entries which are corrupt, or point to missing or corrupt archives, are discarded and count as a
+ * miss.</p>
+ */
+public class SourceArchiveCache {
+
+  private static final Logger LOGGER = Logger.getLogger(SourceArchiveCache.class.getName());
+
+  public static final String DIR_ENV_VARIABLE = "RENJIN_ARCHIVE_CACHE";
+  public static final String MAX_SIZE_ENV_VARIABLE = "RENJIN_ARCHIVE_CACHE_MAX_MB";
+
+  private static final long DEFAULT_MAX_SIZE_MB = 4096;
+
+  private static final long DEFAULT_MIN_EVICTION_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{64}");
+
+  private final File rootDir;
+  private final File objectsDir;
+  private final File indexDir;
+  private final File tempDir;
+  private final long maxSizeBytes;
+  private final long minEvictionAgeMillis;
+
+  public SourceArchiveCache(File rootDir, long maxSizeBytes) {
+    this(rootDir, maxSizeBytes, DEFAULT_MIN_EVICTION_AGE_MILLIS);
+  }
+
+  /**
+   * @param minEvictionAgeMillis how long after an archive was last used it may be evicted
+   */
+  SourceArchiveCache(File rootDir, long maxSizeBytes, long minEvictionAgeMillis) {
+    this.rootDir = rootDir;
+    this.minEvictionAgeMillis = minEvictionAgeMillis;
+    this.objectsDir = new File(rootDir, "objects");
+    this.indexDir = new File(rootDir, "index");
+    this.tempDir = new File(rootDir, "tmp");
+    this.maxSizeBytes = maxSizeBytes;
+
+    if(!objectsDir.isDirectory() && !objectsDir.mkdirs() ||
+       !indexDir.isDirectory() && !indexDir.mkdirs() ||
+       !tempDir.isDirectory() && !tempDir.mkdirs()) {
+      throw new IllegalStateException("Could not create archive cache at " + rootDir.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Creates the archive cache configured by the {@code --archive-cache=<dir>} and
+   * {@code --archive-cache-max-mb=<size>} command line options, or the {@code RENJIN_ARCHIVE_CACHE} and
+   * {@code RENJIN_ARCHIVE_CACHE_MAX_MB} environment variables.
+   *
+   * @return the cache, or {@code null} if no cache is configured.
+   */
+  public static SourceArchiveCache fromConfiguration(String[] args) {
+    String dir = System.getenv(DIR_ENV_VARIABLE);
+    String maxSize = System.getenv(MAX_SIZE_ENV_VARIABLE);
+
+    for (String arg : args) {
+      if(arg.startsWith("--archive-cache=")) {
+        dir = arg.substring("--archive-cache=".length());
+      } else if(arg.startsWith("--archive-cache-max-mb=")) {
+        maxSize = arg.substring("--archive-cache-max-mb=".length());
+      }
+    }
+
+    if(Strings.isNullOrEmpty(dir)) {
+      return null;
+    }
+    long maxSizeMb = Strings.isNullOrEmpty(maxSize) ? DEFAULT_MAX_SIZE_MB : Long.parseLong(maxSize);
+
+    return new SourceArchiveCache(new File(dir), maxSizeMb * 1024L * 1024L);
+  }
+
+  public File getRootDir() {
+    return rootDir;
+  }
+
+  /**
+   * @return the cached, verified archive for the given package version, or {@code null} if there is none.
+   */
+  public File get(PackageVersionId pvid) {
+    File indexFile = indexFile(pvid);
+    if(!indexFile.exists()) {
+      return null;
+    }
+    try {
+      String digest = Files.asCharSource(indexFile, Charsets.UTF_8).read().trim();
+      if(!DIGEST.matcher(digest).matches()) {
+        LOGGER.warning("Archive cache index entry for " + pvid + " is corrupt, discarding.");
+        indexFile.delete();
+        return null;
+      }
+      File object = objectFile(digest);
+      // Record the access for LRU eviction before verifying, so that the archive is not evicted while it is
+      // verified and read
+      if(!object.exists() || !object.setLastModified(System.currentTimeMillis())) {
+        indexFile.delete();
+        return null;
+      }
+      HashCode actual = Files.asByteSource(object).hash(Hashing.sha256());
+      if(!actual.toString().equals(digest)) {
+        LOGGER.warning("Cached archive for " + pvid + " is corrupt, discarding.");
+        object.delete();
+        indexFile.delete();
+        return null;
+      }
+      return object;
+
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to read archive cache entry for " + pvid, e);
+      return null;
+    }
+  }
+
+  /**
+   * Copies an archive into the cache, computing its digest as it is read.
+   *
+   * @return the cached archive
+   */
+  public File put(PackageVersionId pvid, InputStream in) throws IOException {
+    File tempFile = File.createTempFile("archive", ".tmp", tempDir);
+    String digest;
+    try {
+      try (HashingInputStream hashingIn = new HashingInputStream(Hashing.sha256(), in);
+           OutputStream out = new FileOutputStream(tempFile)) {
+        ByteStreams.copy(hashingIn, out);
+        digest = hashingIn.hash().toString();
+      }
+
+      File object = objectFile(digest);
+      if(!object.getParentFile().isDirectory() && !object.getParentFile().mkdirs()) {
+        throw new IOException("Could not create " + object.getParentFile());
+      }
+      moveAtomically(tempFile, object);
+
+      File indexTemp = File.createTempFile("index", ".tmp", tempDir);
+      Files.asCharSink(indexTemp, Charsets.UTF_8).write(digest);
+      File indexFile = indexFile(pvid);
+      if(!indexFile.getParentFile().isDirectory() && !indexFile.getParentFile().mkdirs()) {
+        throw new IOException("Could not create " + indexFile.getParentFile());
+      }
+      moveAtomically(indexTemp, indexFile);
+
+      evict(object);
+
+      return object;
+
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  /**
+   * Deletes the least recently used archives until the cache fits within its maximum size, sparing those
+   * used too recently.
+   *
+   * @param keep an archive that must not be evicted
+   */
+  private void evict(File keep) {
+    List<File> objects = new ArrayList<>();
+    long totalSize = 0;
+    File[] prefixDirs = objectsDir.listFiles();
+    if(prefixDirs != null) {
+      for (File prefixDir : prefixDirs) {
+        File[] files = prefixDir.listFiles();
+        if(files != null) {
+          for (File file : files) {
+            objects.add(file);
+            totalSize += file.length();
+          }
+        }
+      }
+    }
+
+    if(totalSize <= maxSizeBytes) {
+      return;
+    }
+
+    long evictableBefore = System.currentTimeMillis() - minEvictionAgeMillis;
+    objects.sort(Comparator.comparingLong(File::lastModified));
+    for (File object : objects) {
+      if(totalSize <= maxSizeBytes || object.lastModified() > evictableBefore) {
+        break;
+      }
+      if(!object.equals(keep)) {
+        long length = object.length();
+        if(object.delete()) {
+          LOGGER.fine("Evicted " + object.getName() + " from archive cache");
+          totalSize -= length;
+        }
+      }
+    }
+    // Index entries which now point to missing objects are removed lazily by get()
+  }
+
+  private File objectFile(String digest) {
+    return new File(new File(objectsDir, digest.substring(0, 2)), digest + ".tar.gz");
+  }
+
+  private File indexFile(PackageVersionId pvid) {
+    return new File(new File(indexDir, pvid.getGroupId()), pvid.getPackageName() + "_" + pvid.getVersionString());
+  }
+
+  private static void moveAtomically(File from, File to) throws IOException {
+    java.nio.file.Files.move(from.toPath(), to.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
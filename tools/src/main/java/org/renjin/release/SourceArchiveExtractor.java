@@ -0,0 +1,233 @@
+package org.renjin.release;
+
+import com.google.common.io.CountingInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Extracts a gzipped tar archive directly from a stream, without writing the archive to disk
+ * or forking {@code tar}.
+ *
+ * <p>Nothing is ever written outside of the target directory. Entries whose names leave it, and symbolic links
+ * whose targets are absolute or leave it, are rejected. Entries are also never written through a symbolic link
+ * extracted earlier, because a link between two directories inside the target can still make a relative path
+ * lead outside of it: an entry replaces any link already at its path, and no entry is written below one.
+ * Link targets are followed through the links already on disk, and checked again once the whole archive has been
+ * extracted, as a link may be created before the links its target passes through. Hard links are extracted as
+ * copies of the regular file they link to.</p>
+ */
+public class SourceArchiveExtractor {
+
+  private static final Logger LOGGER = Logger.getLogger(SourceArchiveExtractor.class.getName());
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Summary of a completed extraction.
+   */
+  public static class Result {
+    private final long compressedBytes;
+    private final long uncompressedBytes;
+    private final int fileCount;
+    private final long elapsedNanos;
+
+    private Result(long compressedBytes, long uncompressedBytes, int fileCount, long elapsedNanos) {
+      this.compressedBytes = compressedBytes;
+      this.uncompressedBytes = uncompressedBytes;
+      this.fileCount = fileCount;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getCompressedBytes() {
+      return compressedBytes;
+    }
+
+    public long getUncompressedBytes() {
+      return uncompressedBytes;
+    }
+
+    public int getFileCount() {
+      return fileCount;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * @return the rate at which the compressed archive was consumed, in bytes per second.
+     */
+    public double getBytesPerSecond() {
+      return elapsedNanos == 0 ? 0 : compressedBytes / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d files, %d kB from %d kB archive at %.0f kB/s",
+          fileCount,
+          uncompressedBytes / 1024,
+          compressedBytes / 1024,
+          getBytesPerSecond() / 1024);
+    }
+  }
+
+  /**
+   * Extracts a {@code .tar.gz} archive into {@code targetDir}.
+   *
+   * @param in the compressed archive. The stream is not closed.
+   * @param targetDir the directory into which to extract the archive
+   * @param stripComponents the number of leading path components to remove from each entry's name,
+   *                        like {@code tar --strip-components}. Entries with no components remaining are skipped.
+   * @throws IOException if the archive is truncated or corrupt, or has an entry which would be written outside
+   * of {@code targetDir}. Entries read before the error are left in {@code targetDir}.
+   */
+  public static Result extract(InputStream in, File targetDir, int stripComponents) throws IOException {
+
+    long startTime = System.nanoTime();
+    Path targetPath = targetDir.toPath().toAbsolutePath().normalize();
+    Files.createDirectories(targetPath);
+    Path realTargetPath = targetPath.toRealPath();
+    List<Path> symbolicLinks = new ArrayList<>();
+
+    CountingInputStream compressed = new CountingInputStream(in);
+    TarArchiveInputStream tar = new TarArchiveInputStream(new GZIPInputStream(compressed, BUFFER_SIZE));
+
+    byte[] buffer = new byte[BUFFER_SIZE];
+    long uncompressedBytes = 0;
+    int fileCount = 0;
+
+    TarArchiveEntry entry;
+    while((entry = tar.getNextTarEntry()) != null) {
+
+      String name = stripComponents(entry.getName(), stripComponents);
+      if(name.isEmpty()) {
+        continue;
+      }
+
+      Path path = resolve(targetPath, name, entry);
+
+      if(entry.isDirectory()) {
+        Files.createDirectories(path);
+
+      } else if(entry.isSymbolicLink()) {
+        Path link = new File(entry.getLinkName()).toPath();
+        Files.createDirectories(path.getParent());
+        if(link.isAbsolute() || !linksInside(realTargetPath, path.getParent(), link)) {
+          throw new IOException("Archive entry '" + entry.getName() + "' links to '" + entry.getLinkName() +
+              "', outside of the target directory");
+        }
+        Files.deleteIfExists(path);
+        Files.createSymbolicLink(path, link);
+        symbolicLinks.add(path);
+
+      } else if(entry.isLink()) {
+        // Hard links refer to an earlier entry of the archive, by its name within the archive
+        String linkName = stripComponents(entry.getLinkName(), stripComponents);
+        Path source = linkName.isEmpty() ? null : resolve(targetPath, linkName, entry);
+        if(source == null || !Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS)) {
+          LOGGER.warning("Skipping archive entry '" + entry.getName() + "': hard link to missing '" +
+              entry.getLinkName() + "'");
+          continue;
+        }
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        Files.copy(source, path, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+        fileCount++;
+
+      } else if(entry.isFile()) {
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        try(OutputStream out = Files.newOutputStream(path,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+          int read;
+          while((read = tar.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            uncompressedBytes += read;
+          }
+        }
+        // Preserve the executable bit, needed for configure scripts
+        if((entry.getMode() & 0100) != 0) {
+          path.toFile().setExecutable(true, false);
+        }
+        fileCount++;
+
+      } else {
+        LOGGER.warning("Skipping archive entry '" + entry.getName() + "', which is neither a file, a directory nor a link");
+      }
+    }
+
+    for (Path path : symbolicLinks) {
+      // A later entry may have replaced the link
+      if(Files.isSymbolicLink(path) && !linksInside(realTargetPath, path.getParent(), Files.readSymbolicLink(path))) {
+        throw new IOException("Symbolic link '" + targetPath.relativize(path) + "' leads outside of the target " +
+            "directory through the links extracted after it");
+      }
+    }
+
+    return new Result(compressed.getCount(), uncompressedBytes, fileCount, System.nanoTime() - startTime);
+  }
+
+  /**
+   * Resolves an entry's name against the target directory, checking that it stays inside, and that none of
+   * the directories leading to it is a symbolic link.
+   */
+  private static Path resolve(Path targetPath, String name, TarArchiveEntry entry) throws IOException {
+    Path path = targetPath.resolve(name).normalize();
+    if(!path.startsWith(targetPath) || path.equals(targetPath)) {
+      throw new IOException("Archive entry '" + entry.getName() + "' is outside of the target directory");
+    }
+    for (Path parent = path.getParent(); !parent.equals(targetPath); parent = parent.getParent()) {
+      if(Files.isSymbolicLink(parent)) {
+        throw new IOException("Archive entry '" + entry.getName() + "' would be written through the symbolic link '" +
+            targetPath.relativize(parent) + "'");
+      }
+    }
+    return path;
+  }
+
+  /**
+   * Checks that following {@code link} from {@code dir} never leaves the target directory, resolving each
+   * component of the link through whatever already exists on disk, including other symbolic links.
+   */
+  private static boolean linksInside(Path realTargetPath, Path dir, Path link) throws IOException {
+    Path current = dir.toRealPath();
+    for (Path component : link) {
+      String name = component.toString();
+      if(name.equals("..")) {
+        current = current.getParent();
+      } else if(!name.equals(".")) {
+        current = current.resolve(name);
+        if(Files.exists(current)) {
+          current = current.toRealPath();
+        }
+      }
+      if(current == null || !current.startsWith(realTargetPath)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String stripComponents(String name, int count) {
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      int slash = name.indexOf('/', start);
+      if(slash == -1) {
+        return "";
+      }
+      start = slash + 1;
+    }
+    return name.substring(start);
+  }
+}
@@ -0,0 +1,93 @@
+package org.renjin.release;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * A {@code .testsuite} file: a list of packages whose tests must pass, each optionally followed by
+ * waivers for individual tests. See {@code packages/README.md} for the syntax, and
+ * {@code packages/gradle/checkTests.gradle} for how it is checked.
+ */
+public class TestSuite {
+
+  public static final String EXTENSION = ".testsuite";
+
+  /**
+   * Maps each package name to its waiver lines, in the order in which they appear.
+   */
+  private final Map<String, List<String>> packages = new LinkedHashMap<>();
+
+  public TestSuite() {
+  }
+
+  public static TestSuite read(File file) throws IOException {
+    TestSuite suite = new TestSuite();
+    String currentPackage = null;
+    for (String line : Files.readLines(file, Charsets.UTF_8)) {
+      String trimmed = line.trim();
+      if(trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      if(trimmed.startsWith("-")) {
+        if(currentPackage != null) {
+          suite.packages.get(currentPackage).add(trimmed);
+        }
+      } else {
+        currentPackage = packageName(trimmed);
+        suite.packages.computeIfAbsent(currentPackage, name -> new ArrayList<>());
+      }
+    }
+    return suite;
+  }
+
+  /**
+   * Strips the group and version from entries written as {@code org.renjin.cran:name:version}.
+   */
+  private static String packageName(String entry) {
+    String name = entry.replace("org.renjin.cran:", "");
+    int colon = name.indexOf(':');
+    return colon == -1 ? name : name.substring(0, colon);
+  }
+
+  public boolean contains(String packageName) {
+    return packages.containsKey(packageName);
+  }
+
+  public Set<String> getPackageNames() {
+    return packages.keySet();
+  }
+
+  public List<String> getWaivers(String packageName) {
+    List<String> waivers = packages.get(packageName);
+    return waivers == null ? Collections.emptyList() : waivers;
+  }
+
+  public void add(String packageName, List<String> waivers) {
+    packages.put(packageName, new ArrayList<>(waivers));
+  }
+
+  public int size() {
+    return packages.size();
+  }
+
+  public void write(File file, String comment) throws IOException {
+    try(PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+      writer.println();
+      for (String line : comment.split("\n")) {
+        writer.println("# " + line);
+      }
+      writer.println();
+      for (Map.Entry<String, List<String>> entry : packages.entrySet()) {
+        writer.println(entry.getKey());
+        for (String waiver : entry.getValue()) {
+          writer.println(waiver);
+        }
+      }
+    }
+  }
+}
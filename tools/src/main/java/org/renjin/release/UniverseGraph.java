@@ -0,0 +1,63 @@
+package org.renjin.release;
+
+import org.renjin.release.graph.*;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the package graph of a checked-out universe without contacting the package database,
+ * from {@code packages.list} and the dependency sets saved by {@link UpdatePackageList}.
+ */
+public class UniverseGraph {
+
+  private static final Logger LOGGER = Logger.getLogger(UniverseGraph.class.getName());
+
+  private UniverseGraph() {
+  }
+
+  public static PackageGraph load(File universeRoot) throws IOException {
+
+    File packageRootDir = new File(universeRoot, "packages");
+    ReplacedPackageProvider replacedPackages = new ReplacedPackageProvider(new File(universeRoot, "replacements"));
+    PackageIndex packageIndex = new PackageIndex(packageRootDir);
+    DependencyStore store = DependencyStoreTool.open(packageRootDir);
+
+    Logger.getLogger(PackageGraphBuilder.class.getName()).setLevel(Level.WARNING);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(Integer.getInteger("renjin.release.threads", 4));
+    try {
+      DependencyResolver offlineResolver = pvid -> {
+        ResolvedDependencySet dependencySet = store.get(pvid);
+        if(dependencySet == null) {
+          LOGGER.warning("No saved dependencies for " + pvid + ", run updatePackageList to refresh them.");
+          dependencySet = new ResolvedDependencySet(Collections.emptyList());
+        }
+        return CompletableFuture.completedFuture(dependencySet);
+      };
+
+      PackageGraphBuilder builder = new PackageGraphBuilder(executorService, replacedPackages,
+          packageIndex.getBlocklist(), offlineResolver);
+
+      for (PackageVersionId pvid : packageIndex.getToBuild()) {
+        builder.add(pvid);
+      }
+      return builder.build();
+
+    } finally {
+      executorService.shutdown();
+      if(store instanceof Closeable) {
+        ((Closeable) store).close();
+      }
+    }
+  }
+}
@@ -2,7 +2,9 @@ package org.renjin.release;
 
 import com.google.common.collect.Lists;
 import org.renjin.release.graph.*;
+import org.renjin.release.metrics.Metrics;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -26,13 +28,38 @@ public class UpdatePackageList {
 
     File packageRootDir = new File(universeRoot, "packages");
 
-    ExecutorService executorService = Executors.newFixedThreadPool(12);
+    MirrorServer mirrorServer = MirrorServer.startIfConfigured();
 
-    DependencyCache dependencyCache = new DependencyCache(packageRootDir, "cran");
+    ExecutorService executorService = Executors.newFixedThreadPool(Integer.getInteger("renjin.release.threads", 12));
+    HttpClientPool.startReporting(10, TimeUnit.SECONDS);
+
+    DependencyStore dependencyCache = DependencyStoreTool.open(packageRootDir);
 
     Blocklist blocklist = new Blocklist(packageRootDir);
 
-    PackageGraphBuilder builder = new PackageGraphBuilder(executorService, dependencyCache, replacedPackages, blocklist);
+    // Blocking requests to the package database are made on a separate pool, so that
+    // the graph builder's threads are always free to expand the graph. The pool is as large as the
+    // number of requests the governor may let through, so that it never holds back a raised limit.
+    ExecutorService resolverExecutor = Executors.newFixedThreadPool(PackageDatabaseClient.getMaxConcurrency());
+    Metrics.monitor("graph", executorService);
+    Metrics.monitor("resolver", resolverExecutor);
+    BatchingDependencyResolver batchingResolver = null;
+    DependencyResolver resolver;
+    // The package database has no bulk resolution endpoint, only the snapshot mirror does, so batching is opt-in
+    if(Boolean.getBoolean("renjin.release.batchResolution")) {
+      batchingResolver = new BatchingDependencyResolver(resolverExecutor);
+      resolver = batchingResolver;
+    } else {
+      resolver = pvid -> PackageDatabaseClient.resolveDependenciesAsync(resolverExecutor, pvid);
+    }
+
+    long startTime = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+
+    CachingDependencyResolver cachingResolver = new CachingDependencyResolver(executorService, dependencyCache, resolver);
+    registerGauges(cachingResolver, batchingResolver);
+
+    PackageGraphBuilder builder = new PackageGraphBuilder(executorService, replacedPackages, blocklist, cachingResolver);
     builder.add("org.renjin.cran:MASS:7.3-51.4", null);
     builder.add("org.renjin.cran:Matrix:1.2-17");
     builder.add("org.renjin.cran:ggplot2:3.1.1", null);
@@ -40,8 +67,18 @@ public class UpdatePackageList {
     builder.add("org.renjin.cran:knitr:1.23", null);
     builder.add("org.renjin.cran:bitops:1.0-6", null);
     PackageGraph graph = builder.build();
+    Metrics.timer("renjin_graph_build_seconds", "Time to resolve and build the package graph").recordSince(startNanos);
+    Metrics.gauge("renjin_graph_packages", "Packages in the graph", graph.getNodes()::size);
 
     System.out.println("Package count: " + graph.getNodes().size());
+    System.out.println(String.format("Built graph in %d ms", System.currentTimeMillis() - startTime));
+    System.out.println(cachingResolver.describeStats());
+    if(batchingResolver != null) {
+      batchingResolver.close();
+      System.out.println(String.format("Resolved %d packages in %d round trips",
+          batchingResolver.getRequestCount(),
+          batchingResolver.getRoundTripCount()));
+    }
 
     File packageIndexFile = new File(packageRootDir, "packages.list");
     List<PackageNode> nodes = Lists.newArrayList(graph.getNodes());
@@ -59,5 +96,39 @@ public class UpdatePackageList {
 
     executorService.shutdown();
     executorService.awaitTermination(1, TimeUnit.MINUTES);
+    resolverExecutor.shutdown();
+
+    if(dependencyCache instanceof Closeable) {
+      ((Closeable) dependencyCache).close();
+    }
+
+    HttpClientPool.stopReporting();
+    System.out.println(HttpClientPool.describeStats());
+    if(HttpClientPool.getResponseCache() != null) {
+      System.out.println(HttpClientPool.getResponseCache().describeStats());
+    }
+
+    Metrics.writeReport(new File(packageRootDir, "build/metrics"), "updatePackageList");
+
+    if(mirrorServer != null) {
+      mirrorServer.close();
+    }
+  }
+
+  private static void registerGauges(CachingDependencyResolver cachingResolver, BatchingDependencyResolver batchingResolver) {
+    String name = "renjin_dependency_cache_lookups";
+    String help = "Dependency resolutions, by how they were answered";
+    Metrics.gauge(name, help, cachingResolver::getHitCount, "result", "hit");
+    Metrics.gauge(name, help, cachingResolver::getNegativeHitCount, "result", "negative_hit");
+    Metrics.gauge(name, help, cachingResolver::getStoreHitCount, "result", "store_hit");
+    Metrics.gauge(name, help, cachingResolver::getCoalescedCount, "result", "coalesced");
+    Metrics.gauge(name, help, cachingResolver::getMissCount, "result", "miss");
+
+    if(batchingResolver != null) {
+      Metrics.gauge("renjin_batch_resolver_requests", "Packages resolved by batched requests",
+          batchingResolver::getRequestCount);
+      Metrics.gauge("renjin_batch_resolver_round_trips", "Batched requests made to the package database",
+          batchingResolver::getRoundTripCount);
+    }
   }
 }
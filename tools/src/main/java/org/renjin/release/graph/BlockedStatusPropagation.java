@@ -0,0 +1,93 @@
+package org.renjin.release.graph;
+
+import java.util.BitSet;
+
+/**
+ * Computes which packages must be blocked because they depend, through non-optional dependencies,
+ * on a blocked package.
+ *
+ * <p>All blocked roots are propagated together in a single breadth-first pass over the reverse
+ * adjacency of a {@link CompactPackageGraph}, so each package is visited once, and no recursion is involved.
+ * Each newly blocked package records the blocking root nearest to it.</p>
+ */
+public class BlockedStatusPropagation {
+
+  private final CompactPackageGraph graph;
+  private final BitSet roots;
+  private final BitSet blocked;
+  private final int[] cause;
+
+  private BlockedStatusPropagation(CompactPackageGraph graph, BitSet roots, BitSet blocked, int[] cause) {
+    this.graph = graph;
+    this.roots = roots;
+    this.blocked = blocked;
+    this.cause = cause;
+  }
+
+  public static BlockedStatusPropagation propagate(CompactPackageGraph graph, BitSet roots) {
+    BitSet blocked = (BitSet) roots.clone();
+    int[] cause = new int[graph.size()];
+    int[] queue = new int[graph.size()];
+    int head = 0;
+    int tail = 0;
+
+    for (int i = roots.nextSetBit(0); i >= 0; i = roots.nextSetBit(i + 1)) {
+      cause[i] = i;
+      queue[tail++] = i;
+    }
+
+    while(head < tail) {
+      int node = queue[head++];
+      int root = cause[node];
+      for (int i = 0, count = graph.getDependentCount(node); i < count; i++) {
+        int dependent = graph.getDependent(node, i);
+        if(!graph.isDependentOptional(node, i) && !blocked.get(dependent)) {
+          blocked.set(dependent);
+          cause[dependent] = root;
+          queue[tail++] = dependent;
+        }
+      }
+    }
+
+    return new BlockedStatusPropagation(graph, (BitSet) roots.clone(), blocked, cause);
+  }
+
+  /**
+   * @return the roots and every package blocked because of them.
+   */
+  public BitSet getBlocked() {
+    return (BitSet) blocked.clone();
+  }
+
+  /**
+   * @return the packages which were blocked by propagation, excluding the roots.
+   */
+  public BitSet getNewlyBlocked() {
+    BitSet newlyBlocked = (BitSet) blocked.clone();
+    newlyBlocked.andNot(roots);
+    return newlyBlocked;
+  }
+
+  public boolean isBlocked(int node) {
+    return blocked.get(node);
+  }
+
+  /**
+   * @return the blocked root which caused this package to be blocked, the package itself if it is a root,
+   * or -1 if it is not blocked.
+   */
+  public int getCause(int node) {
+    return blocked.get(node) ? cause[node] : -1;
+  }
+
+  public CompactPackageGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * @return the packages which would be blocked if the given package were blocked, including the package itself.
+   */
+  public static BitSet takenDownBy(CompactPackageGraph graph, int node) {
+    return graph.dependentClosure(node, false);
+  }
+}
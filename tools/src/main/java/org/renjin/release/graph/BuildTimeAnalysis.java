@@ -0,0 +1,234 @@
+package org.renjin.release.graph;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * Estimates how long a package graph takes to build, given the time each package takes.
+ *
+ * <ul>
+ *   <li>The <em>critical path</em> is the chain of non-optional dependencies with the greatest total build time.
+ *   No number of workers can build the graph faster.</li>
+ *   <li>The wall time at N workers is estimated by simulating a list scheduler which, like
+ *   {@link PackageBuildScheduler}, starts the ready package with the longest remaining chain first.</li>
+ *   <li>A package's <em>downstream work</em> is the total build time of all packages which depend on it,
+ *   directly or transitively. Its <em>slack</em> is how much longer it could take without
+ *   lengthening the critical path.</li>
+ * </ul>
+ */
+public class BuildTimeAnalysis {
+
+  private final List<PackageNode> order;
+  private final Map<PackageNode, Long> durations = new HashMap<>();
+  private final Map<PackageNode, List<PackageNode>> dependencies = new HashMap<>();
+  private final Map<PackageNode, List<PackageNode>> dependents = new HashMap<>();
+
+  private final Map<PackageNode, Long> earliestFinish = new HashMap<>();
+  private final Map<PackageNode, Long> bottomLevel = new HashMap<>();
+  private final Map<PackageNode, PackageNode> criticalPredecessor = new HashMap<>();
+
+  private long totalWork;
+  private long criticalPathLength;
+  private PackageNode criticalPathEnd;
+
+  public BuildTimeAnalysis(PackageGraph graph, ToLongFunction<PackageNode> duration) {
+    Set<PackageNode> nodes = new HashSet<>(graph.getNodes());
+    for (PackageNode node : nodes) {
+      durations.put(node, duration.applyAsLong(node));
+      dependents.put(node, new ArrayList<>());
+    }
+    for (PackageNode node : nodes) {
+      Set<PackageNode> nodeDependencies = new HashSet<>();
+      for (DependencyEdge edge : node.getDependencies()) {
+        PackageNode dependency = edge.getPackageNode();
+        if(!edge.isOptional() && dependency != node && nodes.contains(dependency)) {
+          nodeDependencies.add(dependency);
+        }
+      }
+      dependencies.put(node, new ArrayList<>(nodeDependencies));
+      for (PackageNode dependency : nodeDependencies) {
+        dependents.get(dependency).add(node);
+      }
+    }
+
+    this.order = topologicalOrder(nodes);
+
+    for (PackageNode node : order) {
+      long start = 0;
+      PackageNode predecessor = null;
+      for (PackageNode dependency : dependencies.get(node)) {
+        Long finish = earliestFinish.get(dependency);
+        if(finish != null && finish >= start) {
+          start = finish;
+          predecessor = dependency;
+        }
+      }
+      long finish = start + durations.get(node);
+      earliestFinish.put(node, finish);
+      if(predecessor != null) {
+        criticalPredecessor.put(node, predecessor);
+      }
+      totalWork += durations.get(node);
+      if(criticalPathEnd == null || finish > criticalPathLength) {
+        criticalPathLength = finish;
+        criticalPathEnd = node;
+      }
+    }
+
+    for (int i = order.size() - 1; i >= 0; i--) {
+      PackageNode node = order.get(i);
+      long longestDependent = 0;
+      for (PackageNode dependent : dependents.get(node)) {
+        Long level = bottomLevel.get(dependent);
+        if(level != null) {
+          longestDependent = Math.max(longestDependent, level);
+        }
+      }
+      bottomLevel.put(node, durations.get(node) + longestDependent);
+    }
+  }
+
+  /**
+   * Orders the nodes so that every node follows its dependencies. Nodes on a cycle are placed at the end.
+   */
+  private List<PackageNode> topologicalOrder(Set<PackageNode> nodes) {
+    Map<PackageNode, Integer> remaining = new HashMap<>();
+    ArrayDeque<PackageNode> ready = new ArrayDeque<>();
+    for (PackageNode node : nodes) {
+      remaining.put(node, dependencies.get(node).size());
+      if(dependencies.get(node).isEmpty()) {
+        ready.add(node);
+      }
+    }
+    List<PackageNode> order = new ArrayList<>(nodes.size());
+    while(!ready.isEmpty()) {
+      PackageNode node = ready.poll();
+      order.add(node);
+      for (PackageNode dependent : dependents.get(node)) {
+        if(remaining.merge(dependent, -1, Integer::sum) == 0) {
+          ready.add(dependent);
+        }
+      }
+    }
+    if(order.size() < nodes.size()) {
+      for (PackageNode node : nodes) {
+        if(remaining.get(node) > 0) {
+          order.add(node);
+        }
+      }
+    }
+    return order;
+  }
+
+  public long getTotalWork() {
+    return totalWork;
+  }
+
+  public long getCriticalPathLength() {
+    return criticalPathLength;
+  }
+
+  public long getDuration(PackageNode node) {
+    return durations.get(node);
+  }
+
+  /**
+   * @return the packages on the critical path, in build order.
+   */
+  public List<PackageNode> getCriticalPath() {
+    LinkedList<PackageNode> path = new LinkedList<>();
+    PackageNode node = criticalPathEnd;
+    while(node != null) {
+      path.addFirst(node);
+      node = criticalPredecessor.get(node);
+    }
+    return path;
+  }
+
+  /**
+   * @return how much longer the package could take without delaying the build as a whole.
+   */
+  public long getSlack(PackageNode node) {
+    long start = earliestFinish.get(node) - durations.get(node);
+    return criticalPathLength - start - bottomLevel.get(node);
+  }
+
+  /**
+   * @return the total build time of every package which depends on this one.
+   */
+  public long getDownstreamWork(PackageNode node) {
+    Set<PackageNode> visited = new HashSet<>();
+    ArrayDeque<PackageNode> queue = new ArrayDeque<>(dependents.get(node));
+    long work = 0;
+    while(!queue.isEmpty()) {
+      PackageNode dependent = queue.poll();
+      if(visited.add(dependent)) {
+        work += durations.get(dependent);
+        queue.addAll(dependents.get(dependent));
+      }
+    }
+    return work;
+  }
+
+  /**
+   * @return the packages with the most downstream work, which delay the most other packages when they are slow.
+   */
+  public List<PackageNode> getGatingPackages(int limit) {
+    Map<PackageNode, Long> downstream = new HashMap<>();
+    for (PackageNode node : order) {
+      if(durations.get(node) > 0) {
+        downstream.put(node, getDownstreamWork(node));
+      }
+    }
+    List<PackageNode> gating = new ArrayList<>(downstream.keySet());
+    gating.sort(Comparator.comparingLong((PackageNode node) -> downstream.get(node)).reversed()
+        .thenComparing(node -> node.getId().toString()));
+    return gating.subList(0, Math.min(limit, gating.size()));
+  }
+
+  /**
+   * Simulates building the graph with a fixed number of workers.
+   *
+   * @return the estimated wall time, in the same unit as the durations.
+   */
+  public long estimateWallTime(int workers) {
+    Map<PackageNode, Integer> remaining = new HashMap<>();
+    PriorityQueue<PackageNode> ready = new PriorityQueue<>(
+        Comparator.comparingLong((PackageNode node) -> bottomLevel.get(node)).reversed()
+            .thenComparing(node -> node.getId().toString()));
+
+    for (PackageNode node : order) {
+      remaining.put(node, dependencies.get(node).size());
+      if(dependencies.get(node).isEmpty()) {
+        ready.add(node);
+      }
+    }
+
+    // Running packages, ordered by the time at which they finish
+    PriorityQueue<long[]> running = new PriorityQueue<>(Comparator.comparingLong((long[] r) -> r[0]));
+    List<PackageNode> runningNodes = new ArrayList<>();
+
+    long time = 0;
+    int finished = 0;
+    while(finished < order.size()) {
+      while(!ready.isEmpty() && running.size() < workers) {
+        PackageNode node = ready.poll();
+        runningNodes.add(node);
+        running.add(new long[] { time + durations.get(node), runningNodes.size() - 1 });
+      }
+      if(running.isEmpty()) {
+        // The rest of the graph is on a cycle and can never be built
+        break;
+      }
+      long[] next = running.poll();
+      time = next[0];
+      finished++;
+      for (PackageNode dependent : dependents.get(runningNodes.get((int) next[1]))) {
+        if(remaining.merge(dependent, -1, Integer::sum) == 0) {
+          ready.add(dependent);
+        }
+      }
+    }
+    return time;
+  }
+}
@@ -0,0 +1,253 @@
+package org.renjin.release.graph;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import javax.ws.rs.NotFoundException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Resolves dependencies through a bounded in-memory tier, then the persistent {@link DependencyStore},
+ * and only then the remote resolver.
+ *
+ * <ul>
+ *   <li>Concurrent requests for the same package version share a single load ("single-flight"), so
+ *   the server is asked, and the store written, at most once.</li>
+ *   <li>Package versions which the package database does not know are remembered for a shorter period,
+ *   so that they are not requested again by every package which depends on them. Other failures, such as
+ *   timeouts, server errors or an open circuit, are not remembered, so the next request tries again.</li>
+ *   <li>Entries are evicted when the tier exceeds its maximum size, or after a fixed time.</li>
+ * </ul>
+ */
+public class CachingDependencyResolver implements DependencyResolver {
+
+  private static final Logger LOGGER = Logger.getLogger(CachingDependencyResolver.class.getName());
+
+  private final Executor executor;
+  private final DependencyStore store;
+  private final DependencyResolver remote;
+  private final long negativeTtlMillis;
+
+  private final Cache<PackageVersionId, Entry> memory;
+
+  private final ConcurrentMap<PackageVersionId, CompletableFuture<ResolvedDependencySet>> inflight =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong negativeHits = new AtomicLong();
+  private final AtomicLong storeHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+
+  private static class Entry {
+    private final ResolvedDependencySet value;
+    private final Throwable failure;
+    private final long expiresAt;
+
+    private Entry(ResolvedDependencySet value, Throwable failure, long expiresAt) {
+      this.value = value;
+      this.failure = failure;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * @param executor executor used to read from the persistent store
+   * @param store persistent store, consulted on a memory miss and updated after each remote resolution
+   * @param remote resolver used when neither tier has the package version
+   * @param maximumSize maximum number of entries held in memory
+   * @param ttl time after which entries are evicted from memory
+   * @param negativeTtl time for which failures are remembered
+   */
+  public CachingDependencyResolver(Executor executor,
+                                   DependencyStore store,
+                                   DependencyResolver remote,
+                                   long maximumSize,
+                                   long ttl,
+                                   long negativeTtl,
+                                   TimeUnit unit) {
+    this.executor = executor;
+    this.store = store;
+    this.remote = remote;
+    this.negativeTtlMillis = unit.toMillis(negativeTtl);
+    this.memory = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttl, unit)
+        .removalListener(notification -> {
+          if(notification.wasEvicted()) {
+            evicted.incrementAndGet();
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Creates a resolver sized by the {@code renjin.release.dependencyCache.maxSize} (default 10,000 entries),
+   * {@code renjin.release.dependencyCache.ttlMinutes} (default 60) and
+   * {@code renjin.release.dependencyCache.negativeTtlMinutes} (default 5) system properties.
+   */
+  public CachingDependencyResolver(Executor executor, DependencyStore store, DependencyResolver remote) {
+    this(executor, store, remote,
+        Long.getLong("renjin.release.dependencyCache.maxSize", 10_000),
+        Long.getLong("renjin.release.dependencyCache.ttlMinutes", 60),
+        Long.getLong("renjin.release.dependencyCache.negativeTtlMinutes", 5),
+        TimeUnit.MINUTES);
+  }
+
+  @Override
+  public CompletableFuture<ResolvedDependencySet> resolve(PackageVersionId pvid) {
+
+    CompletableFuture<ResolvedDependencySet> remembered = fromMemory(pvid);
+    if(remembered != null) {
+      return remembered;
+    }
+
+    CompletableFuture<ResolvedDependencySet> load = new CompletableFuture<>();
+    CompletableFuture<ResolvedDependencySet> existing = inflight.putIfAbsent(pvid, load);
+    if(existing != null) {
+      coalesced.incrementAndGet();
+      return existing;
+    }
+
+    // Another load may have finished between the lookup above and claiming the load: it writes
+    // memory before giving up its claim, so it is visible now.
+    remembered = fromMemory(pvid);
+    if(remembered != null) {
+      inflight.remove(pvid, load);
+      remembered.whenComplete((resolution, error) -> {
+        if(error == null) {
+          load.complete(resolution);
+        } else {
+          load.completeExceptionally(error);
+        }
+      });
+      return load;
+    }
+
+    CompletableFuture
+        .supplyAsync(() -> store.get(pvid), executor)
+        .thenCompose(stored -> {
+          if(stored != null) {
+            storeHits.incrementAndGet();
+            return CompletableFuture.completedFuture(stored);
+          }
+          misses.incrementAndGet();
+          LOGGER.info("Resolving " + pvid);
+          return remote.resolve(pvid).thenApplyAsync(resolution -> {
+            store.cache(pvid, resolution);
+            return resolution;
+          }, executor);
+        })
+        .whenComplete((resolution, error) -> {
+          if(error == null) {
+            memory.put(pvid, new Entry(resolution, null, Long.MAX_VALUE));
+          } else if(isNotFound(error)) {
+            memory.put(pvid, new Entry(null, error, System.currentTimeMillis() + negativeTtlMillis));
+          }
+          inflight.remove(pvid);
+          if(error == null) {
+            load.complete(resolution);
+          } else {
+            load.completeExceptionally(error);
+          }
+        });
+
+    return load;
+  }
+
+  /**
+   * @return a future completed from memory, or {@code null} if the package version must be loaded.
+   */
+  private CompletableFuture<ResolvedDependencySet> fromMemory(PackageVersionId pvid) {
+    Entry entry = memory.getIfPresent(pvid);
+    if(entry == null) {
+      return null;
+    }
+    if(entry.failure == null) {
+      hits.incrementAndGet();
+      return CompletableFuture.completedFuture(entry.value);
+    }
+    if(System.currentTimeMillis() < entry.expiresAt) {
+      negativeHits.incrementAndGet();
+      CompletableFuture<ResolvedDependencySet> failed = new CompletableFuture<>();
+      failed.completeExceptionally(entry.failure);
+      return failed;
+    }
+    memory.invalidate(pvid);
+    return null;
+  }
+
+  /**
+   * @return true if {@code error} means that the package database does not know the package version, which
+   * will not change by asking again soon.
+   */
+  private static boolean isNotFound(Throwable error) {
+    while((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+      error = error.getCause();
+    }
+    return error instanceof NotFoundException;
+  }
+
+  /**
+   * @return the number of requests answered from memory.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of requests answered with a remembered failure.
+   */
+  public long getNegativeHitCount() {
+    return negativeHits.get();
+  }
+
+  /**
+   * @return the number of requests answered from the persistent store.
+   */
+  public long getStoreHitCount() {
+    return storeHits.get();
+  }
+
+  /**
+   * @return the number of requests passed on to the remote resolver.
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of requests which shared a load already in progress.
+   */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /**
+   * @return the number of entries evicted from memory because of size or age.
+   */
+  public long getEvictionCount() {
+    return evicted.get();
+  }
+
+  public String describeStats() {
+    return String.format("Dependency cache: %d hits, %d negative hits, %d store hits, %d misses, %d coalesced, %d evicted",
+        getHitCount(),
+        getNegativeHitCount(),
+        getStoreHitCount(),
+        getMissCount(),
+        getCoalescedCount(),
+        getEvictionCount());
+  }
+}
@@ -0,0 +1,291 @@
+package org.renjin.release.graph;
+
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable form of a package graph in which each package is identified by a dense index
+ * from {@code 0} to {@code size() - 1}, in order of {@link PackageVersionId}.
+ *
+ * <p>Dependencies and dependents are stored in compressed sparse row (CSR) form: the edges of node {@code i}
+ * are {@code targets[offsets[i]]} to {@code targets[offsets[i + 1] - 1]}, and a parallel bitmask marks which
+ * of them are optional. Traversals work on {@code int} arrays and {@link BitSet}s rather than
+ * on sets of objects.</p>
+ */
+public class CompactPackageGraph implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final PackageVersionId[] ids;
+  private final PackageId[] packageIds;
+  private final boolean[] replaced;
+  private final Map<PackageId, Integer> index;
+
+  private final int[] dependencyOffsets;
+  private final int[] dependencyTargets;
+  private final long[] dependencyOptional;
+
+  private final int[] dependentOffsets;
+  private final int[] dependentTargets;
+  private final long[] dependentOptional;
+
+  private CompactPackageGraph(PackageVersionId[] ids, boolean[] replaced,
+                              int[] dependencyOffsets, int[] dependencyTargets, long[] dependencyOptional,
+                              int[] dependentOffsets, int[] dependentTargets, long[] dependentOptional) {
+    this.ids = ids;
+    this.replaced = replaced;
+    this.dependencyOffsets = dependencyOffsets;
+    this.dependencyTargets = dependencyTargets;
+    this.dependencyOptional = dependencyOptional;
+    this.dependentOffsets = dependentOffsets;
+    this.dependentTargets = dependentTargets;
+    this.dependentOptional = dependentOptional;
+
+    this.packageIds = new PackageId[ids.length];
+    this.index = new HashMap<>(ids.length * 2);
+    for (int i = 0; i < ids.length; i++) {
+      packageIds[i] = ids[i].getPackageId();
+      index.put(packageIds[i], i);
+    }
+  }
+
+  /**
+   * Freezes a set of nodes. Edges to nodes outside of the set are dropped.
+   */
+  public static CompactPackageGraph of(Collection<PackageNode> nodes) {
+
+    PackageNode[] sorted = nodes.toArray(new PackageNode[0]);
+    Arrays.sort(sorted, Comparator.comparing(PackageNode::getId));
+
+    Map<PackageNode, Integer> nodeIndex = new IdentityHashMap<>(sorted.length);
+    for (int i = 0; i < sorted.length; i++) {
+      nodeIndex.put(sorted[i], i);
+    }
+
+    PackageVersionId[] ids = new PackageVersionId[sorted.length];
+    boolean[] replaced = new boolean[sorted.length];
+    int[] dependencyOffsets = new int[sorted.length + 1];
+    int[] dependentCounts = new int[sorted.length];
+
+    // First pass: count edges, so that the arrays can be allocated exactly
+    int edgeCount = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      ids[i] = sorted[i].getId();
+      replaced[i] = sorted[i].isReplaced();
+      dependencyOffsets[i] = edgeCount;
+      for (DependencyEdge edge : sorted[i].getDependencies()) {
+        Integer target = nodeIndex.get(edge.getPackageNode());
+        if(target != null) {
+          edgeCount++;
+          dependentCounts[target]++;
+        }
+      }
+    }
+    dependencyOffsets[sorted.length] = edgeCount;
+
+    int[] dependentOffsets = new int[sorted.length + 1];
+    for (int i = 0; i < sorted.length; i++) {
+      dependentOffsets[i + 1] = dependentOffsets[i] + dependentCounts[i];
+    }
+
+    int[] dependencyTargets = new int[edgeCount];
+    long[] dependencyOptional = new long[(edgeCount + 63) / 64];
+    int[] dependentTargets = new int[edgeCount];
+    long[] dependentOptional = new long[(edgeCount + 63) / 64];
+    int[] dependentNext = Arrays.copyOf(dependentOffsets, sorted.length);
+
+    // Second pass: fill in the edges
+    for (int i = 0; i < sorted.length; i++) {
+      int edgeIndex = dependencyOffsets[i];
+      for (DependencyEdge edge : sorted[i].getDependencies()) {
+        Integer target = nodeIndex.get(edge.getPackageNode());
+        if(target != null) {
+          dependencyTargets[edgeIndex] = target;
+          int reverseIndex = dependentNext[target]++;
+          dependentTargets[reverseIndex] = i;
+          if(edge.isOptional()) {
+            setBit(dependencyOptional, edgeIndex);
+            setBit(dependentOptional, reverseIndex);
+          }
+          edgeIndex++;
+        }
+      }
+    }
+
+    return new CompactPackageGraph(ids, replaced,
+        dependencyOffsets, dependencyTargets, dependencyOptional,
+        dependentOffsets, dependentTargets, dependentOptional);
+  }
+
+  public int size() {
+    return ids.length;
+  }
+
+  public int getEdgeCount() {
+    return dependencyTargets.length;
+  }
+
+  /**
+   * @return the index of the given package, or -1 if it is not in the graph.
+   */
+  public int indexOf(PackageId packageId) {
+    Integer i = index.get(packageId);
+    return i == null ? -1 : i;
+  }
+
+  public PackageVersionId getId(int node) {
+    return ids[node];
+  }
+
+  /**
+   * @return the interned {@link PackageId} of the node.
+   */
+  public PackageId getPackageId(int node) {
+    return packageIds[node];
+  }
+
+  public boolean isReplaced(int node) {
+    return replaced[node];
+  }
+
+  public int getDependencyCount(int node) {
+    return dependencyOffsets[node + 1] - dependencyOffsets[node];
+  }
+
+  public int getDependentCount(int node) {
+    return dependentOffsets[node + 1] - dependentOffsets[node];
+  }
+
+  /**
+   * @return the {@code i}th dependency of {@code node}
+   */
+  public int getDependency(int node, int i) {
+    return dependencyTargets[dependencyOffsets[node] + i];
+  }
+
+  public boolean isDependencyOptional(int node, int i) {
+    return getBit(dependencyOptional, dependencyOffsets[node] + i);
+  }
+
+  /**
+   * @return the {@code i}th dependent of {@code node}
+   */
+  public int getDependent(int node, int i) {
+    return dependentTargets[dependentOffsets[node] + i];
+  }
+
+  public boolean isDependentOptional(int node, int i) {
+    return getBit(dependentOptional, dependentOffsets[node] + i);
+  }
+
+  public void forEachDependency(int node, boolean includeOptional, IntConsumer action) {
+    forEach(dependencyOffsets, dependencyTargets, dependencyOptional, node, includeOptional, action);
+  }
+
+  public void forEachDependent(int node, boolean includeOptional, IntConsumer action) {
+    forEach(dependentOffsets, dependentTargets, dependentOptional, node, includeOptional, action);
+  }
+
+  /**
+   * @return the given nodes and all of the nodes they depend on, directly or transitively.
+   */
+  public BitSet dependencyClosure(BitSet roots, boolean includeOptional) {
+    return closure(dependencyOffsets, dependencyTargets, dependencyOptional, roots, includeOptional);
+  }
+
+  /**
+   * @return the given nodes and all of the nodes which depend on them, directly or transitively.
+   */
+  public BitSet dependentClosure(BitSet roots, boolean includeOptional) {
+    return closure(dependentOffsets, dependentTargets, dependentOptional, roots, includeOptional);
+  }
+
+  public BitSet dependentClosure(int node, boolean includeOptional) {
+    BitSet roots = new BitSet(size());
+    roots.set(node);
+    return dependentClosure(roots, includeOptional);
+  }
+
+  /**
+   * @return the nodes ordered so that each follows its non-optional dependencies. Nodes on a cycle come last.
+   */
+  public int[] topologicalOrder() {
+    int[] remaining = new int[size()];
+    int[] order = new int[size()];
+    int head = 0;
+    int tail = 0;
+    for (int i = 0; i < size(); i++) {
+      for (int e = dependencyOffsets[i]; e < dependencyOffsets[i + 1]; e++) {
+        if(!getBit(dependencyOptional, e)) {
+          remaining[i]++;
+        }
+      }
+      if(remaining[i] == 0) {
+        order[tail++] = i;
+      }
+    }
+    while(head < tail) {
+      int node = order[head++];
+      for (int e = dependentOffsets[node]; e < dependentOffsets[node + 1]; e++) {
+        if(!getBit(dependentOptional, e) && --remaining[dependentTargets[e]] == 0) {
+          order[tail++] = dependentTargets[e];
+        }
+      }
+    }
+    for (int i = 0; i < size() && tail < size(); i++) {
+      if(remaining[i] > 0) {
+        order[tail++] = i;
+      }
+    }
+    return order;
+  }
+
+  /**
+   * @return the approximate number of bytes used by the adjacency arrays.
+   */
+  public long getAdjacencyBytes() {
+    return 4L * (dependencyOffsets.length + dependencyTargets.length + dependentOffsets.length + dependentTargets.length) +
+        8L * (dependencyOptional.length + dependentOptional.length);
+  }
+
+  private static void forEach(int[] offsets, int[] targets, long[] optional,
+                              int node, boolean includeOptional, IntConsumer action) {
+    for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+      if(includeOptional || !getBit(optional, e)) {
+        action.accept(targets[e]);
+      }
+    }
+  }
+
+  private BitSet closure(int[] offsets, int[] targets, long[] optional, BitSet roots, boolean includeOptional) {
+    BitSet visited = (BitSet) roots.clone();
+    int[] stack = new int[size()];
+    int top = 0;
+    for (int i = roots.nextSetBit(0); i >= 0; i = roots.nextSetBit(i + 1)) {
+      stack[top++] = i;
+    }
+    while(top > 0) {
+      int node = stack[--top];
+      for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+        int target = targets[e];
+        if(!visited.get(target) && (includeOptional || !getBit(optional, e))) {
+          visited.set(target);
+          stack[top++] = target;
+        }
+      }
+    }
+    return visited;
+  }
+
+  private static void setBit(long[] bits, int i) {
+    bits[i >>> 6] |= 1L << i;
+  }
+
+  private static boolean getBit(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+}
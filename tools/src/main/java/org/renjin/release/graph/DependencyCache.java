@@ -7,23 +7,36 @@ import org.renjin.release.model.ResolvedDependencySet;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class DependencyCache {
+/**
+ * Stores each resolved dependency set as a JSON file alongside the package's sources,
+ * at {@code <parentModel>/<package>/<package>_<version>.dependencies.json}
+ */
+public class DependencyCache implements DependencyStore {
 
     private static final Logger LOGGER = Logger.getLogger(DependencyCache.class.getName());
 
+    private static final String SUFFIX = ".dependencies.json";
+
     private final ObjectMapper objectMapper;
     private final File parentDir;
+    private final String groupId;
 
     public DependencyCache(File rootDir, String parentModel) {
         objectMapper = new ObjectMapper();
         objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
 
         parentDir = new File(rootDir, parentModel);
+        groupId = "org.renjin." + parentModel;
     }
 
+    @Override
     public ResolvedDependencySet get(PackageVersionId pvid) {
         File cacheFile = cacheFile(pvid);
         if(!cacheFile.exists()) {
@@ -32,24 +45,58 @@ public class DependencyCache {
         try {
             return objectMapper.readValue(cacheFile, ResolvedDependencySet.class);
         } catch (IOException e) {
+            // Treat as a miss, so that the entry is resolved again and overwritten
+            LOGGER.log(Level.WARNING, "Ignoring unreadable cache file " + cacheFile.getAbsolutePath(), e);
             return null;
         }
     }
 
     private File cacheFile(PackageVersionId pvid) {
         File packageDir = new File(parentDir, pvid.getPackageName());
-        return new File(packageDir, pvid.getPackageName() + "_" + pvid.getVersion() + ".dependencies.json");
+        return new File(packageDir, pvid.getPackageName() + "_" + pvid.getVersion() + SUFFIX);
     }
 
+    @Override
     public void cache(PackageVersionId pvid, ResolvedDependencySet dependencySet) {
         File file = cacheFile(pvid);
         if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
             LOGGER.log(Level.WARNING, "Failed to create directory " + file.getParentFile().getAbsolutePath());
         }
+        // Write to a temporary file and then move it into place, so that readers
+        // never see a partially written file.
+        File tempFile = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
         try {
-            objectMapper.writeValue(file, dependencySet);
+            objectMapper.writeValue(tempFile, dependencySet);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to cache " + pvid, e);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @return the ids of all package versions with a cached dependency set.
+     */
+    public List<PackageVersionId> list() {
+        List<PackageVersionId> ids = new ArrayList<>();
+        File[] packageDirs = parentDir.listFiles();
+        if(packageDirs != null) {
+            for (File packageDir : packageDirs) {
+                File[] files = packageDir.listFiles();
+                if(files != null) {
+                    for (File file : files) {
+                        String name = file.getName();
+                        // Package names cannot include underscores, so the first one separates the version
+                        int separator = name.indexOf('_');
+                        if(separator != -1 && name.endsWith(SUFFIX)) {
+                            ids.add(PackageVersionId.of(groupId,
+                                name.substring(0, separator),
+                                name.substring(separator + 1, name.length() - SUFFIX.length())));
+                        }
+                    }
+                }
+            }
         }
+        return ids;
     }
 }
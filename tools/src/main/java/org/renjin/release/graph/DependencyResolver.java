@@ -0,0 +1,19 @@
+package org.renjin.release.graph;
+
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronously resolves the dependencies of a package version.
+ */
+public interface DependencyResolver {
+
+  /**
+   * @return a future which completes with the resolved dependencies of {@code pvid}. Implementations
+   * should not block the calling thread.
+   */
+  CompletableFuture<ResolvedDependencySet> resolve(PackageVersionId pvid);
+
+}
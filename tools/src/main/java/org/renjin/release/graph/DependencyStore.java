@@ -0,0 +1,18 @@
+package org.renjin.release.graph;
+
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+/**
+ * Persistent store of resolved dependency sets, keyed by package version.
+ */
+public interface DependencyStore {
+
+  /**
+   * @return the cached dependency set of {@code pvid}, or {@code null} if it has not been resolved.
+   */
+  ResolvedDependencySet get(PackageVersionId pvid);
+
+  void cache(PackageVersionId pvid, ResolvedDependencySet dependencySet);
+
+}
@@ -0,0 +1,412 @@
+package org.renjin.release.graph;
+
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependency;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+/**
+ * Stores all resolved dependency sets in a single, append-only file, which is memory-mapped for reading.
+ *
+ * <p>The file starts with a header ({@code RDEP} followed by a format version), followed by a sequence
+ * of records:</p>
+ *
+ * <pre>
+ *   int    length of the rest of the record
+ *   string package version id, as a triplet
+ *   int    number of dependencies
+ *   for each dependency:
+ *     byte   flags: optional, has version, has build number, has replacement version
+ *     string name
+ *     string package version id, if present
+ *     long   build number, if present
+ *     string replacement version, if present
+ * </pre>
+ *
+ * <p>Strings are written as an int byte length followed by UTF-8 bytes. Caching a package version
+ * that is already in the store appends a new record, which supersedes the old one; {@link #compact()}
+ * rewrites the file with only the latest record for each package version.</p>
+ *
+ * <p>On open, the file is scanned once to build an in-memory index from package version to
+ * record offset, so that lookups are a hash lookup and a decode from the mapped buffer.</p>
+ *
+ * <p>Records appended while the store is open are read from the file until they add up to a chunk, and the
+ * chunk is then mapped as a region of its own. Regions that are already mapped are never mapped again, so the
+ * number of mappings grows with the size of the file rather than with the number of writes.</p>
+ *
+ * <p>The file is limited to 2 GB, the most that a single {@link MappedByteBuffer} can address. Caching a
+ * record beyond that fails with an {@link IllegalStateException}.</p>
+ */
+public class MappedDependencyStore implements DependencyStore, Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(MappedDependencyStore.class.getName());
+
+  private static final int MAGIC = 0x52444550; // "RDEP"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_LENGTH = 8;
+
+  private static final int OPTIONAL = 1;
+  private static final int HAS_VERSION = 2;
+  private static final int HAS_BUILD_NUMBER = 4;
+  private static final int HAS_REPLACEMENT = 8;
+
+  static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+  private static final int DEFAULT_MAP_CHUNK = 4 * 1024 * 1024;
+
+  private final File file;
+
+  /**
+   * Number of bytes of unmapped records which are mapped together as a new region.
+   */
+  private final int mapChunk;
+
+  private volatile FileChannel channel;
+
+  /**
+   * Read-only mappings of consecutive regions of the file, by the offset at which they start.
+   */
+  private final ConcurrentNavigableMap<Long, MappedByteBuffer> regions = new ConcurrentSkipListMap<>();
+
+  /**
+   * End of the last mapped region. Records from here to {@link #end} are read from the channel.
+   */
+  private volatile long mappedEnd;
+
+  /**
+   * Offset at which the next record will be written.
+   */
+  private long end;
+
+  private final Map<PackageVersionId, Long> index = new ConcurrentHashMap<>();
+
+  public MappedDependencyStore(File file) throws IOException {
+    this(file, DEFAULT_MAP_CHUNK);
+  }
+
+  MappedDependencyStore(File file, int mapChunk) throws IOException {
+    this.file = file;
+    this.mapChunk = mapChunk;
+    open();
+  }
+
+  private void open() throws IOException {
+    channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+
+    if(channel.size() == 0) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+      channel.write(header, 0);
+    }
+    end = channel.size();
+    if(end > MAX_FILE_SIZE) {
+      channel.close();
+      throw new IOException(String.format("%s is %d bytes, more than the %d byte limit of a dependency store",
+          file.getAbsolutePath(), end, MAX_FILE_SIZE));
+    }
+    remap();
+    scan();
+  }
+
+  /**
+   * Discards the existing regions and maps the whole file as one.
+   */
+  private void remap() throws IOException {
+    regions.clear();
+    regions.put(0L, channel.map(FileChannel.MapMode.READ_ONLY, 0, end));
+    mappedEnd = end;
+  }
+
+  /**
+   * Maps the records appended since the last region was mapped, once they add up to a chunk.
+   */
+  private void mapTail() throws IOException {
+    if(end - mappedEnd >= mapChunk) {
+      regions.put(mappedEnd, channel.map(FileChannel.MapMode.READ_ONLY, mappedEnd, end - mappedEnd));
+      mappedEnd = end;
+    }
+  }
+
+  /**
+   * Builds the index from the records in the file. A partially written record at the
+   * end of the file, left by an interrupted write, is truncated.
+   */
+  private void scan() throws IOException {
+    ByteBuffer buffer = regions.get(0L).duplicate();
+    if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+      throw new IOException(file.getAbsolutePath() + " is not a dependency store, or has an unsupported format");
+    }
+
+    index.clear();
+
+    while(buffer.remaining() >= 4) {
+      int offset = buffer.position();
+      int length = buffer.getInt();
+      if(length < 0 || length > buffer.remaining()) {
+        buffer.position(offset);
+        break;
+      }
+      index.put(PackageVersionId.fromTriplet(readString(buffer)), (long) offset);
+      buffer.position(offset + 4 + length);
+    }
+
+    if(buffer.position() < end) {
+      LOGGER.warning(String.format("Truncating %d bytes of incomplete record from %s",
+          end - buffer.position(), file.getAbsolutePath()));
+      end = buffer.position();
+      channel.truncate(end);
+      remap();
+    }
+  }
+
+  @Override
+  public ResolvedDependencySet get(PackageVersionId pvid) {
+    Long offset = index.get(pvid);
+    if(offset == null) {
+      return null;
+    }
+    ByteBuffer buffer = record(offset);
+    buffer.getInt();
+    readString(buffer);
+    return readDependencySet(buffer);
+  }
+
+  /**
+   * @return a buffer positioned at the start of the record at {@code offset}.
+   */
+  private ByteBuffer record(long offset) {
+    if(offset < mappedEnd) {
+      Map.Entry<Long, MappedByteBuffer> region = regions.floorEntry(offset);
+      ByteBuffer buffer = region.getValue().duplicate();
+      buffer.position((int) (offset - region.getKey()));
+      return buffer;
+    }
+    try {
+      ByteBuffer length = readFully(ByteBuffer.allocate(4), offset);
+      ByteBuffer record = ByteBuffer.allocate(4 + length.getInt(0));
+      return readFully(record, offset);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read record at " + offset + " of " + file.getAbsolutePath(), e);
+    }
+  }
+
+  private ByteBuffer readFully(ByteBuffer buffer, long offset) throws IOException {
+    while(buffer.hasRemaining()) {
+      if(channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public synchronized void cache(PackageVersionId pvid, ResolvedDependencySet dependencySet) {
+    byte[] record = encode(pvid, dependencySet);
+    if(end + record.length > MAX_FILE_SIZE) {
+      throw new IllegalStateException(String.format("Cannot store dependencies of %s: %s would exceed the " +
+          "%d byte limit of a dependency store. Compact it, or move it aside to start a new one.",
+          pvid, file.getAbsolutePath(), MAX_FILE_SIZE));
+    }
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(record);
+      long offset = end;
+      while(buffer.hasRemaining()) {
+        channel.write(buffer, offset + buffer.position());
+      }
+      end += record.length;
+      index.put(pvid, offset);
+      mapTail();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to store dependencies of " + pvid, e);
+    }
+  }
+
+  public Set<PackageVersionId> keys() {
+    return index.keySet();
+  }
+
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * @return the number of bytes occupied by superseded records.
+   */
+  public synchronized long getWastedBytes() {
+    return end - HEADER_LENGTH - liveBytes();
+  }
+
+  private long liveBytes() {
+    long live = 0;
+    for (Long offset : index.values()) {
+      live += 4 + record(offset).getInt();
+    }
+    return live;
+  }
+
+  /**
+   * Rewrites the store with only the latest record for each package version, sorted by id.
+   * The new file replaces the old one atomically. Should not be called while other threads are reading
+   * from the store.
+   */
+  public synchronized void compact() throws IOException {
+    File compacted = new File(file.getParentFile(), file.getName() + ".compact");
+    Files.deleteIfExists(compacted.toPath());
+
+    try(MappedDependencyStore target = new MappedDependencyStore(compacted)) {
+      Map<PackageVersionId, Long> sorted = new TreeMap<>(index);
+      for (PackageVersionId pvid : sorted.keySet()) {
+        target.cache(pvid, get(pvid));
+      }
+      target.channel.force(true);
+    }
+
+    close();
+    Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    open();
+  }
+
+  /**
+   * Copies all dependency sets from the per-package JSON layout into this store.
+   *
+   * @return the number of dependency sets imported.
+   */
+  public int importFrom(DependencyCache source) {
+    int count = 0;
+    for (PackageVersionId pvid : source.list()) {
+      ResolvedDependencySet dependencySet = source.get(pvid);
+      if(dependencySet != null) {
+        cache(pvid, dependencySet);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Writes all dependency sets in this store to the per-package JSON layout.
+   *
+   * @return the number of dependency sets exported.
+   */
+  public int exportTo(DependencyCache target) {
+    int count = 0;
+    for (PackageVersionId pvid : index.keySet()) {
+      target.cache(pvid, get(pvid));
+      count++;
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    regions.clear();
+    mappedEnd = 0;
+    channel.close();
+  }
+
+  private static byte[] encode(PackageVersionId pvid, ResolvedDependencySet dependencySet) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(0); // length placeholder
+      writeString(out, pvid.toString());
+      List<ResolvedDependency> dependencies = dependencySet.getDependencies();
+      out.writeInt(dependencies.size());
+      for (ResolvedDependency dependency : dependencies) {
+        int flags = 0;
+        if(dependency.isOptional()) {
+          flags |= OPTIONAL;
+        }
+        if(dependency.isVersionResolved()) {
+          flags |= HAS_VERSION;
+        }
+        if(dependency.hasBuild()) {
+          flags |= HAS_BUILD_NUMBER;
+        }
+        if(dependency.isReplaced()) {
+          flags |= HAS_REPLACEMENT;
+        }
+        out.writeByte(flags);
+        writeString(out, dependency.getName());
+        if(dependency.isVersionResolved()) {
+          writeString(out, dependency.getPackageVersionId().toString());
+        }
+        if(dependency.hasBuild()) {
+          out.writeLong(dependency.getBuildNumber());
+        }
+        if(dependency.isReplaced()) {
+          writeString(out, dependency.getReplacementVersion());
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    byte[] record = bytes.toByteArray();
+    ByteBuffer.wrap(record).putInt(record.length - 4);
+    return record;
+  }
+
+  private static ResolvedDependencySet readDependencySet(ByteBuffer buffer) {
+    try {
+      int count = buffer.getInt();
+      List<ResolvedDependency> dependencies = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int flags = buffer.get();
+        ResolvedDependency dependency = new ResolvedDependency(readString(buffer));
+        dependency.setOptional((flags & OPTIONAL) != 0);
+        if((flags & HAS_VERSION) != 0) {
+          dependency.setPackageVersionId(PackageVersionId.fromTriplet(readString(buffer)));
+        }
+        if((flags & HAS_BUILD_NUMBER) != 0) {
+          dependency.setBuildNumber(buffer.getLong());
+        }
+        if((flags & HAS_REPLACEMENT) != 0) {
+          dependency.setReplacementVersion(readString(buffer));
+        }
+        dependencies.add(dependency);
+      }
+      return new ResolvedDependencySet(dependencies);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalStateException("Corrupt record in dependency store", e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
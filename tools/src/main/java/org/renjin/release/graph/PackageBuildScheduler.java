@@ -0,0 +1,391 @@
+package org.renjin.release.graph;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Releases the packages in a {@link PackageGraph} for building once all of their non-optional
+ * dependencies have been built.
+ *
+ * <p>Packages can either be pulled from the ready queue with {@link #take()} and reported back with
+ * {@link #complete(PackageNode)} or {@link #fail(PackageNode, Throwable)}, or built by a pool of workers
+ * with {@link #run(int, BuildAction)}. When a package fails, every package which depends on it, directly
+ * or transitively, is skipped.</p>
+ *
+ * <p>Replaced packages are reused rather than built, and so are treated as complete from the start.
+ * Among the packages that are ready, those with the longest chain of dependents waiting on them are
+ * released first, so that the critical path starts as early as possible.</p>
+ *
+ * <p>Listeners are called after the scheduler's state has been updated, without holding its lock, so
+ * that a slow or blocking listener does not hold up the workers. Exceptions thrown by listeners are
+ * logged and otherwise ignored.</p>
+ */
+public class PackageBuildScheduler {
+
+  private static final Logger LOGGER = Logger.getLogger(PackageBuildScheduler.class.getName());
+
+  /**
+   * Builds a single package.
+   */
+  public interface BuildAction {
+    void build(PackageNode node) throws Exception;
+  }
+
+  public enum State {
+    WAITING,
+    READY,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    SKIPPED
+  }
+
+  private final Set<PackageNode> graphNodes;
+
+  private final Map<PackageNode, State> states = new HashMap<>();
+
+  /**
+   * Number of non-optional dependencies of each waiting node which have not yet completed.
+   */
+  private final Map<PackageNode, AtomicInteger> pending = new HashMap<>();
+
+  /**
+   * Length of the longest chain of dependents of each node.
+   */
+  private final Map<PackageNode, Integer> heights = new HashMap<>();
+
+  private final PriorityQueue<PackageNode> ready;
+
+  private int running = 0;
+  private int unfinished = 0;
+
+  private final List<Consumer<PackageNode>> completedListeners = new CopyOnWriteArrayList<>();
+  private final List<BiConsumer<PackageNode, Throwable>> failedListeners = new CopyOnWriteArrayList<>();
+  private final List<BiConsumer<PackageNode, PackageNode>> skippedListeners = new CopyOnWriteArrayList<>();
+
+  public PackageBuildScheduler(PackageGraph graph) {
+    this.graphNodes = new HashSet<>(graph.getNodes());
+    this.ready = new PriorityQueue<>(Math.max(1, graphNodes.size()),
+        Comparator.comparingInt((PackageNode node) -> heights.get(node)).reversed()
+            .thenComparing(node -> node.getId().toString()));
+
+    for (PackageNode node : graphNodes) {
+      height(node);
+    }
+
+    for (PackageNode node : graphNodes) {
+      if(node.isReplaced()) {
+        states.put(node, State.COMPLETED);
+      }
+    }
+
+    for (PackageNode node : graphNodes) {
+      if(states.containsKey(node)) {
+        continue;
+      }
+      int count = 0;
+      for (PackageNode dependency : dependenciesToWaitFor(node)) {
+        if(states.get(dependency) != State.COMPLETED) {
+          count++;
+        }
+      }
+      unfinished++;
+      if(count == 0) {
+        states.put(node, State.READY);
+        ready.add(node);
+      } else {
+        states.put(node, State.WAITING);
+        pending.put(node, new AtomicInteger(count));
+      }
+    }
+  }
+
+  /**
+   * Registers a callback invoked after a package has been built.
+   */
+  public PackageBuildScheduler onCompleted(Consumer<PackageNode> listener) {
+    completedListeners.add(listener);
+    return this;
+  }
+
+  /**
+   * Registers a callback invoked when a package fails to build.
+   */
+  public PackageBuildScheduler onFailed(BiConsumer<PackageNode, Throwable> listener) {
+    failedListeners.add(listener);
+    return this;
+  }
+
+  /**
+   * Registers a callback invoked when a package is skipped, with the failed package that caused it.
+   */
+  public PackageBuildScheduler onSkipped(BiConsumer<PackageNode, PackageNode> listener) {
+    skippedListeners.add(listener);
+    return this;
+  }
+
+  /**
+   * Waits until a package is ready to build, and marks it as running.
+   *
+   * @return the package, or {@code null} once no packages remain to be built.
+   */
+  public PackageNode take() throws InterruptedException {
+    List<Runnable> events = new ArrayList<>();
+    try {
+      synchronized (this) {
+        while(ready.isEmpty()) {
+          if(unfinished == 0) {
+            return null;
+          }
+          if(running == 0) {
+            // Nothing is running which could release the remaining packages
+            failCycle(events);
+            continue;
+          }
+          wait();
+        }
+        PackageNode node = ready.poll();
+        states.put(node, State.RUNNING);
+        running++;
+        return node;
+      }
+    } finally {
+      fire(events);
+    }
+  }
+
+  /**
+   * Marks a running package as built, releasing any dependents which were waiting only on it.
+   */
+  public void complete(PackageNode node) {
+    synchronized (this) {
+      finish(node, State.COMPLETED);
+
+      for (PackageNode dependent : dependentsInGraph(node)) {
+        AtomicInteger count = pending.get(dependent);
+        if(count != null && states.get(dependent) == State.WAITING && count.decrementAndGet() == 0) {
+          pending.remove(dependent);
+          states.put(dependent, State.READY);
+          ready.add(dependent);
+        }
+      }
+      notifyAll();
+    }
+
+    fire(Collections.singletonList(() -> {
+      for (Consumer<PackageNode> listener : completedListeners) {
+        listener.accept(node);
+      }
+    }));
+  }
+
+  /**
+   * Marks a running package as failed, and skips all of the packages which depend on it.
+   */
+  public void fail(PackageNode node, Throwable error) {
+    List<Runnable> events = new ArrayList<>();
+    synchronized (this) {
+      finish(node, State.FAILED);
+      events.add(() -> {
+        for (BiConsumer<PackageNode, Throwable> listener : failedListeners) {
+          listener.accept(node, error);
+        }
+      });
+      skipDependents(node, events);
+      notifyAll();
+    }
+    fire(events);
+  }
+
+  private void finish(PackageNode node, State state) {
+    if(states.get(node) != State.RUNNING) {
+      throw new IllegalStateException(node + " is not running, but " + states.get(node));
+    }
+    states.put(node, state);
+    running--;
+    unfinished--;
+  }
+
+  private void skipDependents(PackageNode failed, List<Runnable> events) {
+    ArrayDeque<PackageNode> queue = new ArrayDeque<>();
+    queue.add(failed);
+    while(!queue.isEmpty()) {
+      PackageNode node = queue.poll();
+      for (PackageNode dependent : dependentsInGraph(node)) {
+        State state = states.get(dependent);
+        if(state == State.WAITING || state == State.READY) {
+          if(state == State.READY) {
+            ready.remove(dependent);
+          }
+          pending.remove(dependent);
+          states.put(dependent, State.SKIPPED);
+          unfinished--;
+          events.add(() -> {
+            for (BiConsumer<PackageNode, PackageNode> listener : skippedListeners) {
+              listener.accept(dependent, failed);
+            }
+          });
+          queue.add(dependent);
+        }
+      }
+    }
+  }
+
+  private void failCycle(List<Runnable> events) {
+    List<PackageNode> stuck = new ArrayList<>();
+    for (Map.Entry<PackageNode, State> entry : states.entrySet()) {
+      if(entry.getValue() == State.WAITING) {
+        stuck.add(entry.getKey());
+      }
+    }
+    LOGGER.severe("Dependency cycle among " + stuck);
+    IllegalStateException error = new IllegalStateException("Dependency cycle among " + stuck);
+    for (PackageNode node : stuck) {
+      pending.remove(node);
+      states.put(node, State.FAILED);
+      unfinished--;
+      events.add(() -> {
+        for (BiConsumer<PackageNode, Throwable> listener : failedListeners) {
+          listener.accept(node, error);
+        }
+      });
+    }
+  }
+
+  /**
+   * Runs listener notifications collected while holding the lock, once it has been released.
+   */
+  private static void fire(List<Runnable> events) {
+    for (Runnable event : events) {
+      try {
+        event.run();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Build scheduler listener failed", e);
+      }
+    }
+  }
+
+  /**
+   * Builds every package in the graph using a fixed number of worker threads, and waits for them to finish.
+   */
+  public void run(int workers, BuildAction action) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    for (int i = 0; i < workers; i++) {
+      executor.execute(() -> {
+        try {
+          PackageNode node;
+          while((node = take()) != null) {
+            try {
+              action.build(node);
+            } catch (Throwable e) {
+              // Errors too, or the package would stay running and the other workers would wait for it forever
+              fail(node, e);
+              continue;
+            }
+            complete(node);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    executor.shutdown();
+    while(!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      LOGGER.info(describeProgress());
+    }
+  }
+
+  public synchronized State getState(PackageNode node) {
+    return states.get(node);
+  }
+
+  public synchronized int count(State state) {
+    int count = 0;
+    for (State s : states.values()) {
+      if(s == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public synchronized String describeProgress() {
+    return String.format("%d completed, %d running, %d ready, %d waiting, %d failed, %d skipped",
+        count(State.COMPLETED),
+        running,
+        ready.size(),
+        count(State.WAITING),
+        count(State.FAILED),
+        count(State.SKIPPED));
+  }
+
+  private Set<PackageNode> dependenciesToWaitFor(PackageNode node) {
+    Set<PackageNode> dependencies = new HashSet<>();
+    for (DependencyEdge edge : node.getDependencies()) {
+      if(!edge.isOptional() && graphNodes.contains(edge.getPackageNode()) && edge.getPackageNode() != node) {
+        dependencies.add(edge.getPackageNode());
+      }
+    }
+    return dependencies;
+  }
+
+  private List<PackageNode> dependentsInGraph(PackageNode node) {
+    List<PackageNode> dependents = new ArrayList<>();
+    for (PackageNode dependent : node.getReverseDependencies()) {
+      if(graphNodes.contains(dependent) && dependent != node) {
+        dependents.add(dependent);
+      }
+    }
+    return dependents;
+  }
+
+  /**
+   * Computes the length of the longest chain of dependents, iteratively so that long chains
+   * do not overflow the stack. Nodes on a cycle are given the height reached so far.
+   */
+  private int height(PackageNode root) {
+    Integer known = heights.get(root);
+    if(known != null) {
+      return known;
+    }
+    Set<PackageNode> onStack = new HashSet<>();
+    ArrayDeque<PackageNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while(!stack.isEmpty()) {
+      PackageNode node = stack.peek();
+      if(heights.containsKey(node)) {
+        stack.pop();
+        continue;
+      }
+      onStack.add(node);
+      boolean descended = false;
+      for (PackageNode dependent : dependentsInGraph(node)) {
+        if(!heights.containsKey(dependent) && !onStack.contains(dependent)) {
+          stack.push(dependent);
+          descended = true;
+        }
+      }
+      if(!descended) {
+        int height = 0;
+        for (PackageNode dependent : dependentsInGraph(node)) {
+          Integer h = heights.get(dependent);
+          if(h != null) {
+            height = Math.max(height, h + 1);
+          }
+        }
+        heights.put(node, height);
+        onStack.remove(node);
+        stack.pop();
+      }
+    }
+    return heights.get(root);
+  }
+}
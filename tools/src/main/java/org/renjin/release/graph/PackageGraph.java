@@ -8,16 +8,21 @@ import java.util.Collection;
 import java.util.Map;
 
 /**
- * Maintains a queue of packages to build, ensuring that dependency
- * order is maintained.
+ * The set of packages to build, with the dependencies between them.
+ *
+ * <p>Use {@link #newScheduler()} to build the packages in dependency order, and
+ * {@link #getCompactGraph()} for fast traversals.</p>
  */
 public class PackageGraph implements Serializable {
 
 
   private final Map<PackageId, PackageNode> nodes;
 
+  private final CompactPackageGraph compactGraph;
+
   public PackageGraph(Map<PackageId, PackageNode> nodes) {
     this.nodes = nodes;
+    this.compactGraph = CompactPackageGraph.of(nodes.values());
   }
 
   public Collection<PackageNode> getNodes() {
@@ -28,5 +33,20 @@ public class PackageGraph implements Serializable {
     return nodes.size();
   }
 
+  /**
+   * @return the frozen, int-indexed form of this graph, for traversals over large graphs.
+   */
+  public CompactPackageGraph getCompactGraph() {
+    return compactGraph;
+  }
+
+  /**
+   * @return a scheduler which releases each package in this graph once its non-optional dependencies
+   * have been built.
+   */
+  public PackageBuildScheduler newScheduler() {
+    return new PackageBuildScheduler(this);
+  }
+
 
 }
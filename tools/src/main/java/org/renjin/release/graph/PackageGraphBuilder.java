@@ -1,7 +1,6 @@
 package org.renjin.release.graph;
 
 import com.google.common.base.Preconditions;
-import com.google.common.util.concurrent.Futures;
 import org.renjin.release.Blocklist;
 import org.renjin.release.PackageDatabaseClient;
 import org.renjin.release.model.PackageId;
@@ -10,12 +9,11 @@ import org.renjin.release.model.ResolvedDependency;
 import org.renjin.release.model.ResolvedDependencySet;
 
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * Builds a graph of packages and their dependencies
@@ -25,20 +23,58 @@ public class PackageGraphBuilder {
   private static final Logger LOGGER = Logger.getLogger(PackageGraphBuilder.class.getName());
 
   private final ExecutorService executorService;
-  private final DependencyCache dependencyCache;
   private final ReplacedPackageProvider replacedPackages;
   private final Blocklist blocklist;
+  private final DependencyResolver resolver;
 
-  private final Map<PackageId, PackageNode> nodes = new HashMap<>();
+  private final PackageNodeRegistry nodes = new PackageNodeRegistry();
+
+  /**
+   * The number of packages whose dependencies are still being resolved, plus one
+   * which is held until {@link #build()} is called.
+   */
+  private final AtomicInteger outstanding = new AtomicInteger(1);
+
+  /**
+   * Completes once there are no more outstanding resolutions.
+   */
+  private final CompletableFuture<Void> resolved = new CompletableFuture<>();
 
   public PackageGraphBuilder(ExecutorService executorService,
-                             DependencyCache dependencyCache,
+                             DependencyStore dependencyCache,
                              ReplacedPackageProvider replacedPackages,
                              Blocklist blocklist) {
+    this(executorService, dependencyCache, replacedPackages, blocklist,
+        pvid -> PackageDatabaseClient.resolveDependenciesAsync(executorService, pvid));
+  }
+
+  /**
+   * @param executorService executor used for reading the dependency cache and expanding the graph. Graph
+   *                        expansion never blocks, so a small number of threads is sufficient.
+   * @param resolver used to resolve dependencies which are not already cached.
+   */
+  public PackageGraphBuilder(ExecutorService executorService,
+                             DependencyStore dependencyCache,
+                             ReplacedPackageProvider replacedPackages,
+                             Blocklist blocklist,
+                             DependencyResolver resolver) {
+    this(executorService, replacedPackages, blocklist,
+        new CachingDependencyResolver(executorService, dependencyCache, resolver));
+  }
+
+  /**
+   * @param executorService executor used for expanding the graph. Graph expansion never blocks, so a
+   *                        small number of threads is sufficient.
+   * @param resolver used to resolve the dependencies of each package, including any caching.
+   */
+  public PackageGraphBuilder(ExecutorService executorService,
+                             ReplacedPackageProvider replacedPackages,
+                             Blocklist blocklist,
+                             DependencyResolver resolver) {
     this.executorService = executorService;
-    this.dependencyCache = dependencyCache;
     this.replacedPackages = replacedPackages;
     this.blocklist = blocklist;
+    this.resolver = resolver;
   }
 
   public void add(String filter) throws InterruptedException {
@@ -103,140 +139,141 @@ public class PackageGraphBuilder {
   /**
    * Creates a packageNode for a specific packageVersion, and queues it for dependency resolution
    */
-  private void add(PackageVersionId packageVersionId) {
+  public void add(PackageVersionId packageVersionId) {
 
-    Preconditions.checkState(!nodes.containsKey(packageVersionId.getPackageId()),
-        "%s has already been added to the graph.", packageVersionId);
+    CompletableFuture<Set<DependencyEdge>> dependencies = new CompletableFuture<>();
+    PackageNode node = new PackageNode(packageVersionId, dependencies);
 
-    PackageNode node = new PackageNode(packageVersionId, resolveDependencies(packageVersionId));
-    nodes.put(node.getId().getPackageId(), node);
+    Preconditions.checkState(nodes.add(node), "%s has already been added to the graph.", packageVersionId);
 
+    resolveDependencies(node, dependencies);
   }
 
   private DependencyEdge getOrCreateNodeForDependency(ResolvedDependency resolvedDependency) {
-    synchronized (nodes) {
-      PackageVersionId pvid = resolvedDependency.getPackageVersionId();
-      PackageNode node = nodes.get(pvid.getPackageId());
-      if (node == null) {
-        if (resolvedDependency.isReplaced() || replacedPackages.isReplaced(pvid)) {
-          node = new PackageNode(resolvedDependency.getPackageVersionId(), Futures.immediateFuture(Collections.emptySet()));
-          node.replaced(resolvedDependency.getReplacementVersion());
-        } else {
-          node = new PackageNode(pvid, resolveDependencies(resolvedDependency));
-          node.setBlocked(blocklist.isBlocked(pvid.getPackageName()));
-        }
-        nodes.put(node.getId().getPackageId(), node);
+    PackageVersionId pvid = resolvedDependency.getPackageVersionId();
+    boolean replaced = resolvedDependency.isReplaced() || replacedPackages.isReplaced(pvid);
+    CompletableFuture<Set<DependencyEdge>> dependencies = new CompletableFuture<>();
+
+    PackageNode node = nodes.getOrCreate(pvid.getPackageId(), () -> {
+      PackageNode candidate = new PackageNode(pvid, dependencies);
+      if (replaced) {
+        candidate.replaced(resolvedDependency.getReplacementVersion());
+      } else {
+        candidate.setBlocked(blocklist.isBlocked(pvid.getPackageName()));
       }
-      return new DependencyEdge(node, resolvedDependency.isOptional());
-    }
-  }
-
-  private DependencyEdge getOrCreateMissingDependency(ResolvedDependency resolvedDependency) {
-    synchronized (nodes) {
-      PackageId packageId = new PackageId("missing", resolvedDependency.getName());
-      PackageNode node = nodes.get(packageId);
-      if(node == null) {
-        node = new PackageNode(new PackageVersionId(packageId, "0"), Futures.immediateFuture(Collections.emptySet()));
-        node.setBlocked(true);
-        nodes.put(packageId, node);
+      return candidate;
+    }, created -> {
+      if(replaced) {
+        dependencies.complete(Collections.emptySet());
+      } else {
+        resolveDependencies(created, dependencies);
       }
-      return new DependencyEdge(node, resolvedDependency.isOptional());
-    }
-  }
+    });
 
-  private Future<Set<DependencyEdge>> resolveDependencies(ResolvedDependency resolvedDependency) {
-    if(resolvedDependency.isReplaced()) {
-      return Futures.immediateFuture(Collections.emptySet());
-    } else {
-      return resolveDependencies(resolvedDependency.getPackageVersionId());
-    }
+    return new DependencyEdge(node, resolvedDependency.isOptional());
   }
 
-  private Future<Set<DependencyEdge>> resolveDependencies(PackageVersionId pvid) {
-
-    return executorService.submit(new Callable<Set<DependencyEdge>>() {
-      @Override
-      public Set<DependencyEdge> call() {
-
-        LOGGER.info("Resolving " + pvid);
+  private DependencyEdge getOrCreateMissingDependency(ResolvedDependency resolvedDependency) {
+    PackageId packageId = PackageId.of("missing", resolvedDependency.getName());
 
-        ResolvedDependencySet resolution;
+    PackageNode node = nodes.getOrCreate(packageId, () -> {
+      PackageNode candidate = new PackageNode(PackageVersionId.of(packageId, "0"),
+          CompletableFuture.completedFuture(Collections.emptySet()));
+      candidate.setBlocked(true);
+      return candidate;
+    }, created -> { });
 
-        resolution = dependencyCache.get(pvid);
-        if(resolution == null) {
-          try {
-            resolution = PackageDatabaseClient.resolveDependencies(pvid);
+    return new DependencyEdge(node, resolvedDependency.isOptional());
+  }
 
-            dependencyCache.cache(pvid, resolution);
+  /**
+   * Schedules the resolution of a package's dependencies. Once resolved, nodes for any new dependencies
+   * are created and scheduled in turn, without waiting for the rest of the graph.
+   *
+   * @param node the node whose dependencies are to be resolved
+   * @param result the future, held by {@code node}, to complete with the node's dependencies.
+   */
+  private void resolveDependencies(PackageNode node, CompletableFuture<Set<DependencyEdge>> result) {
 
-          } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, String.format("Failed to resolve dependencies of %s: %s", pvid, e.getMessage()), e);
-            throw new RuntimeException("Failed to resolve dependency of " + pvid, e);
-          }
-        }
+    PackageVersionId pvid = node.getId();
 
-        Set<DependencyEdge> dependencies = new HashSet<>();
+    outstanding.incrementAndGet();
 
-        for (ResolvedDependency resolvedDependency : resolution.getDependencies()) {
-          if (resolvedDependency.isVersionResolved()) {
-            dependencies.add(getOrCreateNodeForDependency(resolvedDependency));
+    resolver.resolve(pvid)
+        .thenApplyAsync(resolution -> createEdges(node, resolution), executorService)
+        .whenComplete((dependencies, error) -> {
+          if(error != null) {
+            LOGGER.log(Level.SEVERE, String.format("Failed to resolve dependencies of %s: %s", pvid, error.getMessage()), error);
+            result.completeExceptionally(error);
           } else {
-            dependencies.add(getOrCreateMissingDependency(resolvedDependency));
+            result.complete(dependencies);
           }
-        }
+          // Any new dependencies have been scheduled before we get here, so the count
+          // can only reach zero once the whole graph has been resolved.
+          if(outstanding.decrementAndGet() == 0) {
+            resolved.complete(null);
+          }
+        });
+  }
+
+  private Set<DependencyEdge> createEdges(PackageNode node, ResolvedDependencySet resolution) {
+    Set<DependencyEdge> dependencies = new HashSet<>();
 
-        return dependencies;
+    for (ResolvedDependency resolvedDependency : resolution.getDependencies()) {
+      DependencyEdge edge;
+      if (resolvedDependency.isVersionResolved()) {
+        edge = getOrCreateNodeForDependency(resolvedDependency);
+      } else {
+        edge = getOrCreateMissingDependency(resolvedDependency);
       }
-    });
+      if(!edge.isOptional()) {
+        edge.getPackageNode().addReverseDependency(node);
+      }
+      dependencies.add(edge);
+    }
+
+    return dependencies;
   }
 
   public PackageGraph build() {
 
-    Set<PackageNode> resolved = new HashSet<>();
-    ArrayDeque<PackageNode> queue = new ArrayDeque<>(nodes.values());
-    while(!queue.isEmpty()) {
-      PackageNode packageNode = queue.pop();
-      if(!resolved.contains(packageNode)) {
-        queue.addAll(packageNode.getDependencyNodes());
-        resolved.add(packageNode);
-      }
+    // Release the count held while packages were being added, and wait for
+    // the expansion of the graph to complete.
+    if(outstanding.decrementAndGet() == 0) {
+      resolved.complete(null);
     }
+    resolved.join();
 
-    // Add reverseDependency links
-    for (PackageNode node : nodes.values()) {
-      for (DependencyEdge edge : node.getDependencies()) {
-        if(!edge.isOptional()) {
-          edge.getPackageNode().addReverseDependency(node);
-        }
+    for (PackageNode node : nodes.getNodes()) {
+      if(node.isFailed()) {
+        throw new RuntimeException("Failed to resolve dependencies of " + node.getId());
       }
     }
 
-    // Propagate blocked flag
-    List<PackageNode> blockList = nodes.values()
-      .stream()
-      .filter(n -> n.isBlocked())
-      .collect(Collectors.toList());
-
-    for (PackageNode node : blockList) {
-      if(node.isBlocked()) {
-        propagateBlockedStatus(node.getId().getPackageName(), node);
+    // Propagate blocked flag to everything which depends on a blocked package
+    CompactPackageGraph unfiltered = CompactPackageGraph.of(nodes.getNodes());
+    BitSet blockedRoots = new BitSet(unfiltered.size());
+    for (int i = 0; i < unfiltered.size(); i++) {
+      if(nodes.get(unfiltered.getPackageId(i)).isBlocked()) {
+        blockedRoots.set(i);
+      }
+    }
+    BlockedStatusPropagation propagation = BlockedStatusPropagation.propagate(unfiltered, blockedRoots);
+    BitSet newlyBlocked = propagation.getNewlyBlocked();
+    for (int i = newlyBlocked.nextSetBit(0); i >= 0; i = newlyBlocked.nextSetBit(i + 1)) {
+      nodes.get(unfiltered.getPackageId(i)).setBlocked(true);
+      if(LOGGER.isLoggable(Level.FINE)) {
+        LOGGER.fine("Blocking " + unfiltered.getId(i).getPackageName() + " because of (transitive) dependency on " +
+            unfiltered.getId(propagation.getCause(i)).getPackageName());
       }
     }
+    LOGGER.info(String.format("Blocked %d packages, and %d which depend on them",
+        blockedRoots.cardinality(), newlyBlocked.cardinality()));
 
     // Remove blocked nodes from the graph
-    nodes.values().removeIf(PackageNode::isBlocked);
+    nodes.getNodes().removeIf(PackageNode::isBlocked);
 
-    return new PackageGraph(nodes);
-  }
-
-  private void propagateBlockedStatus(String packageName, PackageNode node) {
-    for (PackageNode reverseDependency : node.getReverseDependencies()) {
-      if(!reverseDependency.isBlocked()) {
-        System.out.println("Blocking " + reverseDependency.getId().getPackageName() + " because of (transitive) dependency on " + packageName);
-        reverseDependency.setBlocked(true);
-        propagateBlockedStatus(node.getId().getPackageName(), reverseDependency);
-      }
-    }
+    return new PackageGraph(nodes.asMap());
   }
 
 }
@@ -5,10 +5,9 @@ import org.renjin.release.model.PackageVersionId;
 
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 
@@ -20,9 +19,9 @@ public class PackageNode implements Serializable {
    * Dependencies of this node that are to be built during
    * this workflow.
    */
-  private Future<Set<DependencyEdge>> dependencies;
+  private final CompletableFuture<Set<DependencyEdge>> dependencies;
 
-  private final Set<PackageNode> reverseDependencies = new HashSet<>();
+  private final Set<PackageNode> reverseDependencies = ConcurrentHashMap.newKeySet();
 
   /**
    * true if we are reusing an existing build.
@@ -31,10 +30,10 @@ public class PackageNode implements Serializable {
 
   private String replacedVersion;
 
-  private boolean blocked;
+  private volatile boolean blocked;
 
 
-  public PackageNode(PackageVersionId packageVersionId, Future<Set<DependencyEdge>> dependencies) {
+  public PackageNode(PackageVersionId packageVersionId, CompletableFuture<Set<DependencyEdge>> dependencies) {
     this.packageVersionId = packageVersionId;
     this.dependencies = dependencies;
   }
@@ -65,11 +64,14 @@ public class PackageNode implements Serializable {
   }
 
   public Set<DependencyEdge> getDependencies() {
-    try {
-      return dependencies.get();
-    } catch (InterruptedException | ExecutionException e) {
-      throw new RuntimeException(e);
-    }
+    return dependencies.join();
+  }
+
+  /**
+   * @return true if this node's dependencies could not be resolved.
+   */
+  public boolean isFailed() {
+    return dependencies.isCompletedExceptionally();
   }
 
   public Set<PackageNode> getReverseDependencies() {
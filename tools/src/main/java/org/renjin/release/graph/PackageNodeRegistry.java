@@ -0,0 +1,74 @@
+package org.renjin.release.graph;
+
+import org.renjin.release.model.PackageId;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe registry of the nodes in a package graph, keyed by {@link PackageId}.
+ *
+ * <p>Resolver threads mostly touch different packages, so rather than serializing on a
+ * single monitor, lookups and insertions go through a {@link ConcurrentHashMap}.</p>
+ */
+public class PackageNodeRegistry {
+
+  private final ConcurrentHashMap<PackageId, PackageNode> nodes = new ConcurrentHashMap<>();
+
+  public PackageNode get(PackageId packageId) {
+    return nodes.get(packageId);
+  }
+
+  /**
+   * Returns the node registered for {@code packageId}, creating it if necessary.
+   *
+   * <p>If several threads race to create the same node, each may call {@code factory}, but only one
+   * candidate is registered, and {@code onCreated} is called exactly once, with the winning node. The
+   * factory must therefore be free of side effects: any work, such as scheduling dependency resolution,
+   * belongs in {@code onCreated}.</p>
+   */
+  public PackageNode getOrCreate(PackageId packageId, Supplier<PackageNode> factory, Consumer<PackageNode> onCreated) {
+    PackageNode node = nodes.get(packageId);
+    if(node != null) {
+      return node;
+    }
+    PackageNode candidate = factory.get();
+    node = nodes.putIfAbsent(packageId, candidate);
+    if(node != null) {
+      return node;
+    }
+    onCreated.accept(candidate);
+    return candidate;
+  }
+
+  /**
+   * Registers a new node.
+   *
+   * @return false if a node was already registered for the same package.
+   */
+  public boolean add(PackageNode node) {
+    return nodes.putIfAbsent(node.getId().getPackageId(), node) == null;
+  }
+
+  public boolean contains(PackageId packageId) {
+    return nodes.containsKey(packageId);
+  }
+
+  public Collection<PackageNode> getNodes() {
+    return nodes.values();
+  }
+
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * @return a live view of the registry as a map.
+   */
+  public Map<PackageId, PackageNode> asMap() {
+    return nodes;
+  }
+}
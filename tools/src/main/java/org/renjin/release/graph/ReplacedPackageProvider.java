@@ -3,15 +3,22 @@ package org.renjin.release.graph;
 import org.renjin.release.model.PackageVersionId;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class ReplacedPackageProvider {
 
     private Set<String> replaced = new HashSet<>();
 
     public ReplacedPackageProvider(File rootDir) {
-        for (File dir : rootDir.listFiles()) {
+        File[] dirs = rootDir.listFiles();
+        if(dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
             if(dir.isDirectory()) {
                 File buildScript = new File(dir, "build.gradle");
                 if(buildScript.exists()) {
@@ -27,8 +34,22 @@ public class ReplacedPackageProvider {
   }
 
   public void appendIncludeBuilds(StringBuilder settingFile) {
-    for (String packageName : replaced) {
+    appendIncludeBuilds(settingFile, replaced);
+  }
+
+  /**
+   * Includes the replacement builds of only the given packages, each of which must be replaced.
+   */
+  public void appendIncludeBuilds(StringBuilder settingFile, Collection<String> packageNames) {
+    for (String packageName : new TreeSet<>(packageNames)) {
+      if(!replaced.contains(packageName)) {
+        throw new IllegalArgumentException(packageName + " has no replacement build");
+      }
       settingFile.append("includeBuild '../replacements/").append(packageName).append("'\n");
     }
   }
+
+  public Set<String> getReplacedPackageNames() {
+    return Collections.unmodifiableSet(replaced);
+  }
 }
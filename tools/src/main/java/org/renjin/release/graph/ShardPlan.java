@@ -0,0 +1,239 @@
+package org.renjin.release.graph;
+
+import java.util.*;
+
+/**
+ * Assignment of the packages in a {@link CompactPackageGraph} to build shards, so that a build can be
+ * spread over several machines.
+ *
+ * <p>Shard 0 is the <em>core</em>: the packages that many others depend on, together with their
+ * dependencies. It is built first. The remaining packages fall into groups that are connected only through
+ * the core, and these groups are packed into all of the shards, balancing their estimated cost. Shards 1 to
+ * N-1 depend only on artifacts from the core, never on each other, so they can all be built at the same time
+ * once the core has been published, while shard 0 goes on to build its own groups. Packages are moved into
+ * the core, most depended-upon first, until no group is larger than a fair share of a shard.</p>
+ *
+ * <p>Suggested packages are not needed to build, and may be in any shard.</p>
+ */
+public class ShardPlan {
+
+  /**
+   * How much more than an equal share of the cost a shard may take on.
+   */
+  private static final double IMBALANCE = 0.10;
+
+  private final CompactPackageGraph graph;
+  private final int shardCount;
+  private final int[] shardOf;
+  private final long[] load;
+
+  private ShardPlan(CompactPackageGraph graph, int shardCount, int[] shardOf, long[] load) {
+    this.graph = graph;
+    this.shardCount = shardCount;
+    this.shardOf = shardOf;
+    this.load = load;
+  }
+
+  /**
+   * @param cost the estimated build cost of each package, indexed like the graph. Replaced packages are
+   *             not built, and are not assigned to any shard.
+   * @param shardCount the number of shards, at least one. Shard 0 builds the core.
+   */
+  public static ShardPlan partition(CompactPackageGraph graph, long[] cost, int shardCount) {
+    if(shardCount < 1) {
+      throw new IllegalArgumentException("Expected at least one shard, found " + shardCount);
+    }
+    int size = graph.size();
+    int[] shardOf = new int[size];
+    long[] load = new long[shardCount];
+
+    BitSet built = new BitSet(size);
+    long total = 0;
+    for (int i = 0; i < size; i++) {
+      if(!graph.isReplaced(i)) {
+        built.set(i);
+        total += cost[i];
+      }
+    }
+
+    BitSet core = new BitSet(size);
+    if(shardCount == 1) {
+      core.or(built);
+    } else {
+      // Candidates for the core, most depended-upon first
+      Integer[] candidates = new Integer[size];
+      int[] dependentCounts = new int[size];
+      for (int i = 0; i < size; i++) {
+        candidates[i] = i;
+        dependentCounts[i] = graph.dependentClosure(i, false).cardinality();
+      }
+      Arrays.sort(candidates, Comparator.comparingInt((Integer i) -> dependentCounts[i]).reversed());
+
+      int next = 0;
+      while(true) {
+        long coreCost = cost(core, cost);
+        long target = (long) ((total - coreCost) / (double) shardCount * (1 + IMBALANCE));
+        if(largestComponent(graph, built, core, cost) <= target || next >= candidates.length) {
+          break;
+        }
+        // Add candidates in batches, so that large graphs need few passes
+        int batch = Math.max(1, (candidates.length - next) / 50);
+        for (int i = 0; i < batch && next < candidates.length; i++, next++) {
+          if(built.get(candidates[next]) && dependentCounts[candidates[next]] > 1) {
+            BitSet closure = new BitSet(size);
+            closure.set(candidates[next]);
+            core.or(graph.dependencyClosure(closure, false));
+          }
+        }
+        core.and(built);
+      }
+    }
+
+    Arrays.fill(shardOf, -1);
+    for (int i = core.nextSetBit(0); i >= 0; i = core.nextSetBit(i + 1)) {
+      shardOf[i] = 0;
+    }
+
+    // Pack the remaining groups, largest first into the shard with the least work after the core.
+    // Every shard starts on its groups once the core is built, so the core does not count here.
+    List<BitSet> components = components(graph, built, core);
+    components.sort(Comparator.comparingLong((BitSet c) -> cost(c, cost)).reversed());
+    for (BitSet component : components) {
+      int shard = 0;
+      for (int s = 1; s < shardCount; s++) {
+        if(load[s] < load[shard]) {
+          shard = s;
+        }
+      }
+      for (int i = component.nextSetBit(0); i >= 0; i = component.nextSetBit(i + 1)) {
+        shardOf[i] = shard;
+      }
+      load[shard] += cost(component, cost);
+    }
+    load[0] += cost(core, cost);
+
+    return new ShardPlan(graph, shardCount, shardOf, load);
+  }
+
+  private static long cost(BitSet nodes, long[] cost) {
+    long total = 0;
+    for (int i = nodes.nextSetBit(0); i >= 0; i = nodes.nextSetBit(i + 1)) {
+      total += cost[i];
+    }
+    return total;
+  }
+
+  private static long largestComponent(CompactPackageGraph graph, BitSet built, BitSet core, long[] cost) {
+    long largest = 0;
+    for (BitSet component : components(graph, built, core)) {
+      largest = Math.max(largest, cost(component, cost));
+    }
+    return largest;
+  }
+
+  /**
+   * Finds the groups of built packages outside the core which are connected by non-optional dependencies.
+   */
+  private static List<BitSet> components(CompactPackageGraph graph, BitSet built, BitSet core) {
+    BitSet remaining = (BitSet) built.clone();
+    remaining.andNot(core);
+
+    List<BitSet> components = new ArrayList<>();
+    int[] stack = new int[graph.size()];
+    for (int start = remaining.nextSetBit(0); start >= 0; start = remaining.nextSetBit(start + 1)) {
+      BitSet component = new BitSet(graph.size());
+      int top = 0;
+      stack[top++] = start;
+      remaining.clear(start);
+      component.set(start);
+      while(top > 0) {
+        int node = stack[--top];
+        for (int i = 0; i < graph.getDependencyCount(node); i++) {
+          int neighbour = graph.getDependency(node, i);
+          if(!graph.isDependencyOptional(node, i) && remaining.get(neighbour)) {
+            remaining.clear(neighbour);
+            component.set(neighbour);
+            stack[top++] = neighbour;
+          }
+        }
+        for (int i = 0; i < graph.getDependentCount(node); i++) {
+          int neighbour = graph.getDependent(node, i);
+          if(!graph.isDependentOptional(node, i) && remaining.get(neighbour)) {
+            remaining.clear(neighbour);
+            component.set(neighbour);
+            stack[top++] = neighbour;
+          }
+        }
+      }
+      components.add(component);
+    }
+    return components;
+  }
+
+  public CompactPackageGraph getGraph() {
+    return graph;
+  }
+
+  public int getShardCount() {
+    return shardCount;
+  }
+
+  /**
+   * @return the shard of the package, or -1 if it is replaced and not built.
+   */
+  public int getShard(int node) {
+    return shardOf[node];
+  }
+
+  public long getLoad(int shard) {
+    return load[shard];
+  }
+
+  public List<Integer> getPackages(int shard) {
+    List<Integer> packages = new ArrayList<>();
+    for (int i = 0; i < shardOf.length; i++) {
+      if(shardOf[i] == shard) {
+        packages.add(i);
+      }
+    }
+    return packages;
+  }
+
+  /**
+   * @return the packages built by other shards which packages in this shard depend on.
+   */
+  public BitSet getUpstream(int shard, boolean optional) {
+    BitSet upstream = new BitSet(graph.size());
+    for (int node = 0; node < shardOf.length; node++) {
+      if(shardOf[node] == shard) {
+        for (int i = 0; i < graph.getDependencyCount(node); i++) {
+          int dependency = graph.getDependency(node, i);
+          if(graph.isDependencyOptional(node, i) == optional &&
+              shardOf[dependency] != -1 && shardOf[dependency] != shard) {
+            upstream.set(dependency);
+          }
+        }
+      }
+    }
+    return upstream;
+  }
+
+  /**
+   * @return the number of non-optional and optional dependencies between packages in different shards.
+   */
+  public int[] countCrossShardEdges() {
+    int[] counts = new int[2];
+    for (int node = 0; node < shardOf.length; node++) {
+      if(shardOf[node] == -1) {
+        continue;
+      }
+      for (int i = 0; i < graph.getDependencyCount(node); i++) {
+        int dependency = graph.getDependency(node, i);
+        if(shardOf[dependency] != -1 && shardOf[dependency] != shardOf[node]) {
+          counts[graph.isDependencyOptional(node, i) ? 1 : 0]++;
+        }
+      }
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,84 @@
+package org.renjin.release.graph;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Task durations recorded by {@code packages/gradle/report.gradle} in {@code .gradle/task-timings.json}.
+ *
+ * <p>The file maps each Gradle project path, such as {@code :cran:MASS}, to the duration in
+ * milliseconds of each of its tasks the last time that task ran.</p>
+ */
+public class TaskTimings {
+
+  public static final String FILE_NAME = ".gradle/task-timings.json";
+
+  private final Map<String, Long> projectDurations = new HashMap<>();
+
+  private final long defaultDuration;
+
+  public TaskTimings(Map<String, Long> projectDurations) {
+    this.projectDurations.putAll(projectDurations);
+    this.defaultDuration = median(projectDurations.values());
+  }
+
+  public static TaskTimings read(File packageRootDir) throws IOException {
+    File file = new File(packageRootDir, FILE_NAME);
+    Map<String, Long> durations = new HashMap<>();
+    if(file.exists()) {
+      JsonNode root = new ObjectMapper().readTree(file);
+      Iterator<Map.Entry<String, JsonNode>> projects = root.fields();
+      while(projects.hasNext()) {
+        Map.Entry<String, JsonNode> project = projects.next();
+        long total = 0;
+        Iterator<JsonNode> tasks = project.getValue().elements();
+        while(tasks.hasNext()) {
+          total += tasks.next().asLong();
+        }
+        durations.put(project.getKey(), total);
+      }
+    }
+    return new TaskTimings(durations);
+  }
+
+  public static String projectPath(PackageNode node) {
+    return ":cran:" + node.getId().getPackageName();
+  }
+
+  public boolean hasTiming(PackageNode node) {
+    return projectDurations.containsKey(projectPath(node));
+  }
+
+  /**
+   * @return the total duration of the package's tasks, in milliseconds. Replaced packages are not built and take
+   * no time; packages which have never been timed are assumed to take the median time.
+   */
+  public long getDuration(PackageNode node) {
+    if(node.isReplaced()) {
+      return 0;
+    }
+    Long duration = projectDurations.get(projectPath(node));
+    return duration == null ? defaultDuration : duration;
+  }
+
+  public long getDefaultDuration() {
+    return defaultDuration;
+  }
+
+  public int size() {
+    return projectDurations.size();
+  }
+
+  private static long median(Collection<Long> values) {
+    if(values.isEmpty()) {
+      return 0;
+    }
+    List<Long> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return sorted.get(sorted.size() / 2);
+  }
+}
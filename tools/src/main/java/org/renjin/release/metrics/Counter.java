@@ -0,0 +1,32 @@
+package org.renjin.release.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count which only goes up.
+ */
+public class Counter extends Metric {
+
+  private final LongAdder count = new LongAdder();
+
+  Counter(String name, String help, String[] labels) {
+    super(name, help, labels);
+  }
+
+  public void increment() {
+    count.increment();
+  }
+
+  public void add(long amount) {
+    count.add(amount);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  @Override
+  String getType() {
+    return "counter";
+  }
+}
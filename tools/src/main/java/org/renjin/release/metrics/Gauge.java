@@ -0,0 +1,26 @@
+package org.renjin.release.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value which is read when the metrics are written, such as the hit count of a cache which
+ * keeps its own statistics.
+ */
+public class Gauge extends Metric {
+
+  private final DoubleSupplier value;
+
+  Gauge(String name, String help, String[] labels, DoubleSupplier value) {
+    super(name, help, labels);
+    this.value = value;
+  }
+
+  public double getValue() {
+    return value.getAsDouble();
+  }
+
+  @Override
+  String getType() {
+    return "gauge";
+  }
+}
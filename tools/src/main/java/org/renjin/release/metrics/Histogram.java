@@ -0,0 +1,109 @@
+package org.renjin.release.metrics;
+
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of observed values, counted in fixed buckets as in Prometheus. Recording a value
+ * does not lock or allocate.
+ */
+public class Histogram extends Metric {
+
+  /**
+   * Bucket bounds for durations in seconds, from a millisecond to a quarter of an hour.
+   */
+  public static final double[] SECONDS = {
+      0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000
+  };
+
+  /**
+   * Bucket bounds for small counts, such as queue lengths.
+   */
+  public static final double[] COUNTS = {
+      0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+  };
+
+  private final double[] bounds;
+  private final LongAdder[] buckets;
+  private final LongAdder count = new LongAdder();
+  private final DoubleAdder sum = new DoubleAdder();
+  private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+  Histogram(String name, String help, String[] labels, double[] bounds) {
+    super(name, help, labels);
+    this.bounds = bounds;
+    this.buckets = new LongAdder[bounds.length + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(double value) {
+    int bucket = 0;
+    while(bucket < bounds.length && value > bounds[bucket]) {
+      bucket++;
+    }
+    buckets[bucket].increment();
+    count.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  @Override
+  String getType() {
+    return "histogram";
+  }
+
+  public double[] getBounds() {
+    return bounds;
+  }
+
+  /**
+   * @return the number of values recorded in each bucket, the last being for values above all of the bounds.
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[buckets.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public double getSum() {
+    return sum.sum();
+  }
+
+  public double getMax() {
+    return count.sum() == 0 ? 0 : max.get();
+  }
+
+  /**
+   * Estimates a quantile by interpolating within the bucket which contains it.
+   */
+  public double getQuantile(double q) {
+    long[] counts = getBucketCounts();
+    long total = 0;
+    for (long c : counts) {
+      total += c;
+    }
+    if(total == 0) {
+      return 0;
+    }
+    double rank = q * total;
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if(cumulative + counts[i] >= rank && counts[i] > 0) {
+        double lower = i == 0 ? 0 : bounds[i - 1];
+        double upper = i < bounds.length ? bounds[i] : getMax();
+        return Math.min(getMax(), lower + (upper - lower) * (rank - cumulative) / counts[i]);
+      }
+      cumulative += counts[i];
+    }
+    return getMax();
+  }
+}
@@ -0,0 +1,40 @@
+package org.renjin.release.metrics;
+
+/**
+ * A named metric, with optional labels given as alternating names and values.
+ */
+public abstract class Metric {
+
+  private final String name;
+  private final String help;
+  private final String[] labels;
+
+  Metric(String name, String help, String[] labels) {
+    if(labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be given as name/value pairs: " + String.join(",", labels));
+    }
+    this.name = name;
+    this.help = help;
+    this.labels = labels;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getHelp() {
+    return help;
+  }
+
+  /**
+   * @return the label names and values, alternating.
+   */
+  public String[] getLabels() {
+    return labels;
+  }
+
+  /**
+   * @return the Prometheus metric type.
+   */
+  abstract String getType();
+}
@@ -0,0 +1,236 @@
+package org.renjin.release.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Registry of the counters, timers and histograms kept by the release tools during a run, which is
+ * written at the end of the run as JSON and in the Prometheus text format.
+ *
+ * <p>Metrics are identified by their name and labels, and are created on first use, so that call sites
+ * can simply write {@code Metrics.counter("name", "help", "label", value).increment()}. Names follow the
+ * Prometheus conventions: durations are in seconds and sizes in bytes.</p>
+ */
+public class Metrics {
+
+  private static final ConcurrentMap<String, Metric> METRICS = new ConcurrentHashMap<>();
+
+  private static ScheduledExecutorService sampler;
+
+  private Metrics() {
+  }
+
+  public static Counter counter(String name, String help, String... labels) {
+    return get(name, labels, Counter.class, key -> new Counter(name, help, labels));
+  }
+
+  public static Timer timer(String name, String help, String... labels) {
+    return get(name, labels, Timer.class, key -> new Timer(name, help, labels));
+  }
+
+  public static Histogram histogram(String name, String help, double[] bounds, String... labels) {
+    return get(name, labels, Histogram.class, key -> new Histogram(name, help, labels, bounds));
+  }
+
+  /**
+   * Registers a gauge, replacing any existing gauge with the same name and labels.
+   */
+  public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+    METRICS.put(key(name, labels), new Gauge(name, help, labels, value));
+  }
+
+  private static <T extends Metric> T get(String name, String[] labels, Class<T> type, Function<String, Metric> factory) {
+    Metric metric = METRICS.computeIfAbsent(key(name, labels), factory);
+    if(!type.isInstance(metric)) {
+      throw new IllegalStateException(name + " is already registered as a " + metric.getType());
+    }
+    return type.cast(metric);
+  }
+
+  private static String key(String name, String[] labels) {
+    StringBuilder key = new StringBuilder(name);
+    for (String label : labels) {
+      key.append('\0').append(label);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Samples the queue length and number of busy threads of an executor four times a second,
+   * so that the thread count can be tuned against the actual backlog.
+   */
+  public static void monitor(String executorName, ExecutorService executorService) {
+    if(!(executorService instanceof ThreadPoolExecutor)) {
+      return;
+    }
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) executorService;
+    Histogram queued = histogram("renjin_executor_queued_tasks", "Tasks waiting in the executor's queue, sampled",
+        Histogram.COUNTS, "executor", executorName);
+    Histogram active = histogram("renjin_executor_active_threads", "Threads running a task, sampled",
+        Histogram.COUNTS, "executor", executorName);
+    gauge("renjin_executor_completed_tasks", "Tasks completed by the executor",
+        executor::getCompletedTaskCount, "executor", executorName);
+
+    synchronized (Metrics.class) {
+      if(sampler == null) {
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "metrics-sampler");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+    }
+    ScheduledFuture<?>[] sampling = new ScheduledFuture<?>[1];
+    sampling[0] = sampler.scheduleAtFixedRate(() -> {
+      if(executor.isTerminated()) {
+        sampling[0].cancel(false);
+      } else {
+        queued.record(executor.getQueue().size());
+        active.record(executor.getActiveCount());
+      }
+    }, 0, 250, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the registered metrics, ordered by name and then labels.
+   */
+  public static List<Metric> getMetrics() {
+    TreeMap<String, Metric> sorted = new TreeMap<>(METRICS);
+    return new ArrayList<>(sorted.values());
+  }
+
+  /**
+   * Writes {@code <run>.json} and {@code <run>.prom} to the directory given by the {@code renjin.metrics.dir}
+   * system property, or else to {@code defaultDir}.
+   */
+  public static void writeReport(File defaultDir, String run) throws IOException {
+    File dir = new File(System.getProperty("renjin.metrics.dir", defaultDir.getPath()));
+    if(!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create " + dir.getAbsolutePath());
+    }
+    File jsonFile = new File(dir, run + ".json");
+    File prometheusFile = new File(dir, run + ".prom");
+
+    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(jsonFile, toJson(run));
+    Files.write(toPrometheus(), prometheusFile, Charsets.UTF_8);
+
+    System.out.println("Metrics written to " + jsonFile.getAbsolutePath() + " and " + prometheusFile.getName());
+  }
+
+  public static ObjectNode toJson(String run) {
+    ObjectMapper objectMapper = new ObjectMapper();
+    ObjectNode root = objectMapper.createObjectNode();
+    root.put("run", run);
+    root.put("timestamp", System.currentTimeMillis());
+    ArrayNode array = root.putArray("metrics");
+    for (Metric metric : getMetrics()) {
+      ObjectNode node = array.addObject();
+      node.put("name", metric.getName());
+      node.put("type", metric.getType());
+      if(metric.getLabels().length > 0) {
+        ObjectNode labels = node.putObject("labels");
+        for (int i = 0; i < metric.getLabels().length; i += 2) {
+          labels.put(metric.getLabels()[i], metric.getLabels()[i + 1]);
+        }
+      }
+      if(metric instanceof Counter) {
+        node.put("count", ((Counter) metric).getCount());
+      } else if(metric instanceof Gauge) {
+        node.put("value", ((Gauge) metric).getValue());
+      } else if(metric instanceof Histogram) {
+        Histogram histogram = (Histogram) metric;
+        node.put("count", histogram.getCount());
+        node.put("sum", histogram.getSum());
+        node.put("mean", histogram.getCount() == 0 ? 0 : histogram.getSum() / histogram.getCount());
+        node.put("p50", histogram.getQuantile(0.5));
+        node.put("p90", histogram.getQuantile(0.9));
+        node.put("p99", histogram.getQuantile(0.99));
+        node.put("max", histogram.getMax());
+      }
+      if(metric instanceof Timer) {
+        ArrayNode slowest = node.putArray("slowest");
+        for (Timer.Sample sample : ((Timer) metric).getSlowest()) {
+          slowest.addObject()
+              .put("subject", sample.getSubject())
+              .put("millis", sample.getMillis());
+        }
+      }
+    }
+    return root;
+  }
+
+  /**
+   * @return the metrics in the Prometheus text exposition format.
+   */
+  public static String toPrometheus() {
+    StringBuilder out = new StringBuilder();
+    String lastName = null;
+    for (Metric metric : getMetrics()) {
+      if(!metric.getName().equals(lastName)) {
+        out.append("# HELP ").append(metric.getName()).append(' ').append(metric.getHelp()).append('\n');
+        out.append("# TYPE ").append(metric.getName()).append(' ').append(metric.getType()).append('\n');
+        lastName = metric.getName();
+      }
+      if(metric instanceof Counter) {
+        sample(out, metric.getName(), metric.getLabels(), null, ((Counter) metric).getCount());
+      } else if(metric instanceof Gauge) {
+        sample(out, metric.getName(), metric.getLabels(), null, ((Gauge) metric).getValue());
+      } else if(metric instanceof Histogram) {
+        Histogram histogram = (Histogram) metric;
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+          cumulative += counts[i];
+          String bound = i < histogram.getBounds().length ? formatNumber(histogram.getBounds()[i]) : "+Inf";
+          sample(out, metric.getName() + "_bucket", metric.getLabels(), bound, cumulative);
+        }
+        sample(out, metric.getName() + "_sum", metric.getLabels(), null, histogram.getSum());
+        sample(out, metric.getName() + "_count", metric.getLabels(), null, histogram.getCount());
+      }
+    }
+    return out.toString();
+  }
+
+  private static void sample(StringBuilder out, String name, String[] labels, String le, double value) {
+    out.append(name);
+    if(labels.length > 0 || le != null) {
+      out.append('{');
+      for (int i = 0; i < labels.length; i += 2) {
+        if(i > 0) {
+          out.append(',');
+        }
+        out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+      }
+      if(le != null) {
+        if(labels.length > 0) {
+          out.append(',');
+        }
+        out.append("le=\"").append(le).append('"');
+      }
+      out.append('}');
+    }
+    out.append(' ').append(formatNumber(value)).append('\n');
+  }
+
+  private static String formatNumber(double value) {
+    if(value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
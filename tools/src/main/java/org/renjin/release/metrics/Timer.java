@@ -0,0 +1,83 @@
+package org.renjin.release.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A histogram of durations in seconds, which also remembers the slowest few subjects, such as
+ * packages, that were timed.
+ */
+public class Timer extends Histogram {
+
+  private static final int SLOWEST_COUNT = 20;
+
+  /**
+   * The slowest subjects, fastest first.
+   */
+  private final PriorityQueue<Sample> slowest = new PriorityQueue<>(Comparator.comparingLong(Sample::getNanos));
+
+  Timer(String name, String help, String[] labels) {
+    super(name, help, labels, SECONDS);
+  }
+
+  public void recordNanos(long nanos) {
+    record(nanos / 1e9);
+  }
+
+  /**
+   * Records the time elapsed since {@code startNanos}, a value of {@link System#nanoTime()}.
+   */
+  public void recordSince(long startNanos) {
+    recordNanos(System.nanoTime() - startNanos);
+  }
+
+  public void recordSince(long startNanos, String subject) {
+    long nanos = System.nanoTime() - startNanos;
+    recordNanos(nanos);
+    synchronized (slowest) {
+      if(slowest.size() < SLOWEST_COUNT) {
+        slowest.add(new Sample(subject, nanos));
+      } else if(slowest.peek().getNanos() < nanos) {
+        slowest.poll();
+        slowest.add(new Sample(subject, nanos));
+      }
+    }
+  }
+
+  /**
+   * @return the slowest subjects, slowest first.
+   */
+  public List<Sample> getSlowest() {
+    List<Sample> samples;
+    synchronized (slowest) {
+      samples = new ArrayList<>(slowest);
+    }
+    samples.sort(Comparator.comparingLong(Sample::getNanos).reversed());
+    return samples;
+  }
+
+  public static class Sample {
+    private final String subject;
+    private final long nanos;
+
+    Sample(String subject, long nanos) {
+      this.subject = subject;
+      this.nanos = nanos;
+    }
+
+    public String getSubject() {
+      return subject;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public long getMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package org.renjin.release.model;
+
+import com.google.common.base.Charsets;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Parses files in the Debian Control File (DCF) format used by R for {@code DESCRIPTION} files and
+ * for repository indexes such as CRAN's {@code PACKAGES}.
+ *
+ * <p>Each record is a sequence of {@code Key: value} fields. A value continues on following lines which
+ * start with whitespace, and the lines are joined with a single space. In indexes with several records, such as
+ * {@code PACKAGES}, records are separated by one or more blank lines. A {@code DESCRIPTION} file holds a single
+ * record, so blank lines within it are skipped, as R does.</p>
+ *
+ * <p>The parser reads characters directly from a buffer in a single pass, without splitting the input
+ * into lines, and allocates only the key and value of each field.</p>
+ */
+public class DcfParser {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader reader;
+  private final char[] buffer;
+  private int position;
+  private int limit;
+
+  /**
+   * Whether blank lines are skipped rather than ending the record, when reading a single record.
+   */
+  private final boolean singleRecord;
+
+  /**
+   * The value of the field being read, reused across fields.
+   */
+  private final StringBuilder value = new StringBuilder();
+
+  private DcfParser(Reader reader, char[] buffer, int limit, boolean singleRecord) {
+    this.reader = reader;
+    this.buffer = buffer;
+    this.limit = limit;
+    this.singleRecord = singleRecord;
+  }
+
+  /**
+   * Parses the given contents as a single record, such as a {@code DESCRIPTION} file, skipping any blank lines.
+   */
+  public static PackageDescription parse(CharSequence contents) {
+    return parse(contents.toString().toCharArray());
+  }
+
+  public static PackageDescription parse(char[] contents) {
+    return parse(contents, contents.length);
+  }
+
+  private static PackageDescription parse(char[] contents, int length) {
+    try {
+      PackageDescription description = new DcfParser(null, contents, length, true).nextRecord();
+      return description == null ? new PackageDescription() : description;
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Parses the given bytes, which are decoded as UTF-8, as a single record.
+   */
+  public static PackageDescription parse(byte[] contents) {
+    CharBuffer chars = Charsets.UTF_8.decode(ByteBuffer.wrap(contents));
+    return parse(chars.array(), chars.limit());
+  }
+
+  public static PackageDescription parse(Reader reader) throws IOException {
+    PackageDescription description = new DcfParser(reader, new char[BUFFER_SIZE], 0, true).nextRecord();
+    return description == null ? new PackageDescription() : description;
+  }
+
+  /**
+   * Reads each record from the reader in turn, without holding more than one in memory.
+   */
+  public static void forEachRecord(Reader reader, Consumer<PackageDescription> action) throws IOException {
+    DcfParser parser = new DcfParser(reader, new char[BUFFER_SIZE], 0, false);
+    PackageDescription description;
+    while((description = parser.nextRecord()) != null) {
+      action.accept(description);
+    }
+  }
+
+  public static void forEachRecord(InputStream in, Consumer<PackageDescription> action) throws IOException {
+    forEachRecord(new InputStreamReader(in, Charsets.UTF_8), action);
+  }
+
+  public static List<PackageDescription> parseAll(Reader reader) throws IOException {
+    List<PackageDescription> records = new ArrayList<>();
+    forEachRecord(reader, records::add);
+    return records;
+  }
+
+  /**
+   * @return the next character without consuming it, or -1 at the end of the input.
+   */
+  private int peek() throws IOException {
+    if(position == limit) {
+      if(reader == null) {
+        return -1;
+      }
+      int read = reader.read(buffer, 0, buffer.length);
+      if(read <= 0) {
+        return -1;
+      }
+      position = 0;
+      limit = read;
+    }
+    return buffer[position];
+  }
+
+  private static boolean isBlank(int c) {
+    return c == ' ' || c == '\t';
+  }
+
+  private static boolean isLineEnd(int c) {
+    return c == '\n' || c == '\r';
+  }
+
+  /**
+   * Consumes the end of a line: {@code \n}, {@code \r\n} or {@code \r}.
+   */
+  private void skipLineEnd() throws IOException {
+    if(peek() == '\r') {
+      position++;
+    }
+    if(peek() == '\n') {
+      position++;
+    }
+  }
+
+  /**
+   * Appends the rest of the current line to {@code value}, without trailing whitespace.
+   */
+  private void readRestOfLine() throws IOException {
+    int c;
+    while((c = peek()) != -1 && !isLineEnd(c)) {
+      value.append((char) c);
+      position++;
+    }
+    int end = value.length();
+    while(end > 0 && isBlank(value.charAt(end - 1))) {
+      end--;
+    }
+    value.setLength(end);
+    skipLineEnd();
+  }
+
+  private void skipBlanks() throws IOException {
+    while(isBlank(peek())) {
+      position++;
+    }
+  }
+
+  /**
+   * @return the next record, or {@code null} if there are no more.
+   */
+  private PackageDescription nextRecord() throws IOException {
+    PackageDescription description = null;
+    String key = null;
+
+    while(true) {
+      int c = peek();
+      if(singleRecord && isLineEnd(c)) {
+        skipLineEnd();
+
+      } else if(c == -1 || isLineEnd(c)) {
+        // A blank line ends the record, unless it has not started yet
+        if(key != null) {
+          description.add(key, value.toString());
+          key = null;
+        }
+        if(c == -1 || description != null) {
+          skipLineEnd();
+          return description;
+        }
+        skipLineEnd();
+
+      } else if(isBlank(c)) {
+        skipBlanks();
+        if(isLineEnd(peek()) || peek() == -1) {
+          skipLineEnd();
+          continue;
+        }
+        if(key == null) {
+          throw new IllegalArgumentException("Expected key at line starting with whitespace");
+        }
+        value.append(' ');
+        readRestOfLine();
+
+      } else {
+        if(key != null) {
+          description.add(key, value.toString());
+        }
+        if(description == null) {
+          description = new PackageDescription();
+        }
+        key = readKey();
+        value.setLength(0);
+        skipBlanks();
+        readRestOfLine();
+      }
+    }
+  }
+
+  private String readKey() throws IOException {
+    value.setLength(0);
+    int c;
+    while((c = peek()) != ':') {
+      if(c == -1 || isLineEnd(c)) {
+        throw new IllegalArgumentException("Expected line in format key: value, found '" + value + "'");
+      }
+      value.append((char) c);
+      position++;
+    }
+    position++;
+    return value.toString();
+  }
+}
@@ -1,10 +1,9 @@
 package org.renjin.release.model;
 
-import com.google.common.base.Function;
 import com.google.common.base.Strings;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableList;
 
-import java.util.Arrays;
+import java.util.List;
 
 /**
  * Describes as a dependency on a package
@@ -90,25 +89,32 @@ public class PackageDependency {
     return optional;
   }
 
-  public static Iterable<PackageDependency> parseList(String scope, String list) {
-		return Iterables.transform(Arrays.asList(list.trim().split("\\s*,\\s*")),
-      new PackageDependencyParser("Suggests".equals(scope)));
-	}
-
-	private static class PackageDependencyParser implements Function<String, PackageDependency> {
-
-    private final boolean optional;
-
-    public PackageDependencyParser(boolean optional) {
-      this.optional = optional;
+  /**
+   * Parses a comma-separated list of dependencies, such as the value of an {@code Imports} field.
+   */
+  public static List<PackageDependency> parseList(String scope, String list) {
+    boolean optional = "Suggests".equals(scope);
+    ImmutableList.Builder<PackageDependency> dependencies = ImmutableList.builder();
+    int start = 0;
+    while(start <= list.length()) {
+      int end = list.indexOf(',', start);
+      if(end == -1) {
+        end = list.length();
+      }
+      int specStart = start;
+      int specEnd = end;
+      while(specStart < specEnd && Character.isWhitespace(list.charAt(specStart))) {
+        specStart++;
+      }
+      while(specEnd > specStart && Character.isWhitespace(list.charAt(specEnd - 1))) {
+        specEnd--;
+      }
+      // Skip empty entries, such as after a trailing comma
+      if(specStart < specEnd) {
+        dependencies.add(new PackageDependency(list.substring(specStart, specEnd), optional));
+      }
+      start = end + 1;
     }
-
-    @Override
-		public PackageDependency apply(String spec) {
-			if(spec == null) {
-				throw new RuntimeException();
-			}
-			return new PackageDependency(spec, optional);
-		}
-	}
+    return dependencies.build();
+  }
 }
@@ -4,10 +4,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.io.CharSource;
-import com.google.common.io.CharStreams;
 
 import java.io.*;
 import java.text.ParseException;
@@ -18,13 +16,27 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class PackageDescription {
 
-	private ArrayListMultimap<String, String> properties = ArrayListMultimap.create();
+	/**
+	 * Fields in the order in which they appear. A record has a couple of dozen fields at most,
+	 * so they are found by a linear search.
+	 */
+	private String[] keys = new String[16];
+	private String[] values = new String[16];
+	private int fieldCount;
+
+	/**
+	 * Dependency fields which have already been parsed.
+	 */
+	private Map<String, List<PackageDependency>> dependencyLists;
 
 
 	public static class Person {
@@ -89,66 +101,54 @@ public class PackageDescription {
 	}
 
 	public static PackageDescription fromString(String contents) throws IOException {
-
-		PackageDescription d = new PackageDescription();
-		d.properties = ArrayListMultimap.create();
-
-		List<String> lines = CharStreams.readLines(new StringReader(contents));
-		String key = null;
-		StringBuilder value = new StringBuilder();
-		for(String line : lines) {
-			if(line.length() > 0) {
-				if(Character.isWhitespace(line.codePointAt(0))) {
-					if(key == null) {
-						throw new IllegalArgumentException("Expected key at line '" + line + "'");
-					}
-					value.append(" ").append(line.trim());
-				} else {
-					if(key != null) {
-						d.properties.put(key, value.toString());
-						value.setLength(0);
-					}
-					int colon = line.indexOf(':');
-					if(colon == -1) {
-						throw new IllegalArgumentException("Expected line in format key: value, found '" + line + "'");
-					}
-					key = line.substring(0, colon);
-					value.append(line.substring(colon+1).trim());
-				}
-			}
-		}
-		if(key != null) {
-			d.properties.put(key, value.toString());
-		}
-		return d;
+		return DcfParser.parse(contents);
 	}
 
 	public static PackageDescription fromInputStream(InputStream in) throws IOException {
-		return fromString(CharStreams.toString(new InputStreamReader(in)));
+		return DcfParser.parse(new InputStreamReader(in));
 	}
 
 	public static PackageDescription fromCharSource(CharSource charSource) throws IOException {
-		return fromString(charSource.read());
+		try(Reader reader = charSource.openStream()) {
+			return DcfParser.parse(reader);
+		}
 	}
 	
 	public static PackageDescription fromReader(Reader reader) throws IOException {
-		return fromString(CharStreams.toString(reader));
+		return DcfParser.parse(reader);
+	}
+
+	void add(String key, String value) {
+		if(fieldCount == keys.length) {
+			keys = Arrays.copyOf(keys, fieldCount * 2);
+			values = Arrays.copyOf(values, fieldCount * 2);
+		}
+		keys[fieldCount] = key;
+		values[fieldCount] = value;
+		fieldCount++;
 	}
 
 	public String getFirstProperty(String key) {
-		if(properties.containsKey(key)) {
-			return properties.get(key).iterator().next();
-		} else {
-			return null;
+		for (int i = 0; i < fieldCount; i++) {
+			if(keys[i].equals(key)) {
+				return values[i];
+			}
 		}
+		return null;
 	}
 
 	public List<String> getProperty(String key) {
-		return properties.get(key);
+		List<String> list = new ArrayList<>(1);
+		for (int i = 0; i < fieldCount; i++) {
+			if(keys[i].equals(key)) {
+				list.add(values[i]);
+			}
+		}
+		return list;
 	}
 
 	public boolean hasProperty(String key) {
-		return properties.containsKey(key);
+		return getFirstProperty(key) != null;
 	}
 
 	public String getPackage() {
@@ -219,19 +219,19 @@ public class PackageDescription {
 		return files;
 	}
 
-	public Iterable<PackageDependency> getImports() {
+	public List<PackageDependency> getImports() {
 		return getPackageDependencyList("Imports");
 	}
 	
-	public Iterable<PackageDependency> getLinkingTo() {
+	public List<PackageDependency> getLinkingTo() {
 		return getPackageDependencyList("LinkingTo");
 	}
 
-	public Iterable<PackageDependency> getDepends() {
+	public List<PackageDependency> getDepends() {
 		return getPackageDependencyList("Depends");
 	}
 
-	public Iterable<PackageDependency> getSuggests() {
+	public List<PackageDependency> getSuggests() {
 		return getPackageDependencyList("Suggests");
 	}
 
@@ -239,13 +239,24 @@ public class PackageDescription {
 		return getFirstProperty("SystemRequirements");
 	}
 
-	public Iterable<PackageDependency> getPackageDependencyList(String property) {
-		String list = getFirstProperty(property);
-		if(Strings.isNullOrEmpty(list)) {
-			return Collections.emptySet();
-		} else {
-			return PackageDependency.parseList(property, list);
+	/**
+	 * @return the dependencies listed in the given field. The field is parsed the first time it is requested.
+	 */
+	public List<PackageDependency> getPackageDependencyList(String property) {
+		if(dependencyLists == null) {
+			dependencyLists = new HashMap<>();
+		}
+		List<PackageDependency> dependencies = dependencyLists.get(property);
+		if(dependencies == null) {
+			String list = getFirstProperty(property);
+			if(Strings.isNullOrEmpty(list)) {
+				dependencies = Collections.emptyList();
+			} else {
+				dependencies = PackageDependency.parseList(property, list);
+			}
+			dependencyLists.put(property, dependencies);
 		}
+		return dependencies;
 	}
 
 	public String getLicense() {
@@ -261,11 +272,11 @@ public class PackageDescription {
 	}
 
 	public Iterable<String> getProperties() {
-		return properties.keySet();
+		return new LinkedHashSet<>(Arrays.asList(keys).subList(0, fieldCount));
 	}
 
 	public LocalDateTime getPublicationDate() throws ParseException {
-		List<String> dateStrings = properties.get("Date/Publication");
+		List<String> dateStrings = getProperty("Date/Publication");
 		if (!dateStrings.isEmpty()) {
 			return parsePublicationDate(dateStrings.get(0));
 		}
@@ -283,7 +294,7 @@ public class PackageDescription {
 	}
 
 	public LocalDate getDate() {
-		List<String> dateStrings = properties.get("Date");
+		List<String> dateStrings = getProperty("Date");
 		if(!dateStrings.isEmpty()) {
 			String dateString = dateStrings.get(0);
 			if(dateString.contains("/")) {
@@ -296,7 +307,7 @@ public class PackageDescription {
 	}
 	
 	public LocalDateTime getPackagedDate() {
-		List<String> strings = properties.get("Packaged");
+		List<String> strings = getProperty("Packaged");
 		if(strings.isEmpty()) {
 			return null;
 		}
@@ -1,5 +1,9 @@
 package org.renjin.release.model;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
 /**
@@ -7,16 +11,36 @@ import java.io.Serializable;
  */
 public class PackageId implements Serializable {
 
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final Interner<PackageId> INTERNER = Interners.newWeakInterner();
+
     public static final String CRAN_GROUP = "org.renjin.cran";
     public static final String BIOC_GROUP = "org.renjin.bioconductor";
 
 
     private final String groupId;
     private final String packageName;
+    private final transient int hashCode;
 
     public PackageId(String groupId, String packageName) {
-        this.groupId = groupId;
-        this.packageName = packageName;
+        this.groupId = intern(groupId);
+        this.packageName = intern(packageName);
+        this.hashCode = 31 * groupId.hashCode() + packageName.hashCode();
+    }
+
+    /**
+     * @return the canonical instance of the given id.
+     */
+    public static PackageId of(String groupId, String packageName) {
+        return INTERNER.intern(new PackageId(groupId, packageName));
+    }
+
+    /**
+     * Interns the components of package and version ids, which are repeated across the many
+     * ids in a package graph.
+     */
+    static String intern(String component) {
+        return STRINGS.intern(component);
     }
 
     public String getGroupId() {
@@ -40,30 +64,33 @@ public class PackageId implements Serializable {
 
         PackageId packageId = (PackageId) o;
 
-        if (!groupId.equals(packageId.groupId)) return false;
-        if (!packageName.equals(packageId.packageName)) return false;
-
-        return true;
+        return hashCode == packageId.hashCode &&
+            groupId.equals(packageId.groupId) &&
+            packageName.equals(packageId.packageName);
     }
 
     @Override
     public int hashCode() {
-        int result = groupId.hashCode();
-        result = 31 * result + packageName.hashCode();
-        return result;
+        return hashCode;
     }
 
     public static PackageId valueOf(String name) {
         String parts[] = name.split(":");
-        return new PackageId(parts[0], parts[1]);
+        return of(parts[0], parts[1]);
     }
     
     public static PackageId gitHub(String owner, String repo) {
-        return new PackageId("org.renjin.github." + owner, repo);
+        return of("org.renjin.github." + owner, repo);
     }
     
     public String getPath() {
         return "/package/" + groupId + "/" + packageName;
     }
-}
 
+    /**
+     * Recomputes the hash code, and returns the canonical instance.
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return of(groupId, packageName);
+    }
+}
@@ -2,39 +2,72 @@ package org.renjin.release.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * PackageVersion identifier, a composite of groupId, packageName,
  * and version (a typical GAV from Maven world)
+ *
+ * <p>The components are interned, and the hash code, the numeric parts of the version and the
+ * {@link PackageId} are computed once, so that comparing, hashing and sorting ids does not allocate.
+ * Use {@link #of(String, String, String)} to obtain a canonical instance, which is shared by all
+ * equal ids.</p>
  */
 public class PackageVersionId implements Serializable, Comparable<PackageVersionId> {
-  private String groupId;
-  private String packageName;
-  private String version;
 
-  PackageVersionId() {
-  }
+  private static final Interner<PackageVersionId> INTERNER = Interners.newWeakInterner();
+
+  private final String groupId;
+  private final String packageName;
+  private final String version;
+
+  private final transient PackageId packageId;
+  private final transient int[] versionParts;
+  private final transient int hashCode;
 
-  @JsonCreator
   public PackageVersionId(String groupArtifactVersion) {
-    String gav[] = groupArtifactVersion.split(":");
-    this.groupId = gav[0];
-    this.packageName = gav[1];
-    this.version = gav[2];
+    this(groupArtifactVersion.split(":"));
+  }
+
+  private PackageVersionId(String[] gav) {
+    this(gav[0], gav[1], gav[2]);
   }
 
   public PackageVersionId(String groupId, String packageName, String version) {
-    this.groupId = groupId;
-    this.packageName = packageName;
-    this.version = version;
+    this(PackageId.of(groupId, packageName), version);
   }
 
   public PackageVersionId(PackageId packageId, String version) {
+    this.packageId = packageId;
     this.groupId = packageId.getGroupId();
     this.packageName = packageId.getPackageName();
-    this.version = version;
+    this.version = PackageId.intern(version);
+    this.versionParts = parseVersion(version);
+    this.hashCode = 31 * packageId.hashCode() + version.hashCode();
+  }
+
+  /**
+   * @return the canonical instance of the given id.
+   */
+  public static PackageVersionId of(String groupId, String packageName, String version) {
+    return INTERNER.intern(new PackageVersionId(groupId, packageName, version));
+  }
+
+  public static PackageVersionId of(PackageId packageId, String version) {
+    return INTERNER.intern(new PackageVersionId(packageId, version));
+  }
+
+  /**
+   * @return the canonical instance of an id in the form {@code groupId:packageName:version}
+   */
+  @JsonCreator
+  public static PackageVersionId valueOf(String groupArtifactVersion) {
+    return INTERNER.intern(new PackageVersionId(groupArtifactVersion));
   }
 
   public String getGroupId() {
@@ -58,9 +91,9 @@ public class PackageVersionId implements Serializable, Comparable<PackageVersion
     if(gav.length != 3) {
       throw new IllegalArgumentException("Malformed package id: " + id);
     }
-    return new PackageVersionId(gav[0], gav[1], gav[2]);
+    return of(gav[0], gav[1], gav[2]);
   }
-  
+
   public boolean isNewer(PackageVersionId other) {
     return compareTo(other) > 0;
   }
@@ -82,40 +115,41 @@ public class PackageVersionId implements Serializable, Comparable<PackageVersion
 
     PackageVersionId that = (PackageVersionId) o;
 
-    if (!groupId.equals(that.groupId)) return false;
-    if (!packageName.equals(that.packageName)) return false;
-    if (!version.equals(that.version)) return false;
-
-    return true;
+    return hashCode == that.hashCode &&
+        packageId.equals(that.packageId) &&
+        version.equals(that.version);
   }
 
   @Override
   public int hashCode() {
-    int result = groupId.hashCode();
-    result = 31 * result + packageName.hashCode();
-    result = 31 * result + version.hashCode();
-    return result;
+    return hashCode;
   }
-  
+
   @Override
   public int compareTo(PackageVersionId o) {
-    if(!groupId.equals(o.groupId)) {
-      return groupId.compareTo(o.groupId);
-    }
-    if(!packageName.equals(o.packageName)) {
-      return packageName.compareTo(o.packageName);
+    if(packageId != o.packageId) {
+      if(!groupId.equals(o.groupId)) {
+        return groupId.compareTo(o.groupId);
+      }
+      if(!packageName.equals(o.packageName)) {
+        return packageName.compareTo(o.packageName);
+      }
     }
-    return compareVersions(this.version, o.version);
+    return compareVersions(versionParts, o.versionParts);
   }
 
+  /**
+   * @return the id of the package, without allocating.
+   */
   public PackageId getPackageId() {
-    return new PackageId(groupId, packageName);
+    return packageId;
   }
 
   public static int compareVersions(String x, String y) {
-    int[] xn = parse(x);
-    int[] yn = parse(y);
+    return compareVersions(parseVersion(x), parseVersion(y));
+  }
 
+  private static int compareVersions(int[] xn, int[] yn) {
     for (int i = 0; i < xn.length && i < yn.length; i++) {
       if(xn[i] < yn[i]) {
         return -1;
@@ -134,12 +168,39 @@ public class PackageVersionId implements Serializable, Comparable<PackageVersion
     return 0;
   }
 
-  private static int[] parse(String versionString) {
-    String[] stringParts = versionString.split("[^0-9]");
-    int[] parts = new int[stringParts.length];
-    for (int i = 0; i < parts.length; i++) {
-      parts[i] = Integer.parseInt(stringParts[i]);
+  /**
+   * Splits a version into its numeric parts. Any run of other characters separates two parts, so that
+   * {@code 1.2-3}, {@code 1.2.3} and {@code 1..2-3} are all {@code [1, 2, 3]}. Parts too large for an
+   * {@code int} are clamped.
+   */
+  private static int[] parseVersion(String versionString) {
+    int[] parts = new int[4];
+    int count = 0;
+    int i = 0;
+    int length = versionString.length();
+    while(i < length) {
+      char c = versionString.charAt(i);
+      if(c >= '0' && c <= '9') {
+        long part = 0;
+        while(i < length && (c = versionString.charAt(i)) >= '0' && c <= '9') {
+          part = Math.min(Integer.MAX_VALUE, part * 10 + (c - '0'));
+          i++;
+        }
+        if(count == parts.length) {
+          parts = Arrays.copyOf(parts, count * 2);
+        }
+        parts[count++] = (int) part;
+      } else {
+        i++;
+      }
     }
-    return parts;
+    return count == parts.length ? parts : Arrays.copyOf(parts, count);
+  }
+
+  /**
+   * Recomputes the cached fields, and returns the canonical instance.
+   */
+  private Object readResolve() throws ObjectStreamException {
+    return of(groupId, packageName, version);
   }
 }
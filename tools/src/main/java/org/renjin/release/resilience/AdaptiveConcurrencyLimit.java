@@ -0,0 +1,93 @@
+package org.renjin.release.resilience;
+
+/**
+ * Limits the number of requests in flight to a server, adapting the limit to the server's capacity by
+ * additive increase and multiplicative decrease (AIMD), as TCP does with its congestion window.
+ *
+ * <p>Each successful request completing while at least half of the limit is in use raises the limit by {@code 1/limit},
+ * so the limit grows by about one for each round trip's worth of requests. A request which is throttled or times out
+ * cuts the limit by half, but only once for all the requests that were sent before the cut, so that a burst of
+ * failures from the same window does not collapse the limit to its minimum.</p>
+ */
+public class AdaptiveConcurrencyLimit {
+
+  private static final double DECREASE_RATIO = 0.5;
+
+  private final int minLimit;
+  private final int maxLimit;
+
+  private double limit;
+  private int inFlight;
+
+  /**
+   * The time of the last decrease, from {@link System#nanoTime()}.
+   */
+  private long lastDecrease;
+
+  public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    this.lastDecrease = System.nanoTime();
+  }
+
+  /**
+   * Waits until a request may be sent.
+   *
+   * @return the time at which the request was admitted, to be passed back to {@link #onSuccess(long)}
+   * or {@link #onOverload(long)}.
+   */
+  public synchronized long acquire() throws InterruptedException {
+    while(inFlight >= (int) limit) {
+      wait();
+    }
+    inFlight++;
+    return System.nanoTime();
+  }
+
+  public synchronized void onSuccess(long admitted) {
+    // Only grow the limit when it is actually being used, and not when callers are sending few requests
+    if(inFlight * 2 >= limit) {
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+    release();
+  }
+
+  /**
+   * Records that the server was overloaded: it throttled the request, failed, or did not answer in time.
+   */
+  public synchronized void onOverload(long admitted) {
+    if(admitted - lastDecrease > 0) {
+      limit = Math.max(minLimit, limit * DECREASE_RATIO);
+      lastDecrease = System.nanoTime();
+    }
+    release();
+  }
+
+  /**
+   * Records a request whose outcome says nothing about the server's load, such as a 404.
+   */
+  public synchronized void onIgnore() {
+    release();
+  }
+
+  private void release() {
+    inFlight--;
+    notifyAll();
+  }
+
+  public synchronized double getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the highest the limit can grow, and so the most requests ever in flight at once.
+   */
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+}
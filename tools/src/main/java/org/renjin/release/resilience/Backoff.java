@@ -0,0 +1,62 @@
+package org.renjin.release.resilience;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with "full jitter": the delay before retry {@code n} is drawn uniformly from
+ * {@code [0, min(max, base * 2^n)]}, so that clients which failed together do not retry together.
+ */
+public class Backoff {
+
+  private final long baseMillis;
+  private final long maxMillis;
+
+  public Backoff(long baseMillis, long maxMillis) {
+    this.baseMillis = baseMillis;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * @param attempt the number of attempts which have failed so far, starting at 1
+   * @param retryAfterMillis the delay asked for by the server in its {@code Retry-After} header, or {@code null}
+   */
+  public long delayMillis(int attempt, Long retryAfterMillis) {
+    long ceiling = Math.min(maxMillis, baseMillis * (1L << Math.min(attempt - 1, 30)));
+    long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+    if(retryAfterMillis != null) {
+      // Honour the server's request, but still spread out the retries
+      delay = retryAfterMillis + ThreadLocalRandom.current().nextLong(baseMillis + 1);
+    }
+    return delay;
+  }
+
+  /**
+   * Parses a {@code Retry-After} header, which is either a number of seconds or an HTTP date.
+   *
+   * @return the delay in milliseconds, or {@code null} if the header is missing or malformed.
+   */
+  public static Long parseRetryAfter(String header, long nowMillis) {
+    if(header == null || header.trim().isEmpty()) {
+      return null;
+    }
+    header = header.trim();
+    try {
+      return Math.max(0, Long.parseLong(header) * 1000);
+    } catch (NumberFormatException ignored) {
+      // Try as a date
+    }
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      Date date = format.parse(header);
+      return Math.max(0, date.getTime() - nowMillis);
+    } catch (ParseException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package org.renjin.release.resilience;
+
+/**
+ * Stops sending requests to an endpoint which keeps failing.
+ *
+ * <p>After {@code failureThreshold} consecutive failures the circuit opens, and callers are told to wait
+ * instead of sending requests. Once {@code openMillis} have passed, a single trial request is let through:
+ * if it succeeds the circuit closes again, and if it fails the circuit stays open for another period.</p>
+ */
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /**
+   * How long to wait before checking again while a trial request is in flight.
+   */
+  private static final long TRIAL_POLL_MILLIS = 100;
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openMillis;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openUntil;
+  private int openCount;
+
+  public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Asks to send a request.
+   *
+   * @return 0 if the request may be sent now, or otherwise the number of milliseconds to wait before asking again.
+   */
+  public synchronized long tryAcquire(long nowMillis) {
+    switch (state) {
+      case CLOSED:
+        return 0;
+      case OPEN:
+        if(nowMillis >= openUntil) {
+          state = State.HALF_OPEN;
+          return 0;
+        }
+        return openUntil - nowMillis;
+      case HALF_OPEN:
+      default:
+        return TRIAL_POLL_MILLIS;
+    }
+  }
+
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    state = State.CLOSED;
+  }
+
+  /**
+   * Records a request whose outcome says nothing about the endpoint's health, such as a 404. A trial request
+   * leaves the circuit open, but lets the next request through as a new trial straight away.
+   */
+  public synchronized void onIgnore(long nowMillis) {
+    if(state == State.HALF_OPEN) {
+      state = State.OPEN;
+      openUntil = nowMillis;
+    }
+  }
+
+  public synchronized void onFailure(long nowMillis) {
+    consecutiveFailures++;
+    if(state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openUntil = nowMillis + openMillis;
+      openCount++;
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return the number of times the circuit has opened.
+   */
+  public synchronized int getOpenCount() {
+    return openCount;
+  }
+}
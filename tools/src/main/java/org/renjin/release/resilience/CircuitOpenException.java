@@ -0,0 +1,13 @@
+package org.renjin.release.resilience;
+
+/**
+ * Thrown when an endpoint has been failing for longer than callers are willing to wait.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public CircuitOpenException(String message) {
+    super(message);
+  }
+}
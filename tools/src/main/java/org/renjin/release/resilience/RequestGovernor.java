@@ -0,0 +1,211 @@
+package org.renjin.release.resilience;
+
+import org.renjin.release.metrics.Metrics;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Guards the requests made to a server, so that throughput stays close to the server's capacity when
+ * it starts to throttle or fail, rather than collapsing into a storm of retries.
+ *
+ * <ul>
+ *   <li>The number of requests in flight to the server is limited by an {@link AdaptiveConcurrencyLimit}.</li>
+ *   <li>Requests which are throttled (429, 503), fail on the server (5xx), or fail in transport are retried
+ *   after a randomized, exponentially growing delay (see {@link Backoff}), or after the delay given in the
+ *   response's {@code Retry-After} header.</li>
+ *   <li>Each endpoint has its own {@link CircuitBreaker}, so that an endpoint which is down is probed by a single
+ *   request at a time instead of all threads.</li>
+ * </ul>
+ *
+ * <p>Other errors, such as 404, are passed straight to the caller, which may depend on them. They count neither
+ * as a success nor as a failure of the endpoint.</p>
+ *
+ * <p>The defaults can be changed with the following system properties:</p>
+ * <ul>
+ *   <li>{@code renjin.http.initialConcurrency} (default 4)</li>
+ *   <li>{@code renjin.http.maxConcurrency} (default 16)</li>
+ *   <li>{@code renjin.http.maxAttempts} (default 8)</li>
+ *   <li>{@code renjin.http.backoffMillis} (default 250) and {@code renjin.http.maxBackoffMillis} (default 30000)</li>
+ *   <li>{@code renjin.http.breakerThreshold} consecutive failures (default 5) and
+ *   {@code renjin.http.breakerOpenMillis} (default 10000)</li>
+ *   <li>{@code renjin.http.maxBreakerWaitMillis}, the longest a caller waits for an open circuit
+ *   (default 300000)</li>
+ * </ul>
+ */
+public class RequestGovernor {
+
+  private static final Logger LOGGER = Logger.getLogger(RequestGovernor.class.getName());
+
+  private final String server;
+  private final AdaptiveConcurrencyLimit limit;
+  private final Backoff backoff;
+  private final int maxAttempts;
+  private final int breakerThreshold;
+  private final long breakerOpenMillis;
+  private final long maxBreakerWaitMillis;
+
+  private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+  public RequestGovernor(String server, AdaptiveConcurrencyLimit limit, Backoff backoff, int maxAttempts,
+                         int breakerThreshold, long breakerOpenMillis, long maxBreakerWaitMillis) {
+    this.server = server;
+    this.limit = limit;
+    this.backoff = backoff;
+    this.maxAttempts = maxAttempts;
+    this.breakerThreshold = breakerThreshold;
+    this.breakerOpenMillis = breakerOpenMillis;
+    this.maxBreakerWaitMillis = maxBreakerWaitMillis;
+
+    Metrics.gauge("renjin_http_concurrency_limit", "Adaptive limit on requests in flight", limit::getLimit,
+        "server", server);
+  }
+
+  public static RequestGovernor fromSystemProperties(String server) {
+    return new RequestGovernor(server,
+        new AdaptiveConcurrencyLimit(
+            Integer.getInteger("renjin.http.initialConcurrency", 4),
+            1,
+            Integer.getInteger("renjin.http.maxConcurrency", 16)),
+        new Backoff(
+            Long.getLong("renjin.http.backoffMillis", 250),
+            Long.getLong("renjin.http.maxBackoffMillis", 30_000)),
+        Integer.getInteger("renjin.http.maxAttempts", 8),
+        Integer.getInteger("renjin.http.breakerThreshold", 5),
+        Long.getLong("renjin.http.breakerOpenMillis", 10_000),
+        Long.getLong("renjin.http.maxBreakerWaitMillis", 300_000));
+  }
+
+  public AdaptiveConcurrencyLimit getLimit() {
+    return limit;
+  }
+
+  public CircuitBreaker getBreaker(String endpoint) {
+    return breakers.computeIfAbsent(endpoint, name -> {
+      CircuitBreaker breaker = new CircuitBreaker(name, breakerThreshold, breakerOpenMillis);
+      Metrics.gauge("renjin_http_circuit_opened", "Times the circuit breaker of an endpoint opened",
+          breaker::getOpenCount, "server", server, "endpoint", name);
+      return breaker;
+    });
+  }
+
+  /**
+   * Makes a request to {@code endpoint}, retrying it if the server is overloaded or failing.
+   *
+   * @throws RuntimeException the last failure, once all attempts have been used, or the first failure
+   * which is not worth retrying.
+   */
+  public <T> T call(String endpoint, Callable<T> request) {
+    CircuitBreaker breaker = getBreaker(endpoint);
+    long breakerWaitStart = System.currentTimeMillis();
+    int attempt = 0;
+
+    while(true) {
+      long wait = breaker.tryAcquire(System.currentTimeMillis());
+      if(wait > 0) {
+        if(System.currentTimeMillis() - breakerWaitStart > maxBreakerWaitMillis) {
+          throw new CircuitOpenException(server + " " + endpoint + " has been failing for over " +
+              (maxBreakerWaitMillis / 1000) + " s");
+        }
+        sleep(wait);
+        continue;
+      }
+
+      attempt++;
+      long admitted = acquire();
+      boolean recorded = false;
+      try {
+        T result = request.call();
+        limit.onSuccess(admitted);
+        breaker.onSuccess();
+        recorded = true;
+        return result;
+
+      } catch (Exception e) {
+        recorded = true;
+        if(!isRetryable(e)) {
+          limit.onIgnore();
+          breaker.onIgnore(System.currentTimeMillis());
+          throw propagate(e);
+        }
+        limit.onOverload(admitted);
+        breaker.onFailure(System.currentTimeMillis());
+
+        if(attempt >= maxAttempts) {
+          throw propagate(e);
+        }
+        String reason = reason(e);
+        Metrics.counter("renjin_http_retries_total", "Requests retried, by endpoint and reason",
+            "endpoint", endpoint, "reason", reason)
+            .increment();
+        long delay = backoff.delayMillis(attempt, retryAfter(e));
+        LOGGER.fine(String.format("%s %s failed (%s), retrying in %d ms", server, endpoint, reason, delay));
+        sleep(delay);
+        breakerWaitStart = System.currentTimeMillis();
+
+      } finally {
+        if(!recorded) {
+          // An Error: give back the request's slot and any trial, or they would be held forever
+          limit.onIgnore();
+          breaker.onIgnore(System.currentTimeMillis());
+        }
+      }
+    }
+  }
+
+  private long acquire() {
+    try {
+      return limit.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting to send a request to " + server, e);
+    }
+  }
+
+  private void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting to retry a request to " + server, e);
+    }
+  }
+
+  static boolean isRetryable(Exception e) {
+    if(e instanceof ProcessingException) {
+      return true;
+    }
+    if(e instanceof WebApplicationException) {
+      int status = ((WebApplicationException) e).getResponse().getStatus();
+      return status == 429 || status >= 500;
+    }
+    return false;
+  }
+
+  private static String reason(Exception e) {
+    if(e instanceof WebApplicationException) {
+      return Integer.toString(((WebApplicationException) e).getResponse().getStatus());
+    }
+    return "transport";
+  }
+
+  private static Long retryAfter(Exception e) {
+    if(e instanceof WebApplicationException) {
+      Response response = ((WebApplicationException) e).getResponse();
+      return Backoff.parseRetryAfter(response.getHeaderString("Retry-After"), System.currentTimeMillis());
+    }
+    return null;
+  }
+
+  private static RuntimeException propagate(Exception e) {
+    if(e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    }
+    return new RuntimeException(e);
+  }
+}
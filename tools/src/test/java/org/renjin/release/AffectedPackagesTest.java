@@ -0,0 +1,86 @@
+package org.renjin.release;
+
+import org.junit.Test;
+import org.renjin.release.graph.CompactPackageGraph;
+import org.renjin.release.graph.DependencyEdge;
+import org.renjin.release.graph.PackageNode;
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AffectedPackagesTest {
+
+  @Test
+  public void packageNameFromPath() {
+    assertEquals("MASS", AffectedPackages.packageName("MASS"));
+    assertEquals("MASS", AffectedPackages.packageName("packages/cran/MASS/R/lda.R"));
+    assertEquals("MASS", AffectedPackages.packageName("  packages\\cran\\MASS\\DESCRIPTION "));
+    assertEquals("Rcpp", AffectedPackages.packageName("replacements/Rcpp/build.gradle"));
+    assertNull(AffectedPackages.packageName(""));
+    assertNull(AffectedPackages.packageName("tools/src/main/java/org/renjin/release/PackageSetup.java"));
+  }
+
+  @Test
+  public void sharedBuildFiles() {
+    assertTrue(AffectedPackages.isSharedBuildFile("packages/build.gradle"));
+    assertTrue(AffectedPackages.isSharedBuildFile("packages/settings.gradle.in"));
+    assertTrue(AffectedPackages.isSharedBuildFile("packages/gradle.properties"));
+    assertTrue(AffectedPackages.isSharedBuildFile("packages/gradle/package.gradle"));
+    assertTrue(AffectedPackages.isSharedBuildFile("packages/gradle/checkTests.gradle"));
+    assertTrue(AffectedPackages.isSharedBuildFile("gradle/package.gradle"));
+
+    assertFalse(AffectedPackages.isSharedBuildFile("replacements/Rcpp/build.gradle"));
+    assertFalse(AffectedPackages.isSharedBuildFile("packages/cran/MASS/build.gradle"));
+    assertFalse(AffectedPackages.isSharedBuildFile("tools/build.gradle"));
+  }
+
+  @Test
+  public void retestSetAddsPackagesSuggestingRebuiltOnes() {
+    // uses depends on base, and suggests only suggests it
+    Map<String, PackageNode> nodes = new LinkedHashMap<>();
+    Map<String, Set<DependencyEdge>> edges = new HashMap<>();
+    Map<String, CompletableFuture<Set<DependencyEdge>>> futures = new HashMap<>();
+    for (String name : Arrays.asList("base", "uses", "suggests", "unrelated")) {
+      CompletableFuture<Set<DependencyEdge>> future = new CompletableFuture<>();
+      nodes.put(name, new PackageNode(PackageVersionId.fromTriplet("org.renjin.cran:" + name + ":1.0"), future));
+      edges.put(name, new HashSet<>());
+      futures.put(name, future);
+    }
+    edges.get("uses").add(new DependencyEdge(nodes.get("base"), false));
+    nodes.get("base").addReverseDependency(nodes.get("uses"));
+    edges.get("suggests").add(new DependencyEdge(nodes.get("base"), true));
+    nodes.get("base").addReverseDependency(nodes.get("suggests"));
+    for (String name : nodes.keySet()) {
+      futures.get(name).complete(edges.get(name));
+    }
+
+    CompactPackageGraph graph = CompactPackageGraph.of(nodes.values());
+    BitSet changed = new BitSet();
+    changed.set(indexOf(graph, "base"));
+
+    BitSet rebuild = graph.dependentClosure(changed, false);
+    BitSet retest = AffectedPackages.retestSet(graph, rebuild);
+
+    assertEquals(new HashSet<>(Arrays.asList("base", "uses")), names(graph, rebuild));
+    assertEquals(new HashSet<>(Arrays.asList("base", "uses", "suggests")), names(graph, retest));
+  }
+
+  private static int indexOf(CompactPackageGraph graph, String name) {
+    return graph.indexOf(PackageId.of(PackageId.CRAN_GROUP, name));
+  }
+
+  private static Set<String> names(CompactPackageGraph graph, BitSet set) {
+    Set<String> names = new HashSet<>();
+    for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+      names.add(graph.getId(i).getPackageName());
+    }
+    return names;
+  }
+}
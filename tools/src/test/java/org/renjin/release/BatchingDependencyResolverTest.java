@@ -0,0 +1,157 @@
+package org.renjin.release;
+
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class BatchingDependencyResolverTest {
+
+  private static final PackageVersionId FOO = PackageVersionId.fromTriplet("org.renjin.cran:foo:1.0");
+  private static final PackageVersionId BAR = PackageVersionId.fromTriplet("org.renjin.cran:bar:2.0");
+
+  private static final String DEPENDENCIES = "{\"dependencies\":[]}";
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  @BeforeClass
+  public static void isolateResponseCache() {
+    if(System.getProperty("renjin.http.cacheDir") == null) {
+      System.setProperty("renjin.http.cacheDir", Files.createTempDir().getAbsolutePath());
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    System.clearProperty("renjin.packages.url");
+  }
+
+  @Test
+  public void resolvesBatchInOneRoundTripFromMirror() throws Exception {
+    File bundleFile = new File(Files.createTempDir(), "snapshot.zip");
+    try(ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(bundleFile))) {
+      for (PackageVersionId id : new PackageVersionId[] { FOO, BAR }) {
+        zip.putNextEntry(new ZipEntry(SnapshotBundle.dependenciesEntry(id)));
+        zip.write(DEPENDENCIES.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+
+    try(MirrorServer server = MirrorServer.start(new SnapshotBundle(bundleFile), 0)) {
+      System.setProperty("renjin.packages.url", server.getUrl());
+
+      BatchingDependencyResolver resolver = new BatchingDependencyResolver(executor, 60_000, 50);
+      CompletableFuture<ResolvedDependencySet> foo = resolver.resolve(FOO);
+      CompletableFuture<ResolvedDependencySet> bar = resolver.resolve(BAR);
+      resolver.close();
+
+      assertNotNull(foo.get(10, TimeUnit.SECONDS));
+      assertNotNull(bar.get(10, TimeUnit.SECONDS));
+      assertEquals(2, resolver.getRequestCount());
+      assertEquals(1, resolver.getRoundTripCount());
+    }
+  }
+
+  @Test
+  public void fallsBackToIndividualRequestsOn404() throws Exception {
+    // Stands in for the package database, which only answers individual resolutions
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      if(exchange.getRequestURI().getPath().endsWith("/resolveDependencies")) {
+        byte[] body = DEPENDENCIES.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      } else {
+        exchange.sendResponseHeaders(404, -1);
+      }
+      exchange.close();
+    });
+    server.start();
+    try {
+      System.setProperty("renjin.packages.url", "http://localhost:" + server.getAddress().getPort());
+
+      BatchingDependencyResolver resolver = new BatchingDependencyResolver(executor, 60_000, 50);
+      CompletableFuture<ResolvedDependencySet> foo = resolver.resolve(FOO);
+      CompletableFuture<ResolvedDependencySet> bar = resolver.resolve(BAR);
+      resolver.close();
+
+      assertNotNull(foo.get(10, TimeUnit.SECONDS));
+      assertNotNull(bar.get(10, TimeUnit.SECONDS));
+
+      // One rejected bulk request, then one request per package
+      assertEquals(3, resolver.getRoundTripCount());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void fallbackRequestsAreSentInParallel() throws Exception {
+    // Each individual resolution waits for the other to arrive, so both must be in flight at once
+    CountDownLatch bothArrived = new CountDownLatch(2);
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/", exchange -> {
+      if(exchange.getRequestURI().getPath().endsWith("/resolveDependencies")) {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        bothArrived.countDown();
+        try {
+          bothArrived.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        inFlight.decrementAndGet();
+        byte[] body = DEPENDENCIES.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      } else {
+        exchange.sendResponseHeaders(404, -1);
+      }
+      exchange.close();
+    });
+    server.start();
+    try {
+      System.setProperty("renjin.packages.url", "http://localhost:" + server.getAddress().getPort());
+
+      BatchingDependencyResolver resolver = new BatchingDependencyResolver(executor, 60_000, 50);
+      CompletableFuture<ResolvedDependencySet> foo = resolver.resolve(FOO);
+      CompletableFuture<ResolvedDependencySet> bar = resolver.resolve(BAR);
+      resolver.close();
+
+      assertNotNull(foo.get(10, TimeUnit.SECONDS));
+      assertNotNull(bar.get(10, TimeUnit.SECONDS));
+      assertEquals(2, maxInFlight.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package org.renjin.release;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GradleBatchBuilderTest {
+
+  @Test
+  public void packageNameFromTaskPath() {
+    assertEquals("MASS", GradleBatchBuilder.packageName(":cran:MASS:compileJava"));
+    assertEquals("data.table", GradleBatchBuilder.packageName(":cran:data.table:test"));
+    assertNull(GradleBatchBuilder.packageName(":cran:MASS"));
+    assertNull(GradleBatchBuilder.packageName(":renjin:core:jar"));
+  }
+}
@@ -0,0 +1,158 @@
+package org.renjin.release;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpResponseCacheTest {
+
+  private static final String BODY = "{\"org.renjin.cran:foo:1.0\":{\"dependencies\":[]}}";
+
+  @Test
+  public void repeatRequestsAreRevalidated() throws Exception {
+
+    AtomicLong bytesSent = new AtomicLong();
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/packages", exchange -> {
+      ByteStreams.exhaust(exchange.getRequestBody());
+      if("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        exchange.sendResponseHeaders(200, body.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+        bytesSent.addAndGet(body.length);
+      }
+      exchange.close();
+    });
+    server.start();
+
+    File cacheDir = Files.createTempDir();
+    HttpResponseCache cache = new HttpResponseCache(cacheDir);
+    Client client = ClientBuilder.newClient().register(cache);
+    String url = "http://localhost:" + server.getAddress().getPort() + "/packages/resolveDependencySets";
+
+    try {
+      assertEquals(BODY, client.target(url).request().get(String.class));
+      long firstRunBytes = bytesSent.get();
+
+      assertEquals(BODY, client.target(url).request().get(String.class));
+      assertEquals(BODY, client.target(url).request().get(String.class));
+
+      assertEquals("no body bytes sent on revalidation", firstRunBytes, bytesSent.get());
+      assertEquals(3, cache.getRequestCount());
+      assertEquals(2, cache.getRevalidationCount());
+      assertEquals(2, cache.getHitCount());
+
+      // A fresh cache instance over the same directory, as in a later run, is served from disk too
+      HttpResponseCache nextRun = new HttpResponseCache(cacheDir);
+      Client nextClient = ClientBuilder.newClient().register(nextRun);
+      assertEquals(BODY, nextClient.target(url).request().get(String.class));
+      assertEquals(1, nextRun.getHitCount());
+      assertEquals("no body bytes sent on revalidation", firstRunBytes, bytesSent.get());
+      nextClient.close();
+
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void notModifiedWithoutCachedEntryIsPassedThrough() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/packages", exchange -> {
+      ByteStreams.exhaust(exchange.getRequestBody());
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+    });
+    server.start();
+
+    HttpResponseCache cache = new HttpResponseCache(Files.createTempDir());
+    Client client = ClientBuilder.newClient().register(cache);
+    String url = "http://localhost:" + server.getAddress().getPort() + "/packages/resolveDependencySets";
+
+    try {
+      // Validators set by the caller, which the cache has no body for
+      Response response = client.target(url).request().header(HttpHeaders.IF_NONE_MATCH, "\"v1\"").get();
+      assertEquals(304, response.getStatus());
+      response.close();
+      assertEquals(0, cache.getHitCount());
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void entriesFromEarlierVersionsAreIgnored() throws Exception {
+    AtomicLong revalidated = new AtomicLong();
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/packages", exchange -> {
+      ByteStreams.exhaust(exchange.getRequestBody());
+      if("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        revalidated.incrementAndGet();
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        exchange.sendResponseHeaders(200, body.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+      exchange.close();
+    });
+    server.start();
+
+    String url = "http://localhost:" + server.getAddress().getPort() + "/packages/resolveDependencySets";
+
+    // An entry as written before the metadata had a format, without a content type
+    File cacheDir = Files.createTempDir();
+    String key = HttpResponseCache.key(url);
+    Files.write("{\"url\":\"" + url + "\",\"etag\":\"\\\"v1\\\"\"}", new File(cacheDir, key + ".json"), StandardCharsets.UTF_8);
+    Files.write("stale", new File(cacheDir, key + ".body"), StandardCharsets.UTF_8);
+
+    HttpResponseCache cache = new HttpResponseCache(cacheDir);
+    Client client = ClientBuilder.newClient().register(cache);
+
+    try {
+      Response response = client.target(url).request().get();
+      assertEquals(200, response.getStatus());
+      assertEquals(BODY, response.readEntity(String.class));
+      assertEquals(0, revalidated.get());
+      assertEquals(0, cache.getRevalidationCount());
+
+      // The entry is replaced, and used from then on
+      response = client.target(url).request().get();
+      assertEquals(200, response.getStatus());
+      assertEquals("application/json", response.getHeaderString("Content-Type"));
+      assertEquals(BODY, response.readEntity(String.class));
+      assertEquals(1, revalidated.get());
+      assertEquals(1, cache.getHitCount());
+    } finally {
+      client.close();
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package org.renjin.release;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MirrorServerTest {
+
+  private static final PackageVersionId FOO = PackageVersionId.fromTriplet("org.renjin.cran:foo:1.0");
+
+  private static final String FOO_DEPENDENCIES = "{\"dependencies\":[]}";
+
+  private static final byte[] FOO_SOURCES = {0x1f, (byte) 0x8b, 8, 0, 1, 2, 3};
+
+  @Test
+  public void servesBundleAtClientPaths() throws Exception {
+
+    File bundleFile = new File(Files.createTempDir(), "snapshot.zip");
+    try(ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(bundleFile))) {
+      put(zip, SnapshotBundle.PACKAGE_LIST_ENTRY, (FOO + "\n").getBytes(StandardCharsets.UTF_8));
+      put(zip, SnapshotBundle.dependenciesEntry(FOO), FOO_DEPENDENCIES.getBytes(StandardCharsets.UTF_8));
+      put(zip, SnapshotBundle.sourcesEntry(FOO), FOO_SOURCES);
+    }
+
+    try(MirrorServer server = MirrorServer.start(new SnapshotBundle(bundleFile), 0)) {
+
+      assertEquals(FOO_DEPENDENCIES,
+          new String(get(server.getUrl() + "/package/org.renjin.cran/foo/1.0/resolveDependencies"), StandardCharsets.UTF_8));
+
+      assertArrayEquals(FOO_SOURCES,
+          get(server.getUrl() + "/package/org.renjin.cran/foo/1.0/source.tar.gz"));
+
+      // Package versions missing from the bundle are left out of bulk responses
+      assertEquals("{\"org.renjin.cran:foo:1.0\":" + FOO_DEPENDENCIES + "}",
+          new String(get(server.getUrl() + "/packages/resolveDependencySets?p=org.renjin.cran:foo:1.0&p=org.renjin.cran:bar:2.0"),
+              StandardCharsets.UTF_8));
+
+      HttpURLConnection missing = (HttpURLConnection) new URL(server.getUrl() + "/package/org.renjin.cran/bar/2.0/source.tar.gz").openConnection();
+      assertEquals(404, missing.getResponseCode());
+    }
+  }
+
+  private static void put(ZipOutputStream zip, String name, byte[] content) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content);
+    zip.closeEntry();
+  }
+
+  private static byte[] get(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    assertEquals(200, connection.getResponseCode());
+    try(InputStream in = connection.getInputStream()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
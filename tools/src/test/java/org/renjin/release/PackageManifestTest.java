@@ -0,0 +1,44 @@
+package org.renjin.release;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackageManifestTest {
+
+  private static final PackageVersionId FOO = PackageVersionId.fromTriplet("org.renjin.cran:foo:1.0");
+  private static final PackageVersionId BAR = PackageVersionId.fromTriplet("org.renjin.cran:bar:2.0");
+
+  @Test
+  public void roundTrip() throws Exception {
+    File rootDir = Files.createTempDir();
+
+    PackageManifest manifest = PackageManifest.read(rootDir);
+    PackageManifest.Entry foo = new PackageManifest.Entry(FOO, "Foo", "abc");
+    foo.setNeedsCompilation(true);
+    foo.setCxxStandard("C++11");
+    foo.getCompile().addAll(Arrays.asList(":cran:bar", "org.renjin:stats"));
+    manifest.put("foo", foo);
+    manifest.put("bar", new PackageManifest.Entry(BAR, "Bar", "def"));
+    manifest.put("removed", new PackageManifest.Entry(BAR, "Removed", "ghi"));
+
+    assertTrue(manifest.write(rootDir, Arrays.asList(FOO, BAR)));
+
+    PackageManifest read = PackageManifest.read(rootDir);
+    assertEquals("abc", read.get("foo").getFingerprint());
+    assertEquals("C++11", read.get("foo").getCxxStandard());
+    assertEquals(Arrays.asList(":cran:bar", "org.renjin:stats"), read.get("foo").getCompile());
+    assertEquals(Collections.emptyList(), read.get("bar").getLink());
+    assertEquals(null, read.get("removed"));
+
+    // Unchanged entries leave the file alone, so that Gradle does not see a change
+    assertEquals(false, read.write(rootDir, Arrays.asList(FOO, BAR)));
+  }
+}
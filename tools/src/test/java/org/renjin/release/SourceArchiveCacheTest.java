@@ -0,0 +1,114 @@
+package org.renjin.release;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.renjin.release.model.PackageVersionId;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SourceArchiveCacheTest {
+
+  private static final PackageVersionId FOO = PackageVersionId.fromTriplet("org.renjin.cran:foo:1.0");
+  private static final PackageVersionId BAR = PackageVersionId.fromTriplet("org.renjin.cran:bar:1.0");
+  private static final PackageVersionId BAZ = PackageVersionId.fromTriplet("org.renjin.cran:baz:1.0");
+
+  private final File rootDir = Files.createTempDir();
+
+  @Test
+  public void returnsVerifiedArchive() throws IOException {
+    SourceArchiveCache cache = new SourceArchiveCache(rootDir, 1024 * 1024);
+    cache.put(FOO, archive(FOO));
+
+    assertArrayEquals(bytes(FOO), Files.toByteArray(cache.get(FOO)));
+    assertNull(cache.get(BAR));
+  }
+
+  @Test
+  public void corruptArchiveIsAMiss() throws IOException {
+    SourceArchiveCache cache = new SourceArchiveCache(rootDir, 1024 * 1024);
+    File object = cache.put(FOO, archive(FOO));
+    Files.write("corrupt".getBytes(Charsets.UTF_8), object);
+
+    assertNull(cache.get(FOO));
+    assertFalse(object.exists());
+    assertNull(cache.get(FOO));
+  }
+
+  @Test
+  public void missingArchiveIsAMiss() throws IOException {
+    SourceArchiveCache cache = new SourceArchiveCache(rootDir, 1024 * 1024);
+    File object = cache.put(FOO, archive(FOO));
+    object.delete();
+
+    assertNull(cache.get(FOO));
+  }
+
+  @Test
+  public void corruptIndexEntryIsAMiss() throws IOException {
+    SourceArchiveCache cache = new SourceArchiveCache(rootDir, 1024 * 1024);
+    cache.put(FOO, archive(FOO));
+    cache.put(BAR, archive(BAR));
+
+    // Such as left by a crash or a full disk
+    Files.write(new byte[0], indexFile(FOO));
+    Files.write("a1".getBytes(Charsets.UTF_8), indexFile(BAR));
+
+    assertNull(cache.get(FOO));
+    assertNull(cache.get(BAR));
+    assertFalse(indexFile(FOO).exists());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws IOException {
+    // Room for two archives
+    SourceArchiveCache cache = new SourceArchiveCache(rootDir, bytes(FOO).length * 5 / 2, 0);
+    File foo = cache.put(FOO, archive(FOO));
+    File bar = cache.put(BAR, archive(BAR));
+    long now = System.currentTimeMillis();
+    foo.setLastModified(now - 3000);
+    bar.setLastModified(now - 2000);
+
+    // Using foo makes bar the least recently used
+    assertNotNull(cache.get(FOO));
+    cache.put(BAZ, archive(BAZ));
+
+    assertNull(cache.get(BAR));
+    assertNotNull(cache.get(FOO));
+    assertNotNull(cache.get(BAZ));
+  }
+
+  @Test
+  public void doesNotEvictRecentlyUsed() throws IOException {
+    SourceArchiveCache cache = new SourceArchiveCache(rootDir, bytes(FOO).length, 60_000);
+    cache.put(FOO, archive(FOO));
+    cache.put(BAR, archive(BAR));
+
+    // foo may just have been verified by another process, which is about to read it
+    assertNotNull(cache.get(FOO));
+    assertNotNull(cache.get(BAR));
+  }
+
+  private File indexFile(PackageVersionId pvid) {
+    return new File(new File(new File(rootDir, "index"), pvid.getGroupId()),
+        pvid.getPackageName() + "_" + pvid.getVersionString());
+  }
+
+  private static ByteArrayInputStream archive(PackageVersionId pvid) {
+    return new ByteArrayInputStream(bytes(pvid));
+  }
+
+  /**
+   * Stands in for an archive, of the same length for every package.
+   */
+  private static byte[] bytes(PackageVersionId pvid) {
+    return ("archive of " + pvid.getPackageName()).getBytes(Charsets.UTF_8);
+  }
+}
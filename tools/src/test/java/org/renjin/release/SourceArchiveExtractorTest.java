@@ -0,0 +1,180 @@
+package org.renjin.release;
+
+import com.google.common.io.Files;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SourceArchiveExtractorTest {
+
+  private static final byte[] DESCRIPTION = "Package: foo\nVersion: 1.0\n".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void extractsStrippingFirstComponent() throws Exception {
+    File root = Files.createTempDir();
+    File targetDir = new File(root, "foo");
+
+    byte[] archive = archive(
+        file("foo/DESCRIPTION", DESCRIPTION),
+        file("foo/R/foo.R", "foo <- 1\n".getBytes(StandardCharsets.UTF_8)),
+        symlink("foo/R/bar.R", "foo.R"),
+        hardLink("foo/DESCRIPTION.copy", "foo/DESCRIPTION"));
+
+    SourceArchiveExtractor.Result result = SourceArchiveExtractor.extract(new ByteArrayInputStream(archive), targetDir, 1);
+
+    assertEquals(3, result.getFileCount());
+    assertArrayEquals(DESCRIPTION, Files.toByteArray(new File(targetDir, "DESCRIPTION")));
+    assertArrayEquals(DESCRIPTION, Files.toByteArray(new File(targetDir, "DESCRIPTION.copy")));
+    assertTrue(java.nio.file.Files.isSymbolicLink(new File(targetDir, "R/bar.R").toPath()));
+  }
+
+  @Test
+  public void rejectsPathTraversal() throws Exception {
+    assertRejected(
+        file("foo/DESCRIPTION", DESCRIPTION),
+        file("foo/../../escaped", DESCRIPTION));
+  }
+
+  @Test
+  public void rejectsSymlinkOutsideTarget() throws Exception {
+    assertRejected(symlink("foo/link", "../../escaped"));
+    assertRejected(symlink("foo/link", "/tmp"));
+  }
+
+  @Test
+  public void rejectsWritesThroughSymlink() throws Exception {
+    // Each link seems to stay inside the target, but as here -> . the second one is really created in sub,
+    // and links outside of it
+    assertRejected(
+        directory("foo/sub"),
+        symlink("foo/here", "."),
+        symlink("foo/here/sub/link", "../../escaped"));
+  }
+
+  @Test
+  public void rejectsLinkThroughEarlierLink() throws Exception {
+    // s -> .. is inside the target, but s/.. is outside of it, although l's target normalizes to deep/escaped
+    assertRejected(
+        directory("foo/deep"),
+        symlink("foo/deep/s", ".."),
+        symlink("foo/deep/l", "s/../../escaped"),
+        file("foo/deep/l", DESCRIPTION));
+  }
+
+  @Test
+  public void rejectsLinkThroughLaterLink() throws Exception {
+    assertRejected(
+        directory("foo/deep"),
+        symlink("foo/deep/l", "s/../../escaped"),
+        symlink("foo/deep/s", ".."));
+  }
+
+  @Test
+  public void replacesLinkInsteadOfWritingThroughIt() throws Exception {
+    File root = Files.createTempDir();
+    File targetDir = new File(root, "foo");
+
+    SourceArchiveExtractor.extract(new ByteArrayInputStream(archive(
+        file("foo/DESCRIPTION", DESCRIPTION),
+        symlink("foo/NAMESPACE", "DESCRIPTION"),
+        file("foo/NAMESPACE", "export(foo)\n".getBytes(StandardCharsets.UTF_8)))), targetDir, 1);
+
+    assertFalse(java.nio.file.Files.isSymbolicLink(new File(targetDir, "NAMESPACE").toPath()));
+    assertArrayEquals(DESCRIPTION, Files.toByteArray(new File(targetDir, "DESCRIPTION")));
+  }
+
+  @Test
+  public void doesNotCopyHardLinkThroughSymlink() throws Exception {
+    File targetDir = new File(Files.createTempDir(), "foo");
+
+    // Following s would copy whatever it points to, which could be outside of the target
+    SourceArchiveExtractor.Result result = SourceArchiveExtractor.extract(new ByteArrayInputStream(archive(
+        symlink("foo/s", "DESCRIPTION"),
+        hardLink("foo/copy", "foo/s"))), targetDir, 1);
+
+    assertEquals(0, result.getFileCount());
+    assertFalse(new File(targetDir, "copy").exists());
+  }
+
+  @Test
+  public void failsOnTruncatedStream() throws Exception {
+    File root = Files.createTempDir();
+    byte[] archive = archive(file("foo/DESCRIPTION", DESCRIPTION), file("foo/NAMESPACE", new byte[100_000]));
+    byte[] truncated = Arrays.copyOf(archive, archive.length / 2);
+
+    try {
+      SourceArchiveExtractor.extract(new ByteArrayInputStream(truncated), new File(root, "foo"), 1);
+      fail("expected an IOException");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static void assertRejected(Entry... entries) throws IOException {
+    File root = Files.createTempDir();
+    try {
+      SourceArchiveExtractor.extract(new ByteArrayInputStream(archive(entries)), new File(root, "foo"), 1);
+      fail("expected an IOException");
+    } catch (IOException expected) {
+    }
+    assertFalse(new File(root, "escaped").exists());
+    assertFalse(new File(root.getParentFile(), "escaped").exists());
+  }
+
+  private static class Entry {
+    private final TarArchiveEntry header;
+    private final byte[] content;
+
+    private Entry(TarArchiveEntry header, byte[] content) {
+      this.header = header;
+      this.content = content;
+    }
+  }
+
+  private static Entry file(String name, byte[] content) {
+    TarArchiveEntry header = new TarArchiveEntry(name);
+    header.setSize(content.length);
+    return new Entry(header, content);
+  }
+
+  private static Entry directory(String name) {
+    return new Entry(new TarArchiveEntry(name + "/"), new byte[0]);
+  }
+
+  private static Entry symlink(String name, String target) {
+    TarArchiveEntry header = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+    header.setLinkName(target);
+    return new Entry(header, new byte[0]);
+  }
+
+  private static Entry hardLink(String name, String target) {
+    TarArchiveEntry header = new TarArchiveEntry(name, TarArchiveEntry.LF_LINK);
+    header.setLinkName(target);
+    return new Entry(header, new byte[0]);
+  }
+
+  private static byte[] archive(Entry... entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(bytes))) {
+      for (Entry entry : entries) {
+        tar.putArchiveEntry(entry.header);
+        tar.write(entry.content);
+        tar.closeArchiveEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
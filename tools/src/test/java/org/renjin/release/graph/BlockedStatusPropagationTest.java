@@ -0,0 +1,118 @@
+package org.renjin.release.graph;
+
+import org.junit.Test;
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BlockedStatusPropagationTest {
+
+  private final Map<String, PackageNode> nodes = new LinkedHashMap<>();
+  private final Map<String, Set<DependencyEdge>> edges = new HashMap<>();
+  private final Map<String, CompletableFuture<Set<DependencyEdge>>> futures = new HashMap<>();
+
+  @Test
+  public void chainIsBlockedBecauseOfItsRoot() {
+    // a <- b <- c <- d, and e only suggests d
+    dependOn("b", "a");
+    dependOn("c", "b");
+    dependOn("d", "c");
+    suggest("e", "d");
+    CompactPackageGraph graph = build();
+
+    BlockedStatusPropagation propagation = BlockedStatusPropagation.propagate(graph, set(graph, "a"));
+
+    assertEquals(names("b", "c", "d"), names(graph, propagation.getNewlyBlocked()));
+    // Every package names the blocked root, not the dependency through which it was reached
+    assertEquals("a", cause(graph, propagation, "b"));
+    assertEquals("a", cause(graph, propagation, "c"));
+    assertEquals("a", cause(graph, propagation, "d"));
+    assertEquals("a", cause(graph, propagation, "a"));
+    assertFalse(propagation.isBlocked(graph.indexOf(id("e"))));
+    assertEquals(-1, propagation.getCause(graph.indexOf(id("e"))));
+  }
+
+  @Test
+  public void diamondIsBlockedOnce() {
+    // base <- left, right <- top
+    dependOn("left", "base");
+    dependOn("right", "base");
+    dependOn("top", "left", "right");
+    CompactPackageGraph graph = build();
+
+    BlockedStatusPropagation fromBase = BlockedStatusPropagation.propagate(graph, set(graph, "base"));
+    assertEquals(names("left", "right", "top"), names(graph, fromBase.getNewlyBlocked()));
+    assertEquals("base", cause(graph, fromBase, "top"));
+
+    BlockedStatusPropagation fromLeft = BlockedStatusPropagation.propagate(graph, set(graph, "left"));
+    assertEquals(names("top"), names(graph, fromLeft.getNewlyBlocked()));
+    assertEquals("left", cause(graph, fromLeft, "top"));
+    assertFalse(fromLeft.isBlocked(graph.indexOf(id("right"))));
+  }
+
+  private void dependOn(String name, String... dependencyNames) {
+    for (String dependencyName : dependencyNames) {
+      addEdge(name, dependencyName, false);
+    }
+  }
+
+  private void suggest(String name, String dependencyName) {
+    addEdge(name, dependencyName, true);
+  }
+
+  private void addEdge(String name, String dependencyName, boolean optional) {
+    PackageNode dependency = node(dependencyName);
+    PackageNode node = node(name);
+    edges.get(name).add(new DependencyEdge(dependency, optional));
+    dependency.addReverseDependency(node);
+  }
+
+  private PackageNode node(String name) {
+    return nodes.computeIfAbsent(name, n -> {
+      edges.put(n, new HashSet<>());
+      CompletableFuture<Set<DependencyEdge>> future = new CompletableFuture<>();
+      futures.put(n, future);
+      return new PackageNode(PackageVersionId.fromTriplet("org.renjin.cran:" + n + ":1.0"), future);
+    });
+  }
+
+  private CompactPackageGraph build() {
+    for (String name : nodes.keySet()) {
+      futures.get(name).complete(edges.get(name));
+    }
+    return CompactPackageGraph.of(nodes.values());
+  }
+
+  private static PackageId id(String name) {
+    return PackageId.of(PackageId.CRAN_GROUP, name);
+  }
+
+  private static BitSet set(CompactPackageGraph graph, String... names) {
+    BitSet set = new BitSet();
+    for (String name : names) {
+      set.set(graph.indexOf(id(name)));
+    }
+    return set;
+  }
+
+  private static String cause(CompactPackageGraph graph, BlockedStatusPropagation propagation, String name) {
+    return graph.getId(propagation.getCause(graph.indexOf(id(name)))).getPackageName();
+  }
+
+  private static Set<String> names(String... names) {
+    return new HashSet<>(Arrays.asList(names));
+  }
+
+  private static Set<String> names(CompactPackageGraph graph, BitSet set) {
+    Set<String> names = new HashSet<>();
+    for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+      names.add(graph.getId(i).getPackageName());
+    }
+    return names;
+  }
+}
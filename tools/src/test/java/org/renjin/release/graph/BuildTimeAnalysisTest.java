@@ -0,0 +1,98 @@
+package org.renjin.release.graph;
+
+import org.junit.Test;
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+
+public class BuildTimeAnalysisTest {
+
+  /**
+   * a (10) <- b (20), c (2) <- d (5), with e (1) on its own, and f (3) only suggested by d.
+   */
+  private final Map<String, PackageNode> nodes = new HashMap<>();
+  private final Map<String, Long> durations = new HashMap<>();
+  private final BuildTimeAnalysis analysis = analyze();
+
+  @Test
+  public void criticalPath() {
+    assertEquals(Arrays.asList("a", "b", "d"), names(analysis.getCriticalPath()));
+    assertEquals(35, analysis.getCriticalPathLength());
+    assertEquals(41, analysis.getTotalWork());
+  }
+
+  @Test
+  public void slack() {
+    assertEquals(0, analysis.getSlack(nodes.get("a")));
+    assertEquals(0, analysis.getSlack(nodes.get("b")));
+    assertEquals(18, analysis.getSlack(nodes.get("c")));
+    assertEquals(0, analysis.getSlack(nodes.get("d")));
+    assertEquals(34, analysis.getSlack(nodes.get("e")));
+    assertEquals(32, analysis.getSlack(nodes.get("f")));
+  }
+
+  @Test
+  public void downstreamWork() {
+    assertEquals(27, analysis.getDownstreamWork(nodes.get("a")));
+    assertEquals(5, analysis.getDownstreamWork(nodes.get("c")));
+    assertEquals(0, analysis.getDownstreamWork(nodes.get("d")));
+    // d only suggests f, so f gates nothing
+    assertEquals(0, analysis.getDownstreamWork(nodes.get("f")));
+    assertEquals(Arrays.asList("a", "b"), names(analysis.getGatingPackages(2)));
+  }
+
+  @Test
+  public void wallTime() {
+    // One worker builds everything one after the other
+    assertEquals(analysis.getTotalWork(), analysis.estimateWallTime(1));
+    // Two workers suffice to reach the critical path, as the longest chain is started first
+    assertEquals(35, analysis.estimateWallTime(2));
+    assertEquals(analysis.getCriticalPathLength(), analysis.estimateWallTime(8));
+  }
+
+  private BuildTimeAnalysis analyze() {
+    Map<PackageNode, CompletableFuture<Set<DependencyEdge>>> futures = new HashMap<>();
+    String[] names = { "a", "b", "c", "d", "e", "f" };
+    long[] times = { 10, 20, 2, 5, 1, 3 };
+    for (int i = 0; i < names.length; i++) {
+      CompletableFuture<Set<DependencyEdge>> future = new CompletableFuture<>();
+      PackageNode node = new PackageNode(PackageVersionId.fromTriplet("org.renjin.cran:" + names[i] + ":1.0"), future);
+      nodes.put(names[i], node);
+      durations.put(names[i], times[i]);
+      futures.put(node, future);
+    }
+    Map<String, Set<DependencyEdge>> edges = new HashMap<>();
+    for (String name : names) {
+      edges.put(name, new HashSet<>());
+    }
+    edges.get("b").add(new DependencyEdge(nodes.get("a"), false));
+    edges.get("c").add(new DependencyEdge(nodes.get("a"), false));
+    edges.get("d").add(new DependencyEdge(nodes.get("b"), false));
+    edges.get("d").add(new DependencyEdge(nodes.get("c"), false));
+    edges.get("d").add(new DependencyEdge(nodes.get("f"), true));
+
+    Map<PackageId, PackageNode> byId = new HashMap<>();
+    for (String name : names) {
+      PackageNode node = nodes.get(name);
+      futures.get(node).complete(edges.get(name));
+      for (DependencyEdge edge : edges.get(name)) {
+        edge.getPackageNode().addReverseDependency(node);
+      }
+      byId.put(node.getId().getPackageId(), node);
+    }
+
+    return new BuildTimeAnalysis(new PackageGraph(byId), node -> durations.get(node.getId().getPackageName()));
+  }
+
+  private static List<String> names(List<PackageNode> nodes) {
+    List<String> names = new ArrayList<>();
+    for (PackageNode node : nodes) {
+      names.add(node.getId().getPackageName());
+    }
+    return names;
+  }
+}
@@ -0,0 +1,127 @@
+package org.renjin.release.graph;
+
+import org.junit.After;
+import org.junit.Test;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependencySet;
+import org.renjin.release.resilience.CircuitOpenException;
+
+import javax.ws.rs.NotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingDependencyResolverTest {
+
+  private static final PackageVersionId FOO = PackageVersionId.fromTriplet("org.renjin.cran:foo:1.0");
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final ExecutorService callers = Executors.newFixedThreadPool(8);
+
+  private final Map<PackageVersionId, AtomicInteger> remoteCalls = new ConcurrentHashMap<>();
+
+  /**
+   * Each load starts by reading the store, so this counts loads, including those answered by the store.
+   */
+  private final Map<PackageVersionId, AtomicInteger> storeReads = new ConcurrentHashMap<>();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    callers.shutdownNow();
+  }
+
+  @Test
+  public void concurrentRequestsLoadOnce() throws Exception {
+    CachingDependencyResolver resolver = resolver(pvid ->
+        CompletableFuture.completedFuture(new ResolvedDependencySet(new ArrayList<>())));
+
+    // Race many requests for each package version, so that some arrive just as the first load finishes
+    for (int i = 0; i < 200; i++) {
+      PackageVersionId pvid = PackageVersionId.fromTriplet("org.renjin.cran:p" + i + ":1.0");
+      CyclicBarrier barrier = new CyclicBarrier(8);
+      List<Future<ResolvedDependencySet>> results = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        results.add(callers.submit(() -> {
+          barrier.await();
+          return resolver.resolve(pvid).get(10, TimeUnit.SECONDS);
+        }));
+      }
+      for (Future<ResolvedDependencySet> result : results) {
+        result.get(10, TimeUnit.SECONDS);
+      }
+      assertEquals("loads of " + pvid, 1, storeReads.get(pvid).get());
+    }
+  }
+
+  @Test
+  public void remembersNotFound() throws Exception {
+    CachingDependencyResolver resolver = resolver(pvid -> failed(new NotFoundException()));
+
+    assertFails(resolver.resolve(FOO), NotFoundException.class);
+    assertFails(resolver.resolve(FOO), NotFoundException.class);
+
+    assertEquals(1, remoteCalls.get(FOO).get());
+    assertEquals(1, resolver.getNegativeHitCount());
+  }
+
+  @Test
+  public void doesNotRememberTransientFailures() throws Exception {
+    CachingDependencyResolver resolver = resolver(pvid -> failed(new CircuitOpenException("resolveDependencies")));
+
+    assertFails(resolver.resolve(FOO), CircuitOpenException.class);
+    assertFails(resolver.resolve(FOO), CircuitOpenException.class);
+
+    assertEquals(2, remoteCalls.get(FOO).get());
+    assertEquals(0, resolver.getNegativeHitCount());
+  }
+
+  private CachingDependencyResolver resolver(DependencyResolver remote) {
+    DependencyResolver counting = pvid -> {
+      remoteCalls.computeIfAbsent(pvid, key -> new AtomicInteger()).incrementAndGet();
+      return remote.resolve(pvid);
+    };
+    DependencyStore store = new DependencyStore() {
+      private final Map<PackageVersionId, ResolvedDependencySet> map = new ConcurrentHashMap<>();
+
+      @Override
+      public ResolvedDependencySet get(PackageVersionId pvid) {
+        storeReads.computeIfAbsent(pvid, key -> new AtomicInteger()).incrementAndGet();
+        return map.get(pvid);
+      }
+
+      @Override
+      public void cache(PackageVersionId pvid, ResolvedDependencySet dependencySet) {
+        map.put(pvid, dependencySet);
+      }
+    };
+    // The store is left empty by failures, so that a second load would be visible as a second remote call
+    return new CachingDependencyResolver(executor, store, counting, 1000, 1, 1, TimeUnit.HOURS);
+  }
+
+  private static CompletableFuture<ResolvedDependencySet> failed(Throwable error) {
+    CompletableFuture<ResolvedDependencySet> future = new CompletableFuture<>();
+    future.completeExceptionally(error);
+    return future;
+  }
+
+  private static void assertFails(CompletableFuture<ResolvedDependencySet> future, Class<?> expected)
+      throws InterruptedException, TimeoutException {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("expected " + expected.getSimpleName());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      while(cause instanceof CompletionException) {
+        cause = cause.getCause();
+      }
+      assertTrue("unexpected " + cause, expected.isInstance(cause));
+    }
+  }
+}
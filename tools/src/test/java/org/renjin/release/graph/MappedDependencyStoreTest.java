@@ -0,0 +1,127 @@
+package org.renjin.release.graph;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.renjin.release.model.PackageVersionId;
+import org.renjin.release.model.ResolvedDependency;
+import org.renjin.release.model.ResolvedDependencySet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedDependencyStoreTest {
+
+  private static final PackageVersionId FOO = PackageVersionId.fromTriplet("org.renjin.cran:foo:1.0");
+  private static final PackageVersionId BAR = PackageVersionId.fromTriplet("org.renjin.cran:bar:2.0");
+
+  @Test
+  public void roundTrip() throws Exception {
+    File file = new File(Files.createTempDir(), "dependencies.bin");
+
+    try(MappedDependencyStore store = new MappedDependencyStore(file)) {
+      store.cache(FOO, dependencies());
+      assertEquals(describe(dependencies()), describe(store.get(FOO)));
+      assertNull(store.get(BAR));
+    }
+
+    try(MappedDependencyStore store = new MappedDependencyStore(file)) {
+      assertEquals(1, store.size());
+      assertEquals(describe(dependencies()), describe(store.get(FOO)));
+    }
+  }
+
+  @Test
+  public void truncatesIncompleteRecord() throws Exception {
+    File file = new File(Files.createTempDir(), "dependencies.bin");
+    try(MappedDependencyStore store = new MappedDependencyStore(file)) {
+      store.cache(FOO, dependencies());
+    }
+    long complete = file.length();
+
+    // A record whose length says more bytes follow than were written, as if the write was interrupted
+    try(FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[] { 0, 0, 0, 100, 0, 0 });
+    }
+
+    try(MappedDependencyStore store = new MappedDependencyStore(file)) {
+      assertEquals(complete, file.length());
+      assertEquals(describe(dependencies()), describe(store.get(FOO)));
+
+      store.cache(BAR, new ResolvedDependencySet(new ArrayList<>()));
+    }
+    try(MappedDependencyStore store = new MappedDependencyStore(file)) {
+      assertEquals(2, store.size());
+      assertEquals(0, store.get(BAR).getDependencies().size());
+    }
+  }
+
+  @Test
+  public void compactKeepsLatestRecords() throws Exception {
+    File file = new File(Files.createTempDir(), "dependencies.bin");
+    try(MappedDependencyStore store = new MappedDependencyStore(file)) {
+      store.cache(FOO, new ResolvedDependencySet(new ArrayList<>()));
+      store.cache(BAR, dependencies());
+      store.cache(FOO, dependencies());
+      assertTrue(store.getWastedBytes() > 0);
+
+      long before = file.length();
+      store.compact();
+
+      assertEquals(0, store.getWastedBytes());
+      assertTrue(file.length() < before);
+      assertEquals(describe(dependencies()), describe(store.get(FOO)));
+      assertEquals(describe(dependencies()), describe(store.get(BAR)));
+    }
+  }
+
+  @Test
+  public void readsRecordsAppendedAcrossChunks() throws Exception {
+    File file = new File(Files.createTempDir(), "dependencies.bin");
+    List<PackageVersionId> ids = new ArrayList<>();
+    try(MappedDependencyStore store = new MappedDependencyStore(file, 256)) {
+      for (int i = 0; i < 100; i++) {
+        PackageVersionId id = PackageVersionId.fromTriplet("org.renjin.cran:p" + i + ":1.0");
+        ids.add(id);
+        store.cache(id, dependencies());
+        // Read back both the newest record, which may not be mapped yet, and the first
+        assertEquals(describe(dependencies()), describe(store.get(id)));
+        assertEquals(describe(dependencies()), describe(store.get(ids.get(0))));
+      }
+      for (PackageVersionId id : ids) {
+        assertEquals(describe(dependencies()), describe(store.get(id)));
+      }
+    }
+  }
+
+  private static ResolvedDependencySet dependencies() {
+    ResolvedDependency resolved = new ResolvedDependency(BAR);
+    resolved.setBuildNumber(42L);
+
+    ResolvedDependency replaced = new ResolvedDependency("Rcpp");
+    replaced.setReplacementVersion("1.0.1");
+
+    ResolvedDependency optional = new ResolvedDependency("knitr");
+    optional.setOptional(true);
+
+    return new ResolvedDependencySet(Arrays.asList(resolved, replaced, optional));
+  }
+
+  private static String describe(ResolvedDependencySet set) {
+    StringBuilder s = new StringBuilder();
+    for (ResolvedDependency dependency : set.getDependencies()) {
+      s.append(dependency.getName()).append(' ')
+          .append(dependency.isOptional()).append(' ')
+          .append(dependency.getPackageVersionId()).append(' ')
+          .append(dependency.getBuildNumber()).append(' ')
+          .append(dependency.getReplacementVersion()).append('\n');
+    }
+    return s.toString();
+  }
+}
@@ -0,0 +1,124 @@
+package org.renjin.release.graph;
+
+import org.junit.Test;
+import org.renjin.release.model.PackageId;
+import org.renjin.release.model.PackageVersionId;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackageBuildSchedulerTest {
+
+  /**
+   * The diamond base <- left, right <- top.
+   */
+  private final Map<String, PackageNode> nodes = new HashMap<>();
+  private final PackageGraph graph = diamond();
+
+  @Test(timeout = 10_000)
+  public void buildsDiamondInDependencyOrder() throws Exception {
+    PackageBuildScheduler scheduler = graph.newScheduler();
+    List<String> built = new CopyOnWriteArrayList<>();
+
+    scheduler.run(4, node -> built.add(node.getId().getPackageName()));
+
+    assertEquals(4, built.size());
+    assertEquals("base", built.get(0));
+    assertEquals("top", built.get(3));
+    assertEquals(4, scheduler.count(PackageBuildScheduler.State.COMPLETED));
+  }
+
+  @Test(timeout = 10_000)
+  public void failureSkipsDependents() throws Exception {
+    PackageBuildScheduler scheduler = graph.newScheduler();
+    List<String> failed = new CopyOnWriteArrayList<>();
+    List<String> skipped = new CopyOnWriteArrayList<>();
+    scheduler.onFailed((node, error) -> failed.add(node.getId().getPackageName()));
+    scheduler.onSkipped((node, cause) -> skipped.add(node.getId().getPackageName() + " <- " + cause.getId().getPackageName()));
+
+    scheduler.run(4, node -> {
+      if(node == nodes.get("left")) {
+        throw new RuntimeException("left failed");
+      }
+    });
+
+    assertEquals(Collections.singletonList("left"), failed);
+    assertEquals(Collections.singletonList("top <- left"), skipped);
+    assertEquals(PackageBuildScheduler.State.COMPLETED, scheduler.getState(nodes.get("right")));
+    assertEquals(PackageBuildScheduler.State.SKIPPED, scheduler.getState(nodes.get("top")));
+  }
+
+  @Test(timeout = 10_000)
+  public void errorFailsPackageInsteadOfHanging() throws Exception {
+    PackageBuildScheduler scheduler = graph.newScheduler();
+
+    scheduler.run(2, node -> {
+      if(node == nodes.get("left")) {
+        throw new StackOverflowError();
+      }
+    });
+
+    assertEquals(PackageBuildScheduler.State.FAILED, scheduler.getState(nodes.get("left")));
+    assertEquals(PackageBuildScheduler.State.SKIPPED, scheduler.getState(nodes.get("top")));
+    assertEquals(0, scheduler.count(PackageBuildScheduler.State.RUNNING));
+  }
+
+  @Test(timeout = 10_000)
+  public void listenersRunWithoutHoldingLock() throws Exception {
+    PackageBuildScheduler scheduler = graph.newScheduler();
+    List<String> progress = new CopyOnWriteArrayList<>();
+
+    // Reads the scheduler's state from another thread, which would block if the listener held its lock
+    scheduler.onCompleted(node -> {
+      CompletableFuture<String> read = CompletableFuture.supplyAsync(scheduler::describeProgress);
+      try {
+        progress.add(read.get(5, TimeUnit.SECONDS));
+      } catch (Exception e) {
+        throw new AssertionError("listener called while holding the scheduler's lock", e);
+      }
+    });
+
+    scheduler.run(2, node -> { });
+
+    // Listeners of different workers may run in any order, but the last package's sees every package completed
+    assertEquals(4, progress.size());
+    assertTrue(progress.toString(), progress.stream().anyMatch(p -> p.startsWith("4 completed")));
+  }
+
+  private PackageGraph diamond() {
+    Map<PackageNode, CompletableFuture<Set<DependencyEdge>>> dependencies = new HashMap<>();
+    for (String name : Arrays.asList("base", "left", "right", "top")) {
+      CompletableFuture<Set<DependencyEdge>> future = new CompletableFuture<>();
+      PackageNode node = new PackageNode(PackageVersionId.fromTriplet("org.renjin.cran:" + name + ":1.0"), future);
+      nodes.put(name, node);
+      dependencies.put(node, future);
+    }
+    dependencies.get(nodes.get("base")).complete(Collections.emptySet());
+    dependOn("left", dependencies, "base");
+    dependOn("right", dependencies, "base");
+    dependOn("top", dependencies, "left", "right");
+
+    Map<PackageId, PackageNode> byId = new HashMap<>();
+    for (PackageNode node : nodes.values()) {
+      byId.put(node.getId().getPackageId(), node);
+    }
+    return new PackageGraph(byId);
+  }
+
+  private void dependOn(String name, Map<PackageNode, CompletableFuture<Set<DependencyEdge>>> dependencies,
+                        String... dependencyNames) {
+    PackageNode node = nodes.get(name);
+    Set<DependencyEdge> edges = new HashSet<>();
+    for (String dependencyName : dependencyNames) {
+      PackageNode dependency = nodes.get(dependencyName);
+      edges.add(new DependencyEdge(dependency, false));
+      dependency.addReverseDependency(node);
+    }
+    dependencies.get(node).complete(edges);
+  }
+}
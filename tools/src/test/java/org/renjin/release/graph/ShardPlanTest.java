@@ -0,0 +1,99 @@
+package org.renjin.release.graph;
+
+import org.junit.Test;
+import org.renjin.release.model.PackageVersionId;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardPlanTest {
+
+  @Test
+  public void shardsDependOnlyOnTheCore() {
+    CompactPackageGraph graph = randomGraph(400, new Random(42));
+    long[] cost = new long[graph.size()];
+    Random random = new Random(7);
+    for (int i = 0; i < cost.length; i++) {
+      cost[i] = 1 + random.nextInt(100);
+    }
+
+    for (int shardCount : new int[] { 1, 2, 4, 8 }) {
+      ShardPlan plan = ShardPlan.partition(graph, cost, shardCount);
+
+      for (int node = 0; node < graph.size(); node++) {
+        int shard = plan.getShard(node);
+        if(graph.isReplaced(node)) {
+          assertEquals(-1, shard);
+          continue;
+        }
+        assertTrue(shard >= 0 && shard < shardCount);
+
+        for (int i = 0; i < graph.getDependencyCount(node); i++) {
+          int dependency = graph.getDependency(node, i);
+          int dependencyShard = plan.getShard(dependency);
+          if(!graph.isDependencyOptional(node, i) && dependencyShard != -1) {
+            assertTrue(String.format("%d shards: %s in shard %d depends on %s in shard %d", shardCount,
+                graph.getId(node), shard, graph.getId(dependency), dependencyShard),
+                dependencyShard == shard || dependencyShard == 0);
+          }
+        }
+      }
+      // Otherwise the check above would hold trivially
+      for (int shard = 0; shard < shardCount; shard++) {
+        assertTrue(shardCount + " shards: shard " + shard + " is empty", !plan.getPackages(shard).isEmpty());
+      }
+      assertEquals(0, plan.getUpstream(0, false).cardinality());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNoShards() {
+    CompactPackageGraph graph = randomGraph(10, new Random(1));
+    ShardPlan.partition(graph, new long[graph.size()], 0);
+  }
+
+  /**
+   * Builds a random acyclic graph in which each package depends on a few earlier ones, preferring the
+   * first packages so that some are widely used, and suggests others. One in twenty packages is replaced.
+   */
+  private static CompactPackageGraph randomGraph(int size, Random random) {
+    List<PackageNode> nodes = new ArrayList<>();
+    List<CompletableFuture<Set<DependencyEdge>>> futures = new ArrayList<>();
+    List<Set<DependencyEdge>> edges = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      CompletableFuture<Set<DependencyEdge>> future = new CompletableFuture<>();
+      PackageNode node = new PackageNode(PackageVersionId.fromTriplet("org.renjin.cran:p" + i + ":1.0"), future);
+      if(i % 20 == 19) {
+        node.replaced("1.0-renjin");
+      }
+      nodes.add(node);
+      futures.add(future);
+      edges.add(new HashSet<>());
+    }
+    for (int i = 1; i < size; i++) {
+      int dependencyCount = random.nextInt(4);
+      for (int d = 0; d < dependencyCount; d++) {
+        int dependency = (int) (i * Math.pow(random.nextDouble(), 3));
+        addEdge(nodes, edges, i, dependency, false);
+      }
+      if(random.nextInt(3) == 0) {
+        addEdge(nodes, edges, i, random.nextInt(size), true);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      futures.get(i).complete(edges.get(i));
+    }
+    return CompactPackageGraph.of(nodes);
+  }
+
+  private static void addEdge(List<PackageNode> nodes, List<Set<DependencyEdge>> edges, int from, int to,
+                              boolean optional) {
+    if(from != to) {
+      edges.get(from).add(new DependencyEdge(nodes.get(to), optional));
+      nodes.get(to).addReverseDependency(nodes.get(from));
+    }
+  }
+}
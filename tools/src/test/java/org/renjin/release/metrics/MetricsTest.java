@@ -0,0 +1,66 @@
+package org.renjin.release.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+  @Test
+  public void countersAreSharedByNameAndLabels() {
+    Counter hits = Metrics.counter("test_lookups_total", "Lookups", "result", "hit");
+    hits.increment();
+    Metrics.counter("test_lookups_total", "Lookups", "result", "hit").add(2);
+    Metrics.counter("test_lookups_total", "Lookups", "result", "miss").increment();
+
+    assertSame(hits, Metrics.counter("test_lookups_total", "Lookups", "result", "hit"));
+    assertEquals(3, hits.getCount());
+
+    String text = Metrics.toPrometheus();
+    assertTrue(text.contains("# TYPE test_lookups_total counter\n" +
+        "test_lookups_total{result=\"hit\"} 3\n" +
+        "test_lookups_total{result=\"miss\"} 1\n"));
+  }
+
+  @Test
+  public void histogramBuckets() {
+    Histogram histogram = Metrics.histogram("test_queue_length", "Queue length", Histogram.COUNTS);
+    histogram.record(0);
+    histogram.record(3);
+    histogram.record(4);
+    histogram.record(20000);
+
+    String text = Metrics.toPrometheus();
+    assertTrue(text.contains("test_queue_length_bucket{le=\"0\"} 1\n"));
+    assertTrue(text.contains("test_queue_length_bucket{le=\"2\"} 1\n"));
+    assertTrue(text.contains("test_queue_length_bucket{le=\"5\"} 3\n"));
+    assertTrue(text.contains("test_queue_length_bucket{le=\"+Inf\"} 4\n"));
+    assertTrue(text.contains("test_queue_length_count 4\n"));
+    assertEquals(20000, histogram.getMax(), 0);
+  }
+
+  @Test
+  public void timerKeepsSlowestSubjects() {
+    Timer timer = Metrics.timer("test_setup_seconds", "Setup", "outcome", "downloaded");
+    long now = System.nanoTime();
+    for (int i = 0; i < 30; i++) {
+      timer.recordSince(now - i * 1_000_000_000L, "package" + i);
+    }
+    assertEquals(30, timer.getCount());
+    assertEquals(20, timer.getSlowest().size());
+    assertEquals("package29", timer.getSlowest().get(0).getSubject());
+
+    JsonNode json = Metrics.toJson("test");
+    for (JsonNode metric : json.get("metrics")) {
+      if(metric.get("name").asText().equals("test_setup_seconds")) {
+        assertEquals("downloaded", metric.get("labels").get("outcome").asText());
+        assertEquals("package29", metric.get("slowest").get(0).get("subject").asText());
+        return;
+      }
+    }
+    throw new AssertionError("test_setup_seconds missing from JSON");
+  }
+}
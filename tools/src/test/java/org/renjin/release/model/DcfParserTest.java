@@ -0,0 +1,92 @@
+package org.renjin.release.model;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DcfParserTest {
+
+  @Test
+  public void continuationLines() {
+    PackageDescription description = DcfParser.parse(
+        "Package: survey\n" +
+        "Version: 3.35-1\n" +
+        "Imports: grid, methods,\n" +
+        "        Matrix (>= 1.2-10),\t\n" +
+        "  survival\n" +
+        "Description: Summary statistics, two-sample tests.\n");
+
+    assertEquals("survey", description.getPackage());
+    assertEquals("3.35-1", description.getVersion());
+    assertEquals("grid, methods, Matrix (>= 1.2-10), survival", description.getFirstProperty("Imports"));
+
+    List<PackageDependency> imports = description.getImports();
+    assertEquals(4, imports.size());
+    assertEquals("Matrix", imports.get(2).getName());
+    assertEquals("[1.2-10,)", imports.get(2).getVersionRange());
+    assertFalse(imports.get(3).isOptional());
+
+    // Parsed only once
+    assertSame(imports, description.getImports());
+  }
+
+  @Test
+  public void windowsLineEndings() {
+    PackageDescription description = DcfParser.parse("Package: a\r\nDepends: R (>= 3.0),\r\n  b\r\n");
+    assertEquals("a", description.getPackage());
+    assertEquals("R (>= 3.0), b", description.getFirstProperty("Depends"));
+  }
+
+  @Test
+  public void emptyListEntries() {
+    PackageDescription description = DcfParser.parse("Package: a\nSuggests: knitr, , testthat,\n");
+    List<PackageDependency> suggests = description.getSuggests();
+    assertEquals(2, suggests.size());
+    assertEquals("testthat", suggests.get(1).getName());
+    assertEquals(true, suggests.get(1).isOptional());
+    assertEquals(0, description.getLinkingTo().size());
+  }
+
+  @Test
+  public void blankLinesWithinDescription() {
+    PackageDescription description = DcfParser.parse(
+        "Package: a\n" +
+        "Version: 1.0\n" +
+        "\n" +
+        "Imports: b,\n" +
+        "\n" +
+        "  c\n" +
+        "\n" +
+        "Suggests: d\n");
+
+    assertEquals("a", description.getPackage());
+    assertEquals("b, c", description.getFirstProperty("Imports"));
+    assertEquals("d", description.getFirstProperty("Suggests"));
+  }
+
+  @Test
+  public void multipleRecords() throws Exception {
+    List<PackageDescription> records = DcfParser.parseAll(new StringReader(
+        "\n" +
+        "Package: A3\n" +
+        "Version: 1.0.0\n" +
+        "Depends: R (>= 2.15.0), xtable,\n" +
+        "        pbapply\n" +
+        "\n" +
+        "\n" +
+        "Package: abc\n" +
+        "Version: 2.1\n"));
+
+    assertEquals(2, records.size());
+    assertEquals("A3", records.get(0).getPackage());
+    assertEquals(3, records.get(0).getDepends().size());
+    assertEquals("abc", records.get(1).getPackage());
+    assertNull(records.get(1).getFirstProperty("Depends"));
+  }
+}
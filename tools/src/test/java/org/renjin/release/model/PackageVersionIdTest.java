@@ -0,0 +1,58 @@
+package org.renjin.release.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PackageVersionIdTest {
+
+  @Test
+  public void compareVersions() {
+    assertTrue(PackageVersionId.compareVersions("1.2-3", "1.2-10") < 0);
+    assertTrue(PackageVersionId.compareVersions("1.10", "1.9") > 0);
+    assertTrue(PackageVersionId.compareVersions("1.0", "1.0.1") < 0);
+    assertEquals(0, PackageVersionId.compareVersions("1.2-3", "1.2.3"));
+  }
+
+  @Test
+  public void emptySegments() {
+    assertEquals(0, PackageVersionId.compareVersions("1..2", "1.2"));
+    assertEquals(0, PackageVersionId.compareVersions("1.0-", "1.0"));
+    assertTrue(PackageVersionId.compareVersions("", "0.1") < 0);
+    assertTrue(PackageVersionId.compareVersions("1.0.99999999999", "1.0.2") > 0);
+  }
+
+  @Test
+  public void canonicalInstances() {
+    PackageVersionId a = PackageVersionId.of(PackageId.CRAN_GROUP, "survey", "3.35-1");
+    PackageVersionId b = PackageVersionId.fromTriplet("org.renjin.cran:survey:3.35-1");
+    PackageVersionId c = new PackageVersionId("org.renjin.cran:survey:3.35-1");
+
+    assertSame(a, b);
+    assertEquals(a, c);
+    assertEquals(a.hashCode(), c.hashCode());
+    assertSame(a.getPackageId(), c.getPackageId());
+    assertSame(a.getPackageId(), PackageId.of(PackageId.CRAN_GROUP, "survey"));
+    assertFalse(a.isNewer(c));
+  }
+
+  @Test
+  public void sort() {
+    List<PackageVersionId> ids = new ArrayList<>(Arrays.asList(
+        PackageVersionId.of(PackageId.CRAN_GROUP, "b", "1.0"),
+        PackageVersionId.of(PackageId.CRAN_GROUP, "a", "1.10"),
+        PackageVersionId.of(PackageId.BIOC_GROUP, "z", "2.0"),
+        PackageVersionId.of(PackageId.CRAN_GROUP, "a", "1.9")));
+    Collections.sort(ids);
+    assertEquals("[org.renjin.bioconductor:z:2.0, org.renjin.cran:a:1.9, org.renjin.cran:a:1.10, org.renjin.cran:b:1.0]",
+        ids.toString());
+  }
+}
@@ -0,0 +1,177 @@
+package org.renjin.release.resilience;
+
+import org.junit.Test;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestGovernorTest {
+
+  @Test
+  public void limitIsHalvedOncePerWindow() throws InterruptedException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 1, 16);
+    long[] admitted = new long[8];
+    for (int i = 0; i < admitted.length; i++) {
+      admitted[i] = limit.acquire();
+    }
+    // All eight requests sent in the same window are throttled, but the limit is only cut once
+    for (long time : admitted) {
+      limit.onOverload(time);
+    }
+    assertEquals(4, limit.getLimit(), 0);
+    assertEquals(0, limit.getInFlight());
+  }
+
+  @Test
+  public void limitGrowsByAboutOnePerWindow() throws InterruptedException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 16);
+    ArrayDeque<Long> inFlight = new ArrayDeque<>();
+
+    // Keep the pipeline full for three windows of 4, 5 and 6 requests
+    for (int completed = 0; completed < 15; completed++) {
+      while(limit.getInFlight() < (int) limit.getLimit()) {
+        inFlight.add(limit.acquire());
+      }
+      limit.onSuccess(inFlight.poll());
+    }
+    assertEquals(7, limit.getLimit(), 0.5);
+  }
+
+  @Test
+  public void retryAfter() {
+    assertEquals(Long.valueOf(120_000), Backoff.parseRetryAfter("120", 0));
+    assertEquals(Long.valueOf(1_000), Backoff.parseRetryAfter("Thu, 01 Jan 1970 00:00:11 GMT", 10_000));
+    assertEquals(null, Backoff.parseRetryAfter("soon", 0));
+
+    Backoff backoff = new Backoff(100, 1000);
+    for (int attempt = 1; attempt < 10; attempt++) {
+      assertTrue(backoff.delayMillis(attempt, null) <= Math.min(1000, 100 << (attempt - 1)));
+      assertTrue(backoff.delayMillis(attempt, 5000L) >= 5000);
+    }
+  }
+
+  @Test
+  public void circuitOpensAfterConsecutiveFailures() {
+    CircuitBreaker breaker = new CircuitBreaker("resolveDependencies", 3, 1000);
+    breaker.onFailure(0);
+    breaker.onFailure(0);
+    breaker.onSuccess();
+    breaker.onFailure(0);
+    breaker.onFailure(0);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    breaker.onFailure(0);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    assertEquals(500, breaker.tryAcquire(500));
+
+    // A single trial request is let through once the circuit has been open long enough
+    assertEquals(0, breaker.tryAcquire(1000));
+    assertTrue(breaker.tryAcquire(1000) > 0);
+    breaker.onFailure(1100);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    assertEquals(0, breaker.tryAcquire(2100));
+    breaker.onSuccess();
+    assertEquals(0, breaker.tryAcquire(2100));
+  }
+
+  @Test
+  public void retriesTransientFailures() {
+    RequestGovernor governor = governor();
+    AtomicInteger calls = new AtomicInteger();
+
+    String result = governor.call("resolveDependencies", () -> {
+      if(calls.incrementAndGet() < 3) {
+        throw new ProcessingException("Read timed out");
+      }
+      return "ok";
+    });
+
+    assertEquals("ok", result);
+    assertEquals(3, calls.get());
+    assertEquals(0, governor.getLimit().getInFlight());
+  }
+
+  @Test
+  public void doesNotRetryNotFound() {
+    RequestGovernor governor = governor();
+    AtomicInteger calls = new AtomicInteger();
+    NotFoundException notFound = new NotFoundException();
+    try {
+      governor.call("resolveDependencySets", () -> {
+        calls.incrementAndGet();
+        throw notFound;
+      });
+      fail("expected NotFoundException");
+    } catch (NotFoundException e) {
+      assertSame(notFound, e);
+    }
+    assertEquals(1, calls.get());
+    assertEquals(CircuitBreaker.State.CLOSED, governor.getBreaker("resolveDependencySets").getState());
+  }
+
+  @Test
+  public void notFoundDoesNotCloseCircuit() {
+    RequestGovernor governor = governor();
+    CircuitBreaker breaker = openedBreaker(governor, "resolveDependencySets");
+
+    try {
+      governor.call("resolveDependencySets", () -> {
+        throw new NotFoundException();
+      });
+      fail("expected NotFoundException");
+    } catch (NotFoundException expected) {
+    }
+    // The trial proved nothing, so the next request is a trial again
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    assertEquals("ok", governor.call("resolveDependencySets", () -> "ok"));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void errorReleasesSlotAndTrial() {
+    RequestGovernor governor = governor();
+    CircuitBreaker breaker = openedBreaker(governor, "resolveDependencies");
+    StackOverflowError error = new StackOverflowError();
+
+    try {
+      governor.call("resolveDependencies", () -> {
+        throw error;
+      });
+      fail("expected StackOverflowError");
+    } catch (StackOverflowError e) {
+      assertSame(error, e);
+    }
+    assertEquals(0, governor.getLimit().getInFlight());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    // Without the trial given back, this would wait for the breaker until maxBreakerWaitMillis
+    assertEquals("ok", governor.call("resolveDependencies", () -> "ok"));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  /**
+   * @return the endpoint's breaker, opened long enough ago that the next request is let through as a trial.
+   */
+  private static CircuitBreaker openedBreaker(RequestGovernor governor, String endpoint) {
+    CircuitBreaker breaker = governor.getBreaker(endpoint);
+    for (int i = 0; i < 3; i++) {
+      breaker.onFailure(0);
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    return breaker;
+  }
+
+  private static RequestGovernor governor() {
+    return new RequestGovernor("test", new AdaptiveConcurrencyLimit(4, 1, 16), new Backoff(1, 10),
+        5, 3, 10, 1000);
+  }
+}